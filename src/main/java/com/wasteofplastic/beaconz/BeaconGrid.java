@@ -0,0 +1,173 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Chunk-bucketed spatial index of beacons. Beacons are stored in cells of CELL_SIZE x CELL_SIZE blocks
+ * so that range queries only have to look at the cells that overlap the search square instead of
+ * every beacon in the register.
+ *
+ */
+public class BeaconGrid {
+
+    /**
+     * Cell size in blocks. Same as a chunk so that a cell never straddles two chunks.
+     */
+    public static final int CELL_SIZE = 16;
+    private static final int CELL_SHIFT = 4;
+
+    private HashMap<Long, List<BeaconObj>> cells = new HashMap<Long, List<BeaconObj>>();
+    private int size = 0;
+
+    /**
+     * Adds a beacon to the index. If a beacon is already indexed at the same x,z it is replaced.
+     * @param beacon
+     */
+    public void add(BeaconObj beacon) {
+        Long key = cellKey(beacon.getX() >> CELL_SHIFT, beacon.getZ() >> CELL_SHIFT);
+        List<BeaconObj> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<BeaconObj>(2);
+            cells.put(key, cell);
+        }
+        Iterator<BeaconObj> it = cell.iterator();
+        while (it.hasNext()) {
+            BeaconObj other = it.next();
+            if (other.getX() == beacon.getX() && other.getZ() == beacon.getZ()) {
+                it.remove();
+                size--;
+            }
+        }
+        cell.add(beacon);
+        size++;
+    }
+
+    /**
+     * Removes a beacon from the index
+     * @param beacon
+     * @return true if the beacon was in the index
+     */
+    public boolean remove(BeaconObj beacon) {
+        Long key = cellKey(beacon.getX() >> CELL_SHIFT, beacon.getZ() >> CELL_SHIFT);
+        List<BeaconObj> cell = cells.get(key);
+        if (cell == null || !cell.remove(beacon)) {
+            return false;
+        }
+        if (cell.isEmpty()) {
+            cells.remove(key);
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all beacons from the index
+     */
+    public void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    /**
+     * @return number of beacons in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get all the beacons whose distance to x,z is strictly less than range
+     * @param x
+     * @param z
+     * @param range
+     * @return list of beacons, empty if none
+     */
+    public List<BeaconObj> getNearby(double x, double z, int range) {
+        List<BeaconObj> result = new ArrayList<BeaconObj>();
+        double distSquared = (double)range * range;
+        int minCellX = ((int)Math.floor(x - range)) >> CELL_SHIFT;
+        int maxCellX = ((int)Math.floor(x + range)) >> CELL_SHIFT;
+        int minCellZ = ((int)Math.floor(z - range)) >> CELL_SHIFT;
+        int maxCellZ = ((int)Math.floor(z + range)) >> CELL_SHIFT;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<BeaconObj> cell = cells.get(cellKey(cellX, cellZ));
+                if (cell != null) {
+                    for (BeaconObj beacon : cell) {
+                        double dx = beacon.getX() - x;
+                        double dz = beacon.getZ() - z;
+                        if (distSquared > dx * dx + dz * dz) {
+                            result.add(beacon);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if any beacon is strictly closer than range to x,z
+     * @param x
+     * @param z
+     * @param range
+     * @return true if there is a beacon in range
+     */
+    public boolean isNear(double x, double z, int range) {
+        double distSquared = (double)range * range;
+        int minCellX = ((int)Math.floor(x - range)) >> CELL_SHIFT;
+        int maxCellX = ((int)Math.floor(x + range)) >> CELL_SHIFT;
+        int minCellZ = ((int)Math.floor(z - range)) >> CELL_SHIFT;
+        int maxCellZ = ((int)Math.floor(z + range)) >> CELL_SHIFT;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<BeaconObj> cell = cells.get(cellKey(cellX, cellZ));
+                if (cell != null) {
+                    for (BeaconObj beacon : cell) {
+                        double dx = beacon.getX() - x;
+                        double dz = beacon.getZ() - z;
+                        if (distSquared > dx * dx + dz * dz) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs cell coordinates into a single key
+     * @param cellX
+     * @param cellZ
+     * @return key
+     */
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long)cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
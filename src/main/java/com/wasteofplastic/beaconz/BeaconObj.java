@@ -228,18 +228,20 @@ public class BeaconObj extends BeaconzPluginDependent {
      */
     public boolean isClear() {
         Block beacon = getBeaconzWorld().getBlockAt((int)location.getX(), y, (int)location.getY());
+        // All the columns are next to each other so read them from snapshots of their chunks
+        ChunkSurface.Snapshots surface = new ChunkSurface.Snapshots(getBeaconzWorld());
         //getLogger().info("DEBUG: block y = " + beacon.getY() + " " + beacon.getLocation());
         for (BlockFace face: FACES) {
             Block block = beacon.getRelative(face);
             //getLogger().info("DEBUG: highest block at " + block.getX() + "," + block.getZ() + " y = " + getHighestBlockYAt(block.getX(), block.getZ()));
-            if (block.getY() != getHighestBlockYAt(block.getX(), block.getZ())) {
+            if (block.getY() != surface.getHighestBlockYAt(block.getX(), block.getZ())) {
                 return false;
             }
         }
         // Check all the defense blocks too
         for (Point2D point: getRegister().getDefensesAtBeacon(this)) {
             beacon = getBeaconzWorld().getBlockAt((int)point.getX(), y, (int)point.getY());
-            if (beacon.getY() != getHighestBlockYAt((int)point.getX(), (int)point.getY())) {
+            if (beacon.getY() != surface.getHighestBlockYAt((int)point.getX(), (int)point.getY())) {
                 return false;
             }
         }
@@ -254,6 +256,9 @@ public class BeaconObj extends BeaconzPluginDependent {
      */
     public void addDefenseBlock(Block block, int levelRequired, UUID uuid) {
         defenseBlocks.put(block, new DefenseBlock(block, levelRequired, uuid));
+        if (getBeaconzPlugin() != null && getRegister() != null) {
+            getRegister().getJournal().defenseAdded(this, block, levelRequired, uuid);
+        }
     }
     
     /**
@@ -263,7 +268,10 @@ public class BeaconObj extends BeaconzPluginDependent {
      * @param uuid 
      */
     public void addDefenseBlock(Block block, int levelRequired, String uuid) {
-        defenseBlocks.put(block, new DefenseBlock(block, levelRequired, uuid)); 
+        defenseBlocks.put(block, new DefenseBlock(block, levelRequired, uuid));
+        if (getBeaconzPlugin() != null && getRegister() != null) {
+            getRegister().getJournal().defenseAdded(this, block, levelRequired, uuid);
+        }
     }
 
     /**
@@ -271,7 +279,9 @@ public class BeaconObj extends BeaconzPluginDependent {
      * @param block
      */
     public void removeDefenseBlock(Block block) {
-        defenseBlocks.remove(block);
+        if (defenseBlocks.remove(block) != null && getBeaconzPlugin() != null && getRegister() != null) {
+            getRegister().getJournal().defenseRemoved(this, block);
+        }
     }
 
     /**
@@ -304,12 +314,9 @@ public class BeaconObj extends BeaconzPluginDependent {
         }
         if (furthest != null) {
             // Remove link from both ends
-            furthest.removeLink(this);
-            removeLink(furthest);
+            getRegister().removeBeaconLink(this, furthest);
             // Remove any triangles related to these two beaconz
-            Iterator<TriangleField> it = getRegister().getTriangleFields().iterator();
-            while (it.hasNext()) {
-                TriangleField triangle = it.next();
+            for (TriangleField triangle : new ArrayList<TriangleField>(getRegister().getTriangleFields())) {
                 if (triangle.hasVertex(this.location) && triangle.hasVertex(furthest.location)) {
                  // Find any players in the triangle being removed
                     for (Player player: getServer().getOnlinePlayers()) {
@@ -321,7 +328,7 @@ public class BeaconObj extends BeaconzPluginDependent {
                             }
                         }
                     }                    
-                    it.remove();
+                    getRegister().removeTriangle(triangle);
                 }
             }
             return true;
@@ -0,0 +1,150 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+import com.wasteofplastic.include.it.unimi.dsi.util.XorShift;
+
+/**
+ * Where the beacons of a game region go, worked out for the whole region in one go.
+ * <p>
+ * Each chunk has its own generator seeded from its coordinates, the game's create time and
+ * Settings.seedAdjustment, so the same game always gets the same beacons and chunks can be planned in
+ * any order or on any thread. The populator only has to look up the chunk's entry.
+ * <p>
+ * Only chunks wholly inside the region are planned. The corner chunks always get a beacon so the
+ * whole map can be covered.
+ *
+ */
+public class BeaconPlan {
+
+    /**
+     * Entry for a chunk without a beacon
+     */
+    public static final int NONE = -1;
+
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+    /**
+     * Column in the chunk as x << 4 | z, or NONE. Indexed by chunk x then z.
+     */
+    private final short[] columns;
+    private int count;
+
+    /**
+     * Plans the beacons of a region
+     * @param corners - region corners
+     * @param createTime - game create time
+     * @param seedAdjustment
+     * @param distribution - chance of a chunk getting a beacon
+     */
+    public BeaconPlan(Point2D[] corners, long createTime, long seedAdjustment, double distribution) {
+        int xMin = (int) corners[0].getX();
+        int zMin = (int) corners[0].getY();
+        int xMax = (int) corners[1].getX();
+        int zMax = (int) corners[1].getY();
+        // Chunks with both their first and last block in the region
+        minX = -((-xMin) >> 4);
+        minZ = -((-zMin) >> 4);
+        maxX = (xMax - 15) >> 4;
+        maxZ = (zMax - 15) >> 4;
+        if (maxX < minX || maxZ < minZ) {
+            columns = new short[0];
+            return;
+        }
+        columns = new short[(maxX - minX + 1) * (maxZ - minZ + 1)];
+        Arrays.fill(columns, (short)NONE);
+        // Corner chunks, same as the populator always used
+        int cornerXMax = xMax - 16;
+        int cornerZMax = zMax - 16;
+        for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+            for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                int cX = chunkX << 4;
+                int cZ = chunkZ << 4;
+                int cornerX = NONE;
+                int cornerZ = NONE;
+                if (cX >= xMin && cX < xMin + 16 && cZ >= zMin && cZ < zMin + 16) {cornerX = 1;  cornerZ = 1; }
+                if (cX <= cornerXMax && cX > cornerXMax - 16 && cZ <= cornerZMax && cZ > cornerZMax - 16) {cornerX = 14; cornerZ = 14;}
+                if (cX <= cornerXMax && cX > cornerXMax - 16 && cZ >= zMin && cZ < zMin + 16) {cornerX = 14; cornerZ = 1; }
+                if (cX >= xMin && cX < xMin + 16 && cZ <= cornerZMax && cZ > cornerZMax - 16) {cornerX = 1;  cornerZ = 14;}
+                XorShift gen = new XorShift(new long[] {chunkX, chunkZ, createTime, seedAdjustment});
+                double nd = gen.nextDouble();
+                int column = NONE;
+                if (cornerX != NONE) {
+                    column = cornerX << 4 | cornerZ;
+                } else if (nd < distribution) {
+                    int x = gen.nextInt(15);
+                    int z = gen.nextInt(15);
+                    column = x << 4 | z;
+                }
+                if (column != NONE) {
+                    columns[index(chunkX, chunkZ)] = (short)column;
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param chunkX
+     * @param chunkZ
+     * @return column in the chunk for the beacon as x << 4 | z, or NONE if the chunk does not get one
+     */
+    public int getColumn(int chunkX, int chunkZ) {
+        if (chunkX < minX || chunkX > maxX || chunkZ < minZ || chunkZ > maxZ) {
+            return NONE;
+        }
+        return columns[index(chunkX, chunkZ)];
+    }
+
+    /**
+     * @return number of beacons planned
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param column
+     * @return x in the chunk
+     */
+    public static int columnX(int column) {
+        return column >> 4;
+    }
+
+    /**
+     * @param column
+     * @return z in the chunk
+     */
+    public static int columnZ(int column) {
+        return column & 15;
+    }
+
+    private int index(int chunkX, int chunkZ) {
+        return (chunkX - minX) * (maxZ - minZ + 1) + (chunkZ - minZ);
+    }
+}
@@ -33,8 +33,6 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.generator.BlockPopulator;
 
-import com.wasteofplastic.include.it.unimi.dsi.util.XorShift;
-
 
 /**
  * BeaconPopulator class
@@ -42,10 +40,11 @@ import com.wasteofplastic.include.it.unimi.dsi.util.XorShift;
  *
  * This is called every time a chunk is (re)generated in the world
  * The idea is to place a single beacon on a chunk if a XorShift
- * generates a random number below the Settings.distribution threshold
- * If Settings.distribution were 1, every chunk would get a single beacon;
+ * generates a random number below the game's distribution threshold
+ * If the distribution were 1, every chunk would get a single beacon;
  * the lower it is, the fewer chunks get a beacon and the beacons
  * are more spread out in the world.
+ * Which chunks get a beacon is worked out in advance for the whole region, see BeaconPlan.
  *
  * Note added by EBaldino: in order to be able to regenerate and repopulate chunks for specific game regions,
  * and considering that other plugins may regenerate a chunk in an active game area, I am removing this from
@@ -62,99 +61,41 @@ public class BeaconPopulator extends BlockPopulator {
 
     @Override
     public void populate(World world, Random unused, Chunk source) {
-        Boolean cornerBeacon = false;
-        Integer cornerX = null;
-        Integer cornerZ = null;
-        
         if (plugin.getRegister() == null) {
             // Not ready!
             return;
         }
 
         // Make sure we're within the boundaries of a game
-        if (plugin.getGameMgr() != null) {
-            int X = source.getX();
-            int Z = source.getZ();
-            
-            if (plugin.getGameMgr().getLobby() == null) {
-                // No lobby yet
-                if (DEBUG)
-                    Bukkit.getLogger().info("DEBUG:no lobby yet");
-                return;
-            }
-            // Don't do anything in the lobby
-            if (plugin.getGameMgr().getLobby().containsPoint(X * 16, Z * 16)) {
-                if (DEBUG)
-                    Bukkit.getLogger().info("DEBUG: no beaconz in lobby");
-                return;
-            }
-            if (plugin.getGameMgr().getLobby().containsPoint(X * 16 + 15, Z * 16 + 15)) {
-                if (DEBUG)
-                    Bukkit.getLogger().info("DEBUG: no beaconz in lobby");
-                return;
-            }            
-            
-            // Don't do anything unless inside a region
-            // Check min coords
-            Region region1 = plugin.getGameMgr().getRegion(X * 16, Z * 16);
-            if (region1 == null) {
-                if (DEBUG)
-                    Bukkit.getLogger().info("DEBUG: non-region");
-                return;
-            }
-            // Check max coords of this chunk
-            Region region2 = plugin.getGameMgr().getRegion(X * 16 + 15, Z * 16 + 15);
-            if (region2 == null || region1 != region2) {
-                if (DEBUG)
-                    Bukkit.getLogger().info("DEBUG: non-region");
-                return;
-            }
-            // If we're in the corner chunk of a region, get the coordinates offset to build the corner beacon
-            int cX = X << 4;
-            int cZ = Z << 4;
-            int xMin = (int) region1.corners()[0].getX();
-            int xMax = (int) region1.corners()[1].getX()-16;
-            int zMin = (int) region1.corners()[0].getY();
-            int zMax = (int) region1.corners()[1].getY()-16;
-            if (cX >= xMin && cX < xMin + 16 && cZ >= zMin && cZ < zMin + 16) {cornerX = 1;  cornerZ = 1; }
-            if (cX <= xMax && cX > xMax - 16 && cZ <= zMax && cZ > zMax - 16) {cornerX = 14; cornerZ = 14;} 
-            if (cX <= xMax && cX > xMax - 16 && cZ >= zMin && cZ < zMin + 16) {cornerX = 14; cornerZ = 1; } 
-            if (cX >= xMin && cX < xMin + 16 && cZ <= zMax && cZ > zMax - 16) {cornerX = 1;  cornerZ = 14;}  
-            cornerBeacon = (cornerX != null && cornerZ != null);
-
-        } else {
+        if (plugin.getGameMgr() == null) {
             if (DEBUG)
                 plugin.getLogger().info("DEBUG: game manager not ready");
             return;
         }
+        int X = source.getX();
+        int Z = source.getZ();
+        if (plugin.getGameMgr().getLobby() == null) {
+            // No lobby yet
+            if (DEBUG)
+                Bukkit.getLogger().info("DEBUG:no lobby yet");
+            return;
+        }
+        // Don't do anything unless inside a game region
+        Region region = plugin.getGameMgr().getRegion(X * 16, Z * 16);
+        if (region == null || region == plugin.getGameMgr().getLobby() || region.getGame() == null) {
+            if (DEBUG)
+                Bukkit.getLogger().info("DEBUG: non-region");
+            return;
+        }
         if (DEBUG)
             plugin.getLogger().info("DEBUG: Populating chunk: " + source.getX() + ":" + source.getZ());
 
-        // pseudo-randomly place a beacon
-        XorShift gen=new XorShift(new long[] {
-                source.getX(),
-                source.getZ(),
-                //world.getSeed(), world seed is always the same, was causing beacons to be placed always on the same spot - using currentTimeMillis instead...
-                System.currentTimeMillis(),
-                Settings.seedAdjustment
-        });                
-        double nd = gen.nextDouble();
-        
-        // Compare the pseudo-random double generated with the game's beacon distribution threshold        
-        Double distribution = plugin.getGameMgr().getRegion(source.getX() << 4, source.getZ() << 4).getGame().getGamedistribution();
-        if (distribution == null) distribution = Settings.distribution;
-        if (nd < distribution || cornerBeacon) {
-            int x;
-            int z;
-            if (cornerBeacon) {
-                // We're building a corner beacon, the relative build coordinates are given by cornerX and cornerZ
-                x = cornerX;
-                z = cornerZ;
-            } else {
-                // Otherwise, pick a random relative position in the chunk
-                x = gen.nextInt(15);
-                z = gen.nextInt(15);
-            }
+        // Look up where the beacon goes, if anywhere. The plan only has chunks wholly inside the region
+        // and always puts a beacon in the corner chunks.
+        int column = region.getGame().getBeaconPlan().getColumn(X, Z);
+        if (column != BeaconPlan.NONE) {
+            int x = BeaconPlan.columnX(column);
+            int z = BeaconPlan.columnZ(column);
             
             // Check if there is already a beacon here, if so, don't make it again
             // This should never happen...
@@ -169,37 +110,21 @@ public class BeaconPopulator extends BlockPopulator {
                 plugin.getLogger().info("DEBUG: Creating beacon at " + (source.getX() * 16 + x) + "," + (source.getZ()*16 + z));
 
             // Figure out at which height the beacon should be placed
-            int y = source.getChunkSnapshot().getHighestBlockYAt(x, z);
-            Block b = source.getBlock(x, y, z);
-            if (b.getType().equals(Material.SNOW)) {
-                // There can be snow in trees, so need to move down to ground level
-                while (y > 0 && (source.getBlock(x, y, z).getType().equals(Material.SNOW) 
-                        || source.getBlock(x, y, z).getType().equals(Material.AIR)
-                        || source.getBlock(x, y, z).getType().equals(Material.LEAVES)
-                        || source.getBlock(x, y, z).getType().equals(Material.LEAVES_2))) {
-                    y--;
-                }
-                b = source.getBlock(x, y, z);
-            }      
+            // Snow, leaves and huge mushrooms are looked through. There can be snow in trees, so need to move down to ground level.
+            // Obsidian is only looked through if it is capping a beacon .. this shouldn't really happen either, since we're regenerating the chunk...
+            // ... but, just in case, it should help avoid the creation of diamond towers, which were plentiful during testing...
+            ChunkSurface surface = new ChunkSurface(source.getChunkSnapshot(true, true, false));
+            int y = surface.getGroundY(x, z);
+            if (y == 0) {
+                // Oops, nothing here
+                return;
+            }
             // Don't make in the ocean or deep ocean because they are too easy to find.
             // Frozen ocean okay for now.
-            if (b.getBiome().equals(Biome.OCEAN) || b.getBiome().equals(Biome.DEEP_OCEAN)) {
+            if (surface.getBiome(x, z).equals(Biome.OCEAN) || surface.getBiome(x, z).equals(Biome.DEEP_OCEAN)) {
                 return;
             }
-            while (b.getType().equals(Material.AIR) || b.getType().equals(Material.LEAVES) || b.getType().equals(Material.LEAVES_2)
-                    || b.getType().equals(Material.HUGE_MUSHROOM_1) || b.getType().equals(Material.HUGE_MUSHROOM_2) || b.getType().equals(Material.OBSIDIAN)) {
-                // if found an obsidian, we only keep going down if it's NOT capping a beacon .. this shouldn't really happen either, since we're regenerating the chunk... 
-                // ... but, just in case, it should help avoid the creation of diamond towers, which were plentiful during testing...
-                if (b.getType().equals(Material.OBSIDIAN) && !b.getRelative(BlockFace.DOWN).getType().equals(Material.BEACON)) {
-                    break;
-                }
-                y--;
-                if (y == 0) {
-                    // Oops, nothing here
-                    return;
-                }
-                b = source.getBlock(x, y, z);
-            }
+            Block b = source.getBlock(x, y, z);
                         
             // Else make it into a beacon
             //beacons.add(new Vector(x,y,z));
@@ -64,6 +64,7 @@ import com.wasteofplastic.beaconz.listeners.BeaconProtectionListener;
 import com.wasteofplastic.beaconz.listeners.BeaconSurroundListener;
 import com.wasteofplastic.beaconz.listeners.ChatListener;
 import com.wasteofplastic.beaconz.listeners.LobbyListener;
+import com.wasteofplastic.beaconz.listeners.MoveDispatcher;
 import com.wasteofplastic.beaconz.listeners.PlayerDeathListener;
 import com.wasteofplastic.beaconz.listeners.PlayerJoinLeaveListener;
 import com.wasteofplastic.beaconz.listeners.PlayerMovementListener;
@@ -133,12 +134,18 @@ public class Beaconz extends JavaPlugin {
                 getServer().getPluginManager().registerEvents(new BeaconCaptureListener(plugin), plugin);
                 getServer().getPluginManager().registerEvents(new ChatListener(plugin), plugin);
                 getServer().getPluginManager().registerEvents(new BeaconPassiveDefenseListener(plugin), plugin);
-                getServer().getPluginManager().registerEvents(new BeaconProjectileDefenseListener(plugin), plugin);
+                // Movement is handled by one listener that passes each move on to the listeners below
+                MoveDispatcher moveDispatcher = new MoveDispatcher(plugin);
+                BeaconProjectileDefenseListener projectileListener = new BeaconProjectileDefenseListener(plugin);
+                getServer().getPluginManager().registerEvents(projectileListener, plugin);
+                moveDispatcher.addConsumer(projectileListener);
                 getServer().getPluginManager().registerEvents(new BeaconProtectionListener(plugin), plugin);
                 getServer().getPluginManager().registerEvents(new PlayerDeathListener(plugin), plugin);
                 getServer().getPluginManager().registerEvents(new PlayerJoinLeaveListener(plugin), plugin);
                 pml = new PlayerMovementListener(plugin);
                 getServer().getPluginManager().registerEvents(pml, plugin);
+                moveDispatcher.addConsumer(pml);
+                getServer().getPluginManager().registerEvents(moveDispatcher, plugin);
                 teleportListener = new PlayerTeleportListener(plugin);
                 getServer().getPluginManager().registerEvents(teleportListener, plugin);
                 getServer().getPluginManager().registerEvents(new SkyListeners(plugin), plugin);
@@ -174,14 +181,20 @@ public class Beaconz extends JavaPlugin {
     {
         if (register != null) {
             register.saveRegister();
+            register.getJournal().close();
             // Remove all map renderers
             register.removeMapRenderers();
         }
         if (beaconzStore != null) {
             beaconzStore.saveInventories();
         }
+        if (nameStore != null) {
+            nameStore.saveDB();
+            nameStore.close();
+        }
 
         getGameMgr().saveAllGames();
+        getGameMgr().getChunkIndex().close();
         /* 
         beaconzWorld.getPopulators().clear();
         if (beaconPopulator != null) {
@@ -236,6 +249,9 @@ public class Beaconz extends JavaPlugin {
         Settings.showTimer = getConfig().getBoolean("general.showtimer");
         // Dynmap
         Settings.useDynmap = getConfig().getBoolean("general.usedynmap");
+        // Map tile cache
+        Settings.mapTileCacheSize = getConfig().getInt("general.maptilecachesize", 16);
+        Settings.mapRasterCacheSize = getConfig().getInt("general.maprastercachesize", 16);
         // Destroy link blocks when they are removed
         Settings.destroyLinkBlocks = getConfig().getBoolean("links.destroylinkblocks",true);
         // Remove longest link if range extender block removed
@@ -422,6 +438,7 @@ public class Beaconz extends JavaPlugin {
         Settings.xCenter = getConfig().getInt("world.xcenter",2000);
         Settings.zCenter = getConfig().getInt("world.zcenter",2000);
         Settings.seedAdjustment = getConfig().getLong("world.seedadjustment", 0);
+        Settings.pregenBudget = getConfig().getInt("world.pregenbudget", 10);
         Settings.mineCoolDown = getConfig().getInt("mining.minecooldown", 1) * 60000; // Minutes in millis
         ConfigurationSection enemyFieldSection = getConfig().getConfigurationSection("triangles.enemyfieldeffects");
         // Step through the numbers
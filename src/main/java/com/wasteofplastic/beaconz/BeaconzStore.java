@@ -23,52 +23,262 @@
 package com.wasteofplastic.beaconz;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
 
 import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitRunnable;
 
 import com.wasteofplastic.beaconz.listeners.BeaconLinkListener;
 
 /**
  * Enables inventory switching between games. Handles food, experience and spawn points.
+ * <p>
+ * Each player has their own file in the inventories folder. Changes are made in memory and the
+ * player is marked as changed. Every few seconds the changed players are written out on a
+ * background thread, so moving between games never waits for the disk.
  * @author tastybento
  *
  */
 public class BeaconzStore extends BeaconzPluginDependent {
-    private YamlConfiguration ymlIndex;
-    private File invFile;
     private static final boolean DEBUG = false;
+    /**
+     * How often changed players are written to disk
+     */
+    private static final long FLUSH_TICKS = 100L;
+    private final File invFolder;
+    private final HashMap<UUID, YamlConfiguration> records = new HashMap<UUID, YamlConfiguration>();
+    /**
+     * Players changed since the last flush. Main thread only.
+     */
+    private final Set<UUID> dirty = new HashSet<UUID>();
+    /**
+     * File contents waiting to be written, an empty string means delete the file. Guarded by itself.
+     */
+    private final Map<UUID, String> pending = new LinkedHashMap<UUID, String>();
+    /**
+     * Only one writer at a time so a player's files are written in order
+     */
+    private final Object writeLock = new Object();
+    private boolean writerRunning = false;
 
     public BeaconzStore(Beaconz beaconzPlugin) {
         super(beaconzPlugin);
-        ymlIndex = new YamlConfiguration();
-        invFile = new File(beaconzPlugin.getDataFolder(),"game_inv.yml");
-        try {
-            if (!invFile.exists()) {
-                ymlIndex.save(invFile);
+        invFolder = new File(beaconzPlugin.getDataFolder(), "inventories");
+        if (!invFolder.exists()) {
+            invFolder.mkdirs();
+        }
+        File[] files = invFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".yml")) {
+                    try {
+                        UUID uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - 4));
+                        records.put(uuid, YamlConfiguration.loadConfiguration(file));
+                    } catch (IllegalArgumentException e) {
+                        getLogger().warning("Skipping " + file.getName() + " in the inventories folder");
+                    }
+                }
             }
-            ymlIndex.load(invFile);
+        }
+        File oldFile = new File(beaconzPlugin.getDataFolder(),"game_inv.yml");
+        if (oldFile.exists()) {
+            convertOldFile(oldFile);
+        }
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                queueChanges();
+            }}.runTaskTimer(beaconzPlugin, FLUSH_TICKS, FLUSH_TICKS);
+    }
+
+    /**
+     * Splits the old single game_inv.yml file into a file per player
+     * @param oldFile
+     */
+    private void convertOldFile(File oldFile) {
+        YamlConfiguration ymlIndex = new YamlConfiguration();
+        try {
+            ymlIndex.load(oldFile);
         } catch (Exception e) {
-            getLogger().severe("Cannot save or load game_inv.yml!");
+            getLogger().severe("Cannot load game_inv.yml!");
+            return;
         }
+        getLogger().info("Converting game_inv.yml to the inventories folder");
+        for (String gameName : ymlIndex.getKeys(false)) {
+            ConfigurationSection game = ymlIndex.getConfigurationSection(gameName);
+            if (game == null) {
+                continue;
+            }
+            for (String uuid : game.getKeys(false)) {
+                ConfigurationSection player = game.getConfigurationSection(uuid);
+                if (player == null) {
+                    continue;
+                }
+                try {
+                    UUID playerUUID = UUID.fromString(uuid);
+                    YamlConfiguration record = getRecord(playerUUID);
+                    for (Entry<String, Object> value : player.getValues(false).entrySet()) {
+                        record.set(gameName + "." + value.getKey(), value.getValue());
+                    }
+                    dirty.add(playerUUID);
+                } catch (IllegalArgumentException e) {
+                    getLogger().warning("Skipping " + uuid + " in game_inv.yml");
+                }
+            }
+        }
+        saveInventories();
+        oldFile.renameTo(new File(getBeaconzPlugin().getDataFolder(), "game_inv.yml.converted"));
     }
 
     /**
-     * Saves to a file
+     * Gets the player's record, making an empty one if there is none
+     * @param uuid
+     * @return record
      */
-    public void saveInventories() {
+    private YamlConfiguration getRecord(UUID uuid) {
+        YamlConfiguration record = records.get(uuid);
+        if (record == null) {
+            record = new YamlConfiguration();
+            records.put(uuid, record);
+        }
+        return record;
+    }
+
+    /**
+     * Sets a value in the player's record and marks it as changed
+     * @param player
+     * @param path
+     * @param value
+     */
+    private void set(Player player, String path, Object value) {
+        getRecord(player.getUniqueId()).set(path, value);
+        dirty.add(player.getUniqueId());
+    }
+
+    /**
+     * Turns the changed records into text and hands them to the background writer. Main thread.
+     */
+    private void queueChanges() {
+        if (dirty.isEmpty() || !takeChanges()) {
+            return;
+        }
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                writePending();
+            }}.runTaskAsynchronously(getBeaconzPlugin());
+    }
+
+    /**
+     * Moves the changed records to the pending writes. Main thread.
+     * @return true if a writer needs to be started, false if one is already running
+     */
+    private boolean takeChanges() {
+        synchronized (pending) {
+            for (UUID uuid : dirty) {
+                YamlConfiguration record = records.get(uuid);
+                if (record == null || record.getKeys(false).isEmpty()) {
+                    records.remove(uuid);
+                    pending.put(uuid, "");
+                } else {
+                    pending.put(uuid, record.saveToString());
+                }
+            }
+            dirty.clear();
+            if (writerRunning) {
+                // The running writer will pick these up
+                return false;
+            }
+            writerRunning = true;
+            return true;
+        }
+    }
+
+    /**
+     * Writes files until there are none waiting
+     */
+    private void writePending() {
+        synchronized (writeLock) {
+            while (true) {
+                Map<UUID, String> batch;
+                synchronized (pending) {
+                    if (pending.isEmpty()) {
+                        writerRunning = false;
+                        return;
+                    }
+                    batch = new LinkedHashMap<UUID, String>(pending);
+                    pending.clear();
+                }
+                for (Entry<UUID, String> entry : batch.entrySet()) {
+                    writeFile(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one player's file by way of a temporary file
+     * @param uuid
+     * @param contents - file contents, empty to delete the file
+     */
+    private void writeFile(UUID uuid, String contents) {
+        File file = new File(invFolder, uuid.toString() + ".yml");
+        if (contents.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File tempFile = new File(invFolder, uuid.toString() + ".yml.tmp");
+        Writer out = null;
         try {
-            ymlIndex.save(invFile);
+            out = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            out.write(contents);
+            out.close();
+            out = null;
+            if (file.exists() && !file.delete()) {
+                getLogger().severe("Could not replace inventory file " + file.getName());
+                return;
+            }
+            if (!tempFile.renameTo(file)) {
+                getLogger().severe("Could not rename " + tempFile.getName());
+            }
         } catch (IOException e) {
-            getLogger().severe("Problem saving game inventories file!");
+            getLogger().severe("Problem saving inventory file " + file.getName() + "!");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
         }
     }
 
+    /**
+     * Writes all changed inventories to disk now and waits for them to finish. Used when the plugin is disabled.
+     */
+    public void saveInventories() {
+        takeChanges();
+        writePending();
+    }
+
     /**
      * Gets items for world. Changes the inventory of player immediately.
      * @param player
@@ -76,10 +286,11 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @return last location of the player in the game or null if there is none
      */
     public Location getInventory(Player player, String gameName) {
+        YamlConfiguration record = getRecord(player.getUniqueId());
         // Get inventory
-        List<?> items = ymlIndex.getList(gameName + "." + player.getUniqueId().toString() + ".inventory");
+        List<?> items = record.getList(gameName + ".inventory");
         if (items != null) player.getInventory().setContents(items.toArray(new ItemStack[items.size()]));
-        double health = ymlIndex.getDouble(gameName + "." + player.getUniqueId().toString() + ".health", 20D);
+        double health = record.getDouble(gameName + ".health", 20D);
         if (health > 20D) {
             health = 20D;
         }
@@ -87,7 +298,7 @@ public class BeaconzStore extends BeaconzPluginDependent {
             health = 1D;
         }
         player.setHealth(health);
-        int food = ymlIndex.getInt(gameName + "." + player.getUniqueId().toString() + ".food", 20); 
+        int food = record.getInt(gameName + ".food", 20); 
         if (food > 20) {
             food = 20;
         }
@@ -95,9 +306,9 @@ public class BeaconzStore extends BeaconzPluginDependent {
             food = 1;
         }
         player.setFoodLevel(food);
-        BeaconLinkListener.setTotalExperience(player, ymlIndex.getInt(gameName + "." + player.getUniqueId().toString() + ".exp", 0));
+        BeaconLinkListener.setTotalExperience(player, record.getInt(gameName + ".exp", 0));
         // Get Spawn Point
-        return (Location)(ymlIndex.get(gameName + "." + player.getUniqueId().toString() + ".location"));
+        return (Location)(record.get(gameName + ".location"));
     }
 
     /**
@@ -122,12 +333,11 @@ public class BeaconzStore extends BeaconzPluginDependent {
             getLogger().info("DEBUG: storeInventory for " + player.getName() + " leaving " + gameName + " from " + from);
         // Copy the player's items to the chest
         List<ItemStack> contents = Arrays.asList(player.getInventory().getContents());  
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".inventory", contents);
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".health", player.getHealth());
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".food", player.getFoodLevel());
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".exp", BeaconLinkListener.getTotalExperience(player));
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".location", player.getLocation());
-        saveInventories();
+        set(player, gameName + ".inventory", contents);
+        set(player, gameName + ".health", player.getHealth());
+        set(player, gameName + ".food", player.getFoodLevel());
+        set(player, gameName + ".exp", BeaconLinkListener.getTotalExperience(player));
+        set(player, gameName + ".location", player.getLocation());
         // Clear the player's inventory
         player.getInventory().clear();
         BeaconLinkListener.setTotalExperience(player, 0);
@@ -141,8 +351,12 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @param gameName
      */
     public void removeGame(String gameName) {
-        ymlIndex.set(gameName, null);
-        saveInventories();
+        for (Entry<UUID, YamlConfiguration> entry : records.entrySet()) {
+            if (entry.getValue().contains(gameName)) {
+                entry.getValue().set(gameName, null);
+                dirty.add(entry.getKey());
+            }
+        }
     }
 
     /**
@@ -152,9 +366,8 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @param spawnPoint
      */
     public void clearItems(Player player, String gameName, Location from) {
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".inventory", null);
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".location", from);
-        saveInventories();
+        set(player, gameName + ".inventory", null);
+        set(player, gameName + ".location", from);
     }
 
     /**
@@ -164,8 +377,7 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @param foodLevel
      */
     public void setFood(Player player, String gameName, int foodLevel) {
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".food", foodLevel);
-        saveInventories();
+        set(player, gameName + ".food", foodLevel);
     }
     
     /**
@@ -175,8 +387,7 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @param maxHealth
      */
     public void setHealth(Player player, String gameName, double maxHealth) {
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".health", maxHealth);
-        saveInventories();
+        set(player, gameName + ".health", maxHealth);
     }
 
     /**
@@ -186,7 +397,6 @@ public class BeaconzStore extends BeaconzPluginDependent {
      * @param newExp
      */
     public void setExp(Player player, String gameName, int newExp) {
-        ymlIndex.set(gameName + "." + player.getUniqueId().toString() + ".exp", newExp);
-        saveInventories();
+        set(player, gameName + ".exp", newExp);
     }
 }
@@ -0,0 +1,246 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Records which game each chunk of a region was last populated for.
+ * <p>
+ * Each region has its own file in the chunks folder holding one long per chunk, the create time of the
+ * game the chunk was populated for, or 0 if it never has been. The files are memory mapped so reading a
+ * chunk's entry is a single array read and writes reach the disk without a save step.
+ * <p>
+ * This replaces the sign that used to be put at 7,1,7 in each chunk.
+ *
+ */
+public class ChunkGenerationIndex {
+
+    private static final byte[] MAGIC = {'B', 'Z', 'C', 1};
+    /**
+     * Magic, then the min and max chunk coordinates. Padded so the entries line up on 8 bytes.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    private final File folder;
+    private final Logger logger;
+    private final List<RegionFile> files = new ArrayList<RegionFile>();
+
+    /**
+     * @param folder - folder to keep the region files in
+     * @param logger
+     */
+    public ChunkGenerationIndex(File folder, Logger logger) {
+        this.folder = folder;
+        this.logger = logger;
+    }
+
+    /**
+     * @param corners - corners of the region the chunk is in
+     * @param chunkX
+     * @param chunkZ
+     * @return create time of the game the chunk was last populated for, or 0 if not known
+     */
+    public long getEpoch(Point2D[] corners, int chunkX, int chunkZ) {
+        RegionFile file = getFile(corners);
+        if (file == null || !file.contains(chunkX, chunkZ)) {
+            return 0L;
+        }
+        return file.buffer.getLong(file.offset(chunkX, chunkZ));
+    }
+
+    /**
+     * Records the game a chunk has been populated for
+     * @param corners - corners of the region the chunk is in
+     * @param chunkX
+     * @param chunkZ
+     * @param epoch - the game's create time
+     */
+    public void setEpoch(Point2D[] corners, int chunkX, int chunkZ, long epoch) {
+        RegionFile file = getFile(corners);
+        if (file != null && file.contains(chunkX, chunkZ)) {
+            file.buffer.putLong(file.offset(chunkX, chunkZ), epoch);
+        }
+    }
+
+    /**
+     * Makes sure everything written so far is on disk
+     */
+    public void flush() {
+        for (RegionFile file : files) {
+            file.buffer.force();
+        }
+    }
+
+    /**
+     * Flushes and forgets all the open region files. They are opened again if needed.
+     */
+    public void close() {
+        flush();
+        files.clear();
+    }
+
+    /**
+     * Forgets a region and deletes its file, e.g., when its game is deleted
+     * @param corners
+     */
+    public void delete(Point2D[] corners) {
+        int minX = (int)corners[0].getX() >> 4;
+        int minZ = (int)corners[0].getY() >> 4;
+        int maxX = (int)corners[1].getX() >> 4;
+        int maxZ = (int)corners[1].getY() >> 4;
+        for (int i = 0; i < files.size(); i++) {
+            RegionFile file = files.get(i);
+            if (file.minX == minX && file.minZ == minZ && file.maxX == maxX && file.maxZ == maxZ) {
+                files.remove(i);
+                break;
+            }
+        }
+        File file = new File(folder, fileName(minX, minZ, maxX, maxZ));
+        if (file.exists() && !file.delete()) {
+            // Some systems will not delete a file that is still mapped. It goes at the next start.
+            logger.warning("Could not delete " + file.getName() + " yet, it will be removed when the server next starts");
+        }
+    }
+
+    /**
+     * Deletes the files of any regions that are not in the list. Used at start up to tidy up after
+     * regions that could not be deleted before.
+     * @param regions - corners of the regions to keep
+     */
+    public void retainOnly(Collection<Point2D[]> regions) {
+        File[] found = folder.listFiles();
+        if (found == null) {
+            return;
+        }
+        Set<String> keep = new HashSet<String>();
+        for (Point2D[] corners : regions) {
+            keep.add(fileName((int)corners[0].getX() >> 4, (int)corners[0].getY() >> 4, (int)corners[1].getX() >> 4, (int)corners[1].getY() >> 4));
+        }
+        for (RegionFile file : files) {
+            keep.add(fileName(file.minX, file.minZ, file.maxX, file.maxZ));
+        }
+        for (File file : found) {
+            if (file.getName().endsWith(".dat") && !keep.contains(file.getName()) && !file.delete()) {
+                logger.warning("Could not delete unused chunk index " + file.getName());
+            }
+        }
+    }
+
+    private static String fileName(int minX, int minZ, int maxX, int maxZ) {
+        return minX + "_" + minZ + "_" + maxX + "_" + maxZ + ".dat";
+    }
+
+    /**
+     * Finds the open file for the region or opens it
+     * @param corners
+     * @return region file or null if it could not be opened
+     */
+    private RegionFile getFile(Point2D[] corners) {
+        int minX = (int)corners[0].getX() >> 4;
+        int minZ = (int)corners[0].getY() >> 4;
+        int maxX = (int)corners[1].getX() >> 4;
+        int maxZ = (int)corners[1].getY() >> 4;
+        // There is one file per game so a scan is quick enough
+        for (int i = 0; i < files.size(); i++) {
+            RegionFile file = files.get(i);
+            if (file.minX == minX && file.minZ == minZ && file.maxX == maxX && file.maxZ == maxZ) {
+                return file;
+            }
+        }
+        try {
+            RegionFile file = new RegionFile(minX, minZ, maxX, maxZ);
+            files.add(file);
+            return file;
+        } catch (IOException e) {
+            logger.severe("Could not open chunk index for region " + minX + "," + minZ + " to " + maxX + "," + maxZ + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private class RegionFile {
+        private final int minX;
+        private final int minZ;
+        private final int maxX;
+        private final int maxZ;
+        private final MappedByteBuffer buffer;
+
+        RegionFile(int minX, int minZ, int maxX, int maxZ) throws IOException {
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            if (!folder.exists() && !folder.mkdirs()) {
+                throw new IOException("Could not make folder " + folder.getName());
+            }
+            File file = new File(folder, fileName(minX, minZ, maxX, maxZ));
+            long size = HEADER_SIZE + 8L * (maxX - minX + 1) * (maxZ - minZ + 1);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                boolean valid = channel.size() == size;
+                if (channel.size() > size) {
+                    channel.truncate(size);
+                }
+                // The mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                for (int i = 0; i < MAGIC.length && valid; i++) {
+                    valid = buffer.get(i) == MAGIC[i];
+                }
+                valid = valid && buffer.getInt(4) == minX && buffer.getInt(8) == minZ
+                        && buffer.getInt(12) == maxX && buffer.getInt(16) == maxZ;
+                if (!valid) {
+                    // New or not what was expected - start again with no chunks known
+                    for (int i = 0; i < size; i++) {
+                        buffer.put(i, (byte)0);
+                    }
+                    for (int i = 0; i < MAGIC.length; i++) {
+                        buffer.put(i, MAGIC[i]);
+                    }
+                    buffer.putInt(4, minX);
+                    buffer.putInt(8, minZ);
+                    buffer.putInt(12, maxX);
+                    buffer.putInt(16, maxZ);
+                }
+            }
+        }
+
+        boolean contains(int chunkX, int chunkZ) {
+            return chunkX >= minX && chunkX <= maxX && chunkZ >= minZ && chunkZ <= maxZ;
+        }
+
+        int offset(int chunkX, int chunkZ) {
+            return HEADER_SIZE + 8 * ((chunkX - minX) * (maxZ - minZ + 1) + (chunkZ - minZ));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.util.Arrays;
+
+/**
+ * Set of the chunks that have a beacon or a beacon base block in them. Used to turn away block events
+ * in chunks with nothing of interest before any other work is done.
+ * <p>
+ * Chunks are only ever added, so the set can say a chunk is used when it no longer is, but it never
+ * misses a chunk that is. Call clear and mark everything again to tighten it up.
+ * <p>
+ * Keys are chunk coordinates packed like CoordMap keys and stored in an open addressing table, so a
+ * lookup is one hash and usually one array read.
+ *
+ */
+public class ChunkSet {
+
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * Marks an empty slot. Chunk coordinates are a block coordinate shifted by 4, so can never make this key.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size;
+    private int mask;
+
+    public ChunkSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Marks the chunk holding this block column as used
+     * @param blockX
+     * @param blockZ
+     */
+    public void mark(int blockX, int blockZ) {
+        long key = CoordMap.key(blockX >> 4, blockZ >> 4);
+        int index = slot(key);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        size++;
+        // Keep the load factor at or under 0.5
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * @param blockX
+     * @param blockZ
+     * @return true if the chunk holding this block column has been marked
+     */
+    public boolean contains(int blockX, int blockZ) {
+        long key = CoordMap.key(blockX >> 4, blockZ >> 4);
+        int index = slot(key);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of chunks marked
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unmarks all chunks
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private int slot(long key) {
+        // Finalizer from MurmurHash3 to spread neighbouring chunks around the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int index = slot(key);
+                while (keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkSet [size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.material.MaterialData;
+import org.bukkit.material.SimpleAttachableMaterialData;
+import org.bukkit.material.TrapDoor;
+
+/**
+ * Answers questions about the surface of a chunk from one snapshot of it, instead of reading blocks
+ * from the world one at a time.
+ * <p>
+ * Column heights are worked out the first time they are asked for and then kept. The snapshot cannot
+ * change, so a surface can be used from any thread once it has been made. Coordinates are inside the
+ * chunk unless noted.
+ *
+ */
+public class ChunkSurface {
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final ChunkSnapshot snapshot;
+    /**
+     * One above the highest non-air block in each column, as returned by Beaconz.getHighestBlockYAt
+     */
+    private final int[] highest = new int[256];
+    /**
+     * Highest block in each column that is not air, snow, leaves or huge mushroom
+     */
+    private final int[] ground = new int[256];
+
+    /**
+     * @param snapshot - take it with biomes if getBiome will be used
+     */
+    public ChunkSurface(ChunkSnapshot snapshot) {
+        this.snapshot = snapshot;
+        Arrays.fill(highest, UNKNOWN);
+        Arrays.fill(ground, UNKNOWN);
+    }
+
+    /**
+     * @return chunk x coordinate
+     */
+    public int getChunkX() {
+        return snapshot.getX();
+    }
+
+    /**
+     * @return chunk z coordinate
+     */
+    public int getChunkZ() {
+        return snapshot.getZ();
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param z
+     * @return block type, AIR outside the world's height
+     */
+    @SuppressWarnings("deprecation")
+    public Material getType(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return Material.AIR;
+        }
+        Material type = Material.getMaterial(snapshot.getBlockTypeId(x, y, z));
+        return type == null ? Material.AIR : type;
+    }
+
+    /**
+     * @param x
+     * @param z
+     * @return biome of the column
+     */
+    public Biome getBiome(int x, int z) {
+        return snapshot.getBiome(x, z);
+    }
+
+    /**
+     * Same as Beaconz.getHighestBlockYAt
+     * @param x
+     * @param z
+     * @return height of the first air block above the highest non-air block, 0 if the column is empty
+     */
+    public int getHighestBlockYAt(int x, int z) {
+        int i = x << 4 | z;
+        if (highest[i] == UNKNOWN) {
+            highest[i] = 0;
+            for (int y = 254; y > 0; y--) {
+                if (getType(x, y, z) != Material.AIR) {
+                    highest[i] = y + 1;
+                    break;
+                }
+            }
+        }
+        return highest[i];
+    }
+
+    /**
+     * The block that a beacon would be built on. Snow, leaves and huge mushrooms are looked through, as is
+     * obsidian capping a beacon.
+     * @param x
+     * @param z
+     * @return height of the highest ground block, 0 if there is none
+     */
+    public int getGroundY(int x, int z) {
+        int i = x << 4 | z;
+        if (ground[i] == UNKNOWN) {
+            ground[i] = 0;
+            for (int y = Math.min(snapshot.getHighestBlockYAt(x, z), 255); y > 0; y--) {
+                Material type = getType(x, y, z);
+                if (type == Material.OBSIDIAN && getType(x, y - 1, z) != Material.BEACON) {
+                    ground[i] = y;
+                    break;
+                }
+                if (type != Material.AIR && type != Material.SNOW && type != Material.LEAVES && type != Material.LEAVES_2
+                        && type != Material.HUGE_MUSHROOM_1 && type != Material.HUGE_MUSHROOM_2 && type != Material.OBSIDIAN) {
+                    ground[i] = y;
+                    break;
+                }
+            }
+        }
+        return ground[i];
+    }
+
+    /**
+     * Same checks as Region.isLocationSafe, for a player standing at x,y,z
+     * @param x
+     * @param y - height of the player's feet
+     * @param z
+     * @return true if safe
+     */
+    @SuppressWarnings("deprecation")
+    public boolean isSafe(int x, int y, int z) {
+        Material ground = getType(x, y - 1, z);
+        Material space1 = getType(x, y, z);
+        Material space2 = getType(x, y + 1, z);
+        if (y < 1 || ground == Material.AIR) {
+            return false;
+        }
+        // Liquid is unsafe
+        if (isLiquid(ground) || isLiquid(space1) || isLiquid(space2)) {
+            return false;
+        }
+        // Portals are not "safe"
+        if (space1 == Material.PORTAL || ground == Material.PORTAL || space2 == Material.PORTAL
+                || space1 == Material.ENDER_PORTAL || ground == Material.ENDER_PORTAL || space2 == Material.ENDER_PORTAL) {
+            return false;
+        }
+        MaterialData materialData = ground.getNewData((byte)snapshot.getBlockData(x, y - 1, z));
+        if (materialData instanceof SimpleAttachableMaterialData) {
+            if (!(materialData instanceof TrapDoor) || ((TrapDoor)materialData).isOpen()) {
+                return false;
+            }
+        }
+        if (ground == Material.CACTUS || ground == Material.BOAT || ground == Material.FENCE || ground == Material.NETHER_FENCE
+                || ground == Material.SIGN_POST || ground == Material.WALL_SIGN || ground == Material.LEAVES) {
+            return false;
+        }
+        // isSolid thinks that signs are solid, but they are not
+        if (space1.isSolid() && space1 != Material.SIGN_POST && space1 != Material.WALL_SIGN) {
+            return false;
+        }
+        if (space2.isSolid() && space2 != Material.SIGN_POST && space2 != Material.WALL_SIGN) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isLiquid(Material type) {
+        return type == Material.WATER || type == Material.STATIONARY_WATER || type == Material.LAVA || type == Material.STATIONARY_LAVA;
+    }
+
+    /**
+     * Looks for the nearest safe spot to stand on the surface, in squares of growing size around x,z.
+     * Uses the same height as World.getHighestBlockAt for each column. Only reads the surfaces, so can
+     * run on any thread if the source can.
+     * @param source - gives the surface of each chunk that is needed
+     * @param blockX - world coordinate
+     * @param blockZ - world coordinate
+     * @param radius - how far to look
+     * @return world coordinates x,y,z of the spot or null if none found
+     */
+    public static int[] findSafeSpot(Source source, int blockX, int blockZ, int radius) {
+        for (int rad = 0; rad < radius; rad++) {
+            for (int dz = -rad; dz <= rad; dz++) {
+                for (int dx = -rad; dx <= rad; dx++) {
+                    if (Math.abs(dx) != rad && Math.abs(dz) != rad) {
+                        // Checked in an earlier square
+                        continue;
+                    }
+                    int x = blockX + dx;
+                    int z = blockZ + dz;
+                    ChunkSurface surface = source.getSurface(x >> 4, z >> 4);
+                    if (surface == null) {
+                        continue;
+                    }
+                    int y = surface.snapshot.getHighestBlockYAt(x & 15, z & 15);
+                    if (surface.isSafe(x & 15, y, z & 15)) {
+                        return new int[] {x, y, z};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives the surface of a chunk
+     */
+    public interface Source {
+        /**
+         * @param chunkX
+         * @param chunkZ
+         * @return surface of the chunk or null if it is not available
+         */
+        ChunkSurface getSurface(int chunkX, int chunkZ);
+    }
+
+    /**
+     * Takes snapshots of world chunks the first time they are asked for. Must be used on the main thread.
+     */
+    public static class Snapshots implements Source {
+        private final World world;
+        private final HashMap<Long, ChunkSurface> surfaces = new HashMap<Long, ChunkSurface>();
+
+        public Snapshots(World world) {
+            this.world = world;
+        }
+
+        @Override
+        public ChunkSurface getSurface(int chunkX, int chunkZ) {
+            long key = CoordMap.key(chunkX, chunkZ);
+            ChunkSurface surface = surfaces.get(key);
+            if (surface == null) {
+                surface = new ChunkSurface(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, true, false));
+                surfaces.put(key, surface);
+            }
+            return surface;
+        }
+
+        /**
+         * Same as Beaconz.getHighestBlockYAt
+         * @param blockX - world coordinate
+         * @param blockZ - world coordinate
+         * @return height of the first air block above the highest non-air block, 0 if the column is empty
+         */
+        public int getHighestBlockYAt(int blockX, int blockZ) {
+            return getSurface(blockX >> 4, blockZ >> 4).getHighestBlockYAt(blockX & 15, blockZ & 15);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map from an x,z block coordinate to a beacon. The coordinate is packed into a
+ * long (x << 32 | z) so lookups do not allocate and entries take two array slots instead of a
+ * HashMap entry, a boxed key and a Point2D.
+ * Null values are not allowed.
+ *
+ */
+public class CoordMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private BeaconObj[] values;
+    private int size;
+    private int mask;
+
+    public CoordMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Packs a coordinate into a key
+     * @param x
+     * @param z
+     * @return key
+     */
+    public static long key(int x, int z) {
+        return ((long)x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key
+     * @return the x coordinate of the key
+     */
+    public static int keyX(long key) {
+        return (int)(key >> 32);
+    }
+
+    /**
+     * @param key
+     * @return the z coordinate of the key
+     */
+    public static int keyZ(long key) {
+        return (int)key;
+    }
+
+    /**
+     * @param x
+     * @param z
+     * @return the beacon at x,z or null if none
+     */
+    public BeaconObj get(int x, int z) {
+        long key = key(x, z);
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param x
+     * @param z
+     * @return true if there is a beacon stored at x,z
+     */
+    public boolean containsKey(int x, int z) {
+        return get(x, z) != null;
+    }
+
+    /**
+     * Stores beacon at x,z
+     * @param x
+     * @param z
+     * @param beacon
+     * @return the previous beacon at x,z or null if none
+     */
+    public BeaconObj put(int x, int z, BeaconObj beacon) {
+        if (beacon == null) {
+            throw new IllegalArgumentException("Null values are not allowed");
+        }
+        long key = key(x, z);
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                BeaconObj old = values[index];
+                values[index] = beacon;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = beacon;
+        size++;
+        // Keep the load factor at or under 0.5
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry at x,z
+     * @param x
+     * @param z
+     * @return the beacon that was removed or null if none
+     */
+    public BeaconObj remove(int x, int z) {
+        long key = key(x, z);
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                BeaconObj old = values[index];
+                shiftBack(index);
+                size--;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @return a copy of all the keys
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                result[count++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of all the values. The same beacon is listed once for each key it is stored under.
+     */
+    public List<BeaconObj> values() {
+        List<BeaconObj> result = new ArrayList<BeaconObj>(size);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
+
+    private int slot(long key) {
+        // Finalizer from MurmurHash3 to spread neighbouring coordinates around the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    /**
+     * Removes the entry at index and moves later entries of the same probe run back so
+     * lookups do not stop early at the hole
+     * @param index
+     */
+    private void shiftBack(int index) {
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next]);
+            // Move the entry if its home slot is not cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        keys[hole] = 0L;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        BeaconObj[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                long key = oldKeys[i];
+                int index = slot(key);
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new BeaconObj[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CoordMap [size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
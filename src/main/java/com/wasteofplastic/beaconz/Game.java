@@ -38,6 +38,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
+import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scoreboard.Team;
 
 import com.wasteofplastic.beaconz.listeners.BeaconLinkListener;
@@ -62,6 +63,10 @@ public class Game extends BeaconzPluginDependent {
     private String scoretypes;
     private boolean gameRestart;
     private boolean isOver;
+    /**
+     * Where the populator puts beacons. Worked out off the main thread and thrown away if the parameters change.
+     */
+    private volatile BeaconPlan beaconPlan;
 
 
     /**
@@ -124,7 +129,7 @@ public class Game extends BeaconzPluginDependent {
             }
         }
         // Remove all beacons
-        for (BeaconObj beacon : getRegister().getBeaconRegister().values()) {
+        for (BeaconObj beacon : getRegister().getBeacons()) {
             if (this.getRegion().containsBeacon(beacon)) {
                 getRegister().removeBeaconOwnership(beacon, true); 
             }
@@ -160,7 +165,7 @@ public class Game extends BeaconzPluginDependent {
         //TODO - figure out how to give players starting kits when they come in, since they will already be in teams...
         
         // set all beacons to "unowned"
-        for (BeaconObj beacon : getRegister().getBeaconRegister().values()) {
+        for (BeaconObj beacon : getRegister().getBeacons()) {
             if (this.getRegion().containsBeacon(beacon)) {
                 getRegister().removeBeaconOwnership(beacon, true);
             }
@@ -285,6 +290,11 @@ public class Game extends BeaconzPluginDependent {
      * @param player
      */
     public void join(Player player) {
+        if (getGameMgr().getPregenerator().isGenerating(this)) {
+            // Not ready for players yet
+            senderMsg(player, ChatColor.RED + Lang.errorStillGenerating.replace("[percent]", String.valueOf(getGameMgr().getPregenerator().getProgress(this))));
+            return;
+        }
         join(player, true);
     }
 
@@ -439,6 +449,7 @@ public class Game extends BeaconzPluginDependent {
         this.gameCreateTime = createTime;
         this.scoretypes = scoretypes;
         this.gamedistribution = distribution;
+        planBeacons();
     }
     public void setGamemode(String gm) {gamemode = gm;}
     public void setGamedistance(int gd) {gamedistance = gd;}
@@ -447,8 +458,42 @@ public class Game extends BeaconzPluginDependent {
     public void setGamegoalvalue(int gv) {gamegoalvalue = gv;}
     public void setCountdownTimer(int cd) {countdowntimer = cd;}
     public void setStartTime(Long stt) {startTime = stt;}
+    public void setCreateTime(Long ct) {gameCreateTime = ct; planBeacons();}
     public void setScoretypes(String sct) {scoretypes = sct;}
-    public void setGamedistribution(double gdist) {gamedistribution = gdist;}
+    public void setGamedistribution(double gdist) {gamedistribution = gdist; planBeacons();}
+
+    /**
+     * Starts working out where the beacons go on a worker thread
+     */
+    public void planBeacons() {
+        beaconPlan = null;
+        final Point2D[] corners = region.corners();
+        final long createTime = gameCreateTime;
+        final long seedAdjustment = Settings.seedAdjustment;
+        final double distribution = gamedistribution;
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                BeaconPlan plan = new BeaconPlan(corners, createTime, seedAdjustment, distribution);
+                // Only keep it if nothing has changed in the meantime
+                if (createTime == gameCreateTime && distribution == gamedistribution) {
+                    beaconPlan = plan;
+                }
+            }}.runTaskAsynchronously(plugin);
+    }
+
+    /**
+     * @return where the populator puts beacons. Worked out now if the worker has not finished yet.
+     */
+    public BeaconPlan getBeaconPlan() {
+        BeaconPlan plan = beaconPlan;
+        if (plan == null) {
+            plan = new BeaconPlan(region.corners(), gameCreateTime, Settings.seedAdjustment, gamedistribution);
+            beaconPlan = plan;
+        }
+        return plan;
+    }
 
     /**
      * Converts into a Point2D array of 2 points into a string x1:z1:x2:z2
@@ -26,6 +26,8 @@ import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Random;
 import org.bukkit.Location;
@@ -42,6 +44,30 @@ public class GameMgr extends BeaconzPluginDependent {
     private Beaconz plugin;
     private Region lobby;
     private LinkedHashMap<Point2D[], Region> regions;
+    /**
+     * Spatial index of the regions, for finding the region at a point
+     */
+    private final RegionIndex regionIndex = new RegionIndex();
+    /**
+     * Goes up whenever a region is added or removed
+     */
+    private int regionsChanged = 0;
+    /**
+     * The game each team belongs to
+     */
+    private final HashMap<Team, Game> teamGames = new HashMap<Team, Game>();
+    /**
+     * Which game each chunk was last populated for
+     */
+    private final ChunkGenerationIndex chunkIndex;
+    /**
+     * Generates new regions in the background
+     */
+    private final RegionPregenerator pregenerator;
+    /**
+     * Keeps places for new regions ready
+     */
+    private final RegionSiteFinder siteFinder;
     private LinkedHashMap<String, Game> games;
     private String gamemode;
     private Integer gamedistance;
@@ -58,6 +84,9 @@ public class GameMgr extends BeaconzPluginDependent {
     public GameMgr(Beaconz beaconzPlugin) {
         super(beaconzPlugin);
         this.plugin = beaconzPlugin;
+        this.chunkIndex = new ChunkGenerationIndex(new File(beaconzPlugin.getDataFolder(), "chunks"), beaconzPlugin.getLogger());
+        this.pregenerator = new RegionPregenerator(beaconzPlugin);
+        this.siteFinder = new RegionSiteFinder(beaconzPlugin);
         regions = new LinkedHashMap<Point2D[], Region>();
         games = new LinkedHashMap<String, Game>();
         setGameDefaultParms();
@@ -65,6 +94,10 @@ public class GameMgr extends BeaconzPluginDependent {
         if (lobby == null) {
             createLobby();
         }
+        // Remove the chunk indexes of games deleted before they could be removed
+        chunkIndex.retainOnly(regions.keySet());
+        // Have somewhere ready for the first new game
+        siteFinder.refill(rup16(gamedistance / 2.0));
     }
 
     /**
@@ -147,7 +180,10 @@ public class GameMgr extends BeaconzPluginDependent {
     public void loadAllGames() {
         //getLogger().info("DEBUG: loading all games");
         regions.clear();
+        regionIndex.clear();
+        regionsChanged++;
         games.clear();
+        teamGames.clear();
         loadGames(null);
     }
 
@@ -183,7 +219,7 @@ public class GameMgr extends BeaconzPluginDependent {
                     if (!spawn.isEmpty()) {
                         lobby.setSpawnPoint(Beaconz.getLocationString(spawn));
                     }
-                    regions.put(corners, lobby);
+                    addRegion(corners, lobby);
                 }
             }
             // got the file, get the data
@@ -215,8 +251,12 @@ public class GameMgr extends BeaconzPluginDependent {
                             game.reload();
                         } else {
                             // We're loading an existing game from file that's not currently active
-                            regions.put(corners, region);
+                            addRegion(corners, region);
                             game = new Game(plugin, gd, region, gname, gm, nt, gg, gv, gt, gs, gdist);
+                            if (ct != 0L) {
+                                // Keep the original create time so the chunks already made still count as this game's
+                                game.setCreateTime(ct);
+                            }
                             game.setOver(isOver);
                             games.put(gname, game);
                         }
@@ -259,7 +299,7 @@ public class GameMgr extends BeaconzPluginDependent {
             Point2D c2 = new Point2D.Double(Settings.lobbyx - rad, Settings.lobbyz - rad);
             Point2D[] corners = {c1, c2};
             lobby = new Region(plugin, corners);
-            regions.put(corners, lobby);
+            addRegion(corners, lobby);
         } else {
             getLogger().warning("Could not find a free area of at least 4 chunks for the lobby.");
             getLogger().warning("Creating a default lobby of 1 chunk at 0,0.");
@@ -267,7 +307,7 @@ public class GameMgr extends BeaconzPluginDependent {
             Point2D c2 = new Point2D.Double(-8,-8);
             Point2D[] corners = {c1, c2};
             lobby = new Region(plugin, corners);
-            regions.put(corners, lobby);
+            addRegion(corners, lobby);
         }
         // Create a lobby platform
         lobby.makePlatform();
@@ -311,7 +351,9 @@ public class GameMgr extends BeaconzPluginDependent {
             } else {
                 game = new Game(plugin, gamedistance, region, gameName, gamemode, nbr_teams, gamegoal, gamegoalvalue, timer, scoretypes, gamedistribution);
                 games.put(gameName, game);
-                regions.put(region.corners(), region);
+                addRegion(region.corners(), region);
+                // Generate the region before players are let in
+                pregenerator.add(game);
             }
         }
     }
@@ -322,10 +364,14 @@ public class GameMgr extends BeaconzPluginDependent {
      * Region boundaries must match chunk boundaries, otherwise region.regenerate has a problem
      * When a good region candidate is found, reject it if its surface is more than 40% water or lava
      * NOTE: nextRegionLocation and its methods DO NOT trigger any chunk loads
+     * Sites found in the background are used first, the search below only runs if none are ready
      */
     public Point2D nextRegionLocation() {
-        Point2D newregionctr = null;
         Double gradius = rup16(gamedistance / 2.0);
+        Point2D newregionctr = siteFinder.poll(gradius);
+        if (newregionctr != null) {
+            return newregionctr;
+        }
 
         // For each region already defined, try to find an empty area at "distance" blocks from its center
         // Ignore the lobby as a seed
@@ -579,17 +625,18 @@ public class GameMgr extends BeaconzPluginDependent {
      */
     public Region getRegion (int x, int z) {
         // Returns the region that contains a point
-        Region region = null;
-        if (regions != null) {
-            //getLogger().info("DEBUG: regions does not = null and is of size " + regions.size());
-            for (Region reg : regions.values()) {
-                if (reg.containsPoint(x, z)) { 
-                    region = reg;
-                    break;
-                }
-            }
-        }
-        return region;
+        return regionIndex.getRegion(x, z);
+    }
+
+    /**
+     * Adds a region
+     * @param corners
+     * @param region
+     */
+    private void addRegion(Point2D[] corners, Region region) {
+        regions.put(corners, region);
+        regionIndex.add(region);
+        regionsChanged++;
     }
 
     /**
@@ -602,11 +649,16 @@ public class GameMgr extends BeaconzPluginDependent {
      * @return Game or null if none
      */
     public Game getGame (Team team) {
-        Game game = null;
+        Game game = teamGames.get(team);
+        if (game != null) {
+            return game;
+        }
+        // Teams made before the game manager was ready are not in the map yet
         if (games != null) {
             for (Game g : games.values()) {
                 if (g.getScorecard().getTeamMembers().keySet().contains(team)) {
                     game = g;
+                    teamGames.put(team, g);
                     break;
                 }
             }
@@ -614,6 +666,15 @@ public class GameMgr extends BeaconzPluginDependent {
         return game;
     }
 
+    /**
+     * Records which game a team belongs to. Called when a scorecard adds a team.
+     * @param team
+     * @param game
+     */
+    public void addTeam(Team team, Game game) {
+        teamGames.put(team, game);
+    }
+
     /**
      * Get the game from the game name
      * @param gamename
@@ -739,6 +800,27 @@ public class GameMgr extends BeaconzPluginDependent {
         return regions;
     }
 
+    /**
+     * @return a number that goes up whenever a region is added or removed
+     */
+    public int getRegionsChanged() {
+        return regionsChanged;
+    }
+
+    /**
+     * @return the record of which game each chunk was populated for
+     */
+    public ChunkGenerationIndex getChunkIndex() {
+        return chunkIndex;
+    }
+
+    /**
+     * @return the background region generator
+     */
+    public RegionPregenerator getPregenerator() {
+        return pregenerator;
+    }
+
     /**
      * @return the games map
      */
@@ -837,6 +919,8 @@ public class GameMgr extends BeaconzPluginDependent {
     public void delete(CommandSender sender, Game game) {          
         // Remove inventories
         getBeaconzStore().removeGame(game.getName());
+        // Stop generating it
+        pregenerator.remove(game);
         // End and remove game
         game.delete();
         // Remove game from register
@@ -847,6 +931,17 @@ public class GameMgr extends BeaconzPluginDependent {
         game.getRegion().unloadRegionChunks();        
         // Remove region
         regions.remove(game.getRegion().corners());
+        regionIndex.remove(game.getRegion());
+        regionsChanged++;
+        // Its chunk index is no longer needed
+        chunkIndex.delete(game.getRegion().corners());
+        // Forget the game's teams
+        Iterator<Game> it = teamGames.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == game) {
+                it.remove();
+            }
+        }
     }
     
 }
\ No newline at end of file
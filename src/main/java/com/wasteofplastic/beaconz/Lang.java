@@ -26,6 +26,8 @@ public class Lang extends BeaconzPluginDependent {
     public static String actionsHitSign;
     public static String actionsSwitchedToTeam;
     public static String actionsYouAreInTeam;
+    public static String adminCheckScoresMatch;
+    public static String adminCheckScoresReset;
     public static String adminDeletedGame;
     public static String adminDeletingGame;
     public static String adminForceEnd;
@@ -37,6 +39,7 @@ public class Lang extends BeaconzPluginDependent {
     public static String adminKickAllPlayers;
     public static String adminKickPlayer;
     public static String adminListBeaconsInGame;
+    public static String adminMoveStats;
     public static String adminNewGameBuilding;
     public static String adminParmsArgumentsPairs;
     public static String adminParmsCountdown;
@@ -48,6 +51,9 @@ public class Lang extends BeaconzPluginDependent {
     public static String adminParmsTeams;
     public static String adminParmsUnlimited;
     public static String adminPaused;
+    public static String adminPregenDone;
+    public static String adminPregenPaused;
+    public static String adminPregenProgress;
     public static String adminRegenComplete;
     public static String adminRegeneratingGame;
     public static String adminReload;
@@ -116,6 +122,7 @@ public class Lang extends BeaconzPluginDependent {
     public static String errorNotReady;
     public static String errorOnlyPlayers;
     public static String errorRegionLimit;
+    public static String errorStillGenerating;
     public static String errorTooFar;
     public static String errorUnknownCommand;
     public static String errorUnknownPlayer;
@@ -139,6 +146,7 @@ public class Lang extends BeaconzPluginDependent {
     public static String generalTeam;
     public static String generalTeams;
     public static String generalUnowned;
+    public static String helpAdminCheckScores;
     public static String helpAdminClaim;
     public static String helpAdminDelete;
     public static String helpAdminDistribution;
@@ -149,8 +157,10 @@ public class Lang extends BeaconzPluginDependent {
     public static String helpAdminLink;
     public static String helpAdminList;
     public static String helpAdminListParms;
+    public static String helpAdminMoveStats;
     public static String helpAdminNewGame;
     public static String helpAdminPause;
+    public static String helpAdminPregen;
     public static String helpAdminRegenerate;
     public static String helpAdminReload;
     public static String helpAdminRestart;
@@ -245,6 +255,8 @@ public class Lang extends BeaconzPluginDependent {
         actionsHitSign = ChatColor.translateAlternateColorCodes('&', locale.getString("actions.HitSign", "Hit sign to start game!"));
         actionsSwitchedToTeam = ChatColor.translateAlternateColorCodes('&', locale.getString("actions.SwitchedToTeam", "Switched to [team]!"));
         actionsYouAreInTeam = ChatColor.translateAlternateColorCodes('&', locale.getString("actions.youAreInTeam", "You are in [team]!" ));
+        adminCheckScoresMatch = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.CheckScoresMatch", "Score counters match a full recount."));
+        adminCheckScoresReset = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.CheckScoresReset", "Score counters have been reset to the recount."));
         adminDeletedGame = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.DeletedGame", "Deleted [name]."));
         adminDeletingGame = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.DeletingGame", "Deleting game [name]... (This may take some time)"));
         adminForceEnd = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ForceEnd", "Game [name] has ended."));
@@ -256,6 +268,7 @@ public class Lang extends BeaconzPluginDependent {
         adminKickAllPlayers = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.KickAllPlayers", "All players were kicked from game [name]"));
         adminKickPlayer = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.KickPlayer", "[player] was kicked from game [name]"));
         adminListBeaconsInGame = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ListBeaconsInGame", "Known beacons in game [name]:"));
+        adminMoveStats = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.MoveStats", "Player moves: [moves] cache hits: [hits] misses: [misses] ([percent]% hits)"));
         adminNewGameBuilding = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.NewGameBuilding", "Building a new game with given parameters. Please wait..."));
         adminParmsArgumentsPairs = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ParmsArgumentsPairs", "Arguments must be given in pairs, separated by colons."));
         adminParmsCountdown = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ParmsCountdown", "Countdown"));
@@ -267,6 +280,9 @@ public class Lang extends BeaconzPluginDependent {
         adminParmsTeams = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ParmsTeams", "# of Teams"));
         adminParmsUnlimited = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.ParmsUnlimited", "Unlimited"));
         adminPaused = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.Paused", "Paused the game [name]. To restart, use /[label] resume <game>"));
+        adminPregenDone = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.PregenDone", "All games have been generated."));
+        adminPregenPaused = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.PregenPaused", " (paused)"));
+        adminPregenProgress = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.PregenProgress", "[name]: [percent]%"));
         adminRegenComplete = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.RegenComplete", "Regenetation complete."));
         adminRegeneratingGame = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.RegeneratingGame", "Regenerating game [name]."));
         adminReload = ChatColor.translateAlternateColorCodes('&', locale.getString("admin.Reload", "Beaconz plugin reloaded. All existing games were preserved."));
@@ -336,6 +352,7 @@ public class Lang extends BeaconzPluginDependent {
         errorNotReady = ChatColor.translateAlternateColorCodes('&', locale.getString("error.notReady", "Sorry, that is not ready yet."));
         errorOnlyPlayers = ChatColor.translateAlternateColorCodes('&', locale.getString("error.OnlyPlayers", "Only players can do that!"));
         errorRegionLimit = ChatColor.translateAlternateColorCodes('&', locale.getString("error.RegionLimit", "That's the limit of the game region, you can't go any further that way."));
+        errorStillGenerating = ChatColor.translateAlternateColorCodes('&', locale.getString("error.StillGenerating", "That game is still being made, please try again soon. [percent]% done."));
         errorTooFar = ChatColor.translateAlternateColorCodes('&', locale.getString("error.TooFar", "That beacon is too far away. To link over [max] blocks, use gold or diamond range extender blocks."));
         errorUnknownCommand = ChatColor.translateAlternateColorCodes('&', locale.getString("error.UnknownCommand", "Unknown command!"));
         errorUnknownPlayer = ChatColor.translateAlternateColorCodes('&', locale.getString("error.UnknownPlayer", "Unknown or offline player!"));
@@ -359,6 +376,7 @@ public class Lang extends BeaconzPluginDependent {
         generalTeam = ChatColor.translateAlternateColorCodes('&', locale.getString("general.Team", "Team"));
         generalTeams = ChatColor.translateAlternateColorCodes('&', locale.getString("general.Teams", "Teams"));
         generalUnowned = ChatColor.translateAlternateColorCodes('&', locale.getString("general.Unowned", "Unowned"));
+        helpAdminCheckScores = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminCheckScores", " - checks the team score counters against a full recount"));
         helpAdminClaim = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminClaim", " - force-claims a beacon in a game"));
         helpAdminDelete = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminDelete", " - deletes the game and regenerates chunks"));
         helpAdminDistribution = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminDistribution", " - sets global beacon distribution temporarily"));
@@ -369,8 +387,10 @@ public class Lang extends BeaconzPluginDependent {
         helpAdminLink = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminLink", " - force-links a beacon you are standing on to one at x,z"));
         helpAdminList = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminList", " - lists all known beacons in the game | all games owned by team"));
         helpAdminListParms = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminListParms", " - lists game parameters"));
+        helpAdminMoveStats = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminMoveStats", " - shows how many player moves were handled by the movement cache"));
         helpAdminNewGame = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminNewGame", " - creates a new game in an empty region; parameters are optional - do /[label] newgame help for a list of the possible parameters"));
         helpAdminPause = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminPause", " - pauses the timer and scoreboard in a game"));
+        helpAdminPregen = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminPregen", " - shows how far new games have been generated, or pauses or resumes generating"));
         helpAdminRegenerate = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminRegenerate", " - regenerates game area chunks and resets game"));
         helpAdminReload = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminReload", " - reloads the plugin, preserving existing games"));
         helpAdminRestart = ChatColor.translateAlternateColorCodes('&', locale.getString("help.AdminRestart", " - restarts the game with currently defined parameters - clears scoreboard, cleans out all beacons, restarts timer; teams aren't changed"));
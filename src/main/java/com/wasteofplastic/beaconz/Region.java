@@ -573,30 +573,12 @@ public class Region extends BeaconzPluginDependent {
         if (radius > 20) radius = 20;        
         if (safeloc == null && location != null) {
             // look for a safe spot at location and within radius
-            Block bl = location.getBlock();
-            String usedxyz = "";
-
-            // sweep in a concentric cube pattern to check for a safe spot
-            Location checkloc = null;
-            outerloop:
-                for (int rad = 0; rad < radius; rad++) {
-                    //for (int y = -rad; y <= rad; y++) {
-                        for (int z = -rad; z <= rad; z++) {
-                            for (int x = -rad; x <= rad; x++) {
-                                String coords = "#" + x + " "+ z + "#";
-                                if (!usedxyz.contains(coords)) {
-                                    usedxyz = usedxyz + coords;
-                                    checkloc = getBeaconzWorld().getHighestBlockAt(bl.getRelative(x, 0, z).getLocation()).getLocation();
-                                    //senderMsg(Bukkit.getConsoleSender(), "Checking: " + checkloc + " material: " + checkloc.getBlock().getRelative(BlockFace.DOWN).getState().getType());
-                                    if (isLocationSafe(checkloc)) {
-                                        safeloc = checkloc.add(0.5, 0.0, 0.5);
-                                        break outerloop;
-                                    }
-                                }
-                            }
-                        }
-                    //}
-                }
+            // sweep in a concentric square pattern, reading the surface from chunk snapshots
+            int[] spot = ChunkSurface.findSafeSpot(new ChunkSurface.Snapshots(getBeaconzWorld()),
+                    location.getBlockX(), location.getBlockZ(), radius);
+            if (spot != null) {
+                safeloc = new Location(getBeaconzWorld(), spot[0] + 0.5, spot[1], spot[2] + 0.5);
+            }
         }
         if (safeloc == null) {
             senderMsg(Bukkit.getConsoleSender(), ChatColor.YELLOW + "Could not find a safe spot. Region at " + displayCoords() + ". Using default.");
@@ -0,0 +1,114 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bucketed spatial index of regions. Each region is put in every cell it overlaps, so finding the
+ * region at a point only has to test the one or two regions in that point's cell.
+ *
+ */
+public class RegionIndex {
+
+    /**
+     * Cell size in blocks, as a power of two. Regions are usually thousands of blocks across, so big
+     * cells keep the number of cells each region sits in down.
+     */
+    private static final int CELL_SHIFT = 9;
+
+    private HashMap<Long, List<Region>> cells = new HashMap<Long, List<Region>>();
+
+    /**
+     * Adds a region to the index
+     * @param region
+     */
+    public void add(Region region) {
+        Point2D[] corners = region.corners();
+        for (int cellX = (int)corners[0].getX() >> CELL_SHIFT; cellX <= (int)corners[1].getX() >> CELL_SHIFT; cellX++) {
+            for (int cellZ = (int)corners[0].getY() >> CELL_SHIFT; cellZ <= (int)corners[1].getY() >> CELL_SHIFT; cellZ++) {
+                Long key = CoordMap.key(cellX, cellZ);
+                List<Region> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<Region>(1);
+                    cells.put(key, cell);
+                }
+                cell.add(region);
+            }
+        }
+    }
+
+    /**
+     * Removes this exact region object from the index
+     * @param region
+     */
+    public void remove(Region region) {
+        Point2D[] corners = region.corners();
+        for (int cellX = (int)corners[0].getX() >> CELL_SHIFT; cellX <= (int)corners[1].getX() >> CELL_SHIFT; cellX++) {
+            for (int cellZ = (int)corners[0].getY() >> CELL_SHIFT; cellZ <= (int)corners[1].getY() >> CELL_SHIFT; cellZ++) {
+                Long key = CoordMap.key(cellX, cellZ);
+                List<Region> cell = cells.get(key);
+                if (cell != null) {
+                    Iterator<Region> it = cell.iterator();
+                    while (it.hasNext()) {
+                        if (it.next() == region) {
+                            it.remove();
+                        }
+                    }
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all regions from the index
+     */
+    public void clear() {
+        cells.clear();
+    }
+
+    /**
+     * Gets the region that contains x,z
+     * @param x
+     * @param z
+     * @return the first region added that contains x,z, or null if none does
+     */
+    public Region getRegion(int x, int z) {
+        List<Region> cell = cells.get(CoordMap.key(x >> CELL_SHIFT, z >> CELL_SHIFT));
+        if (cell != null) {
+            for (Region region : cell) {
+                if (region.containsPoint(x, z)) {
+                    return region;
+                }
+            }
+        }
+        return null;
+    }
+}
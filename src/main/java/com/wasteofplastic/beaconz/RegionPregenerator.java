@@ -0,0 +1,327 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Generates the chunks of new game regions in the background so that players do not wait for them
+ * the first time they walk into them.
+ * <p>
+ * Chunks are visited in a spiral out from the centre of the region, so the middle of the map is ready
+ * first. Each one is loaded, which has WorldListener regenerate and populate it, then unloaded again.
+ * Work stops each tick once Settings.pregenBudget milliseconds have been used. Chunks that are already
+ * loaded are asked to unload and tried again after the rest, and a game is only finished once the chunk
+ * index shows every one of its chunks generated for it.
+ * <p>
+ * The chunk index records which chunks are done, so the games still being generated are kept in
+ * pregen.yml and picked up again after a restart, skipping the chunks already done. Players cannot join
+ * a game until it has been generated.
+ *
+ */
+public class RegionPregenerator extends BeaconzPluginDependent {
+
+    private static final String FILE_NAME = "pregen.yml";
+
+    /**
+     * Games still being generated, by game name, in the order they were added
+     */
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<String, Job>();
+    private boolean paused;
+    private BukkitTask task;
+
+    public RegionPregenerator(Beaconz beaconzPlugin) {
+        super(beaconzPlugin);
+        load();
+    }
+
+    /**
+     * Starts generating a game's region. Does nothing if pregeneration is turned off.
+     * @param game
+     */
+    public void add(Game game) {
+        if (Settings.pregenBudget <= 0 || jobs.containsKey(game.getName())) {
+            return;
+        }
+        jobs.put(game.getName(), new Job());
+        save();
+        start();
+    }
+
+    /**
+     * Stops generating a game, e.g., because it has been deleted
+     * @param game
+     */
+    public void remove(Game game) {
+        if (jobs.remove(game.getName()) != null) {
+            save();
+        }
+    }
+
+    /**
+     * @param game
+     * @return true if the game's region has not been fully generated yet
+     */
+    public boolean isGenerating(Game game) {
+        return jobs.containsKey(game.getName());
+    }
+
+    /**
+     * @param game
+     * @return percentage of the game's region that has been generated
+     */
+    public int getProgress(Game game) {
+        Job job = jobs.get(game.getName());
+        if (job == null) {
+            return 100;
+        }
+        if (job.chunks == null || job.chunks.length == 0) {
+            return 0;
+        }
+        return job.done * 100 / job.chunks.length;
+    }
+
+    /**
+     * @return names of the games still being generated
+     */
+    public List<String> getGameNames() {
+        return new ArrayList<String>(jobs.keySet());
+    }
+
+    /**
+     * Stops work until resume is called. Stays paused after a restart.
+     */
+    public void pause() {
+        paused = true;
+        save();
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Carries on after a pause
+     */
+    public void resume() {
+        paused = false;
+        save();
+        start();
+    }
+
+    /**
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    private void start() {
+        if (task != null || paused || jobs.isEmpty()) {
+            return;
+        }
+        task = new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }}.runTaskTimer(getBeaconzPlugin(), 1L, 1L);
+    }
+
+    /**
+     * Generates chunks until the time budget for this tick runs out
+     */
+    private void tick() {
+        if (getGameMgr() == null || getBeaconzPlugin().ignoreChunkLoad) {
+            // Not ready, or something else is loading chunks that WorldListener must not touch
+            return;
+        }
+        long end = System.nanoTime() + Settings.pregenBudget * 1000000L;
+        Iterator<String> it = jobs.keySet().iterator();
+        while (it.hasNext()) {
+            String name = it.next();
+            Job job = jobs.get(name);
+            Game game = getGameMgr().getGame(name);
+            if (game == null) {
+                // Game has gone
+                it.remove();
+                save();
+                continue;
+            }
+            if (job.chunks == null) {
+                job.chunks = spiral(game.getRegion().corners());
+            }
+            while (job.next < job.chunks.length) {
+                long chunk = job.chunks[job.next++];
+                if (generate(game, CoordMap.keyX(chunk), CoordMap.keyZ(chunk))) {
+                    job.done++;
+                } else {
+                    job.deferred.add(chunk);
+                }
+                if (System.nanoTime() >= end) {
+                    return;
+                }
+            }
+            // Go back for the chunks that were in use
+            Iterator<Long> deferred = job.deferred.iterator();
+            while (deferred.hasNext()) {
+                long chunk = deferred.next();
+                if (generate(game, CoordMap.keyX(chunk), CoordMap.keyZ(chunk))) {
+                    deferred.remove();
+                    job.done++;
+                }
+                if (System.nanoTime() >= end) {
+                    return;
+                }
+            }
+            if (!job.deferred.isEmpty()) {
+                // Still in use - try again next tick
+                continue;
+            }
+            getLogger().info("Finished generating game " + name);
+            it.remove();
+            save();
+        }
+        if (jobs.isEmpty()) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Has the chunk generated if it has not been already
+     * @param game
+     * @param chunkX
+     * @param chunkZ
+     * @return true if the chunk index shows the chunk has been generated for the game
+     */
+    private boolean generate(Game game, int chunkX, int chunkZ) {
+        ChunkGenerationIndex index = getGameMgr().getChunkIndex();
+        Point2D[] corners = game.getRegion().corners();
+        if (index.getEpoch(corners, chunkX, chunkZ) == game.getCreateTime()) {
+            // Done already
+            return true;
+        }
+        World world = getBeaconzWorld();
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            // Loaded before the game existed, so it has not been through WorldListener. Ask for it to be
+            // unloaded so it can be loaded again on a later pass.
+            world.unloadChunkRequest(chunkX, chunkZ);
+            return false;
+        }
+        // Loading the chunk has WorldListener regenerate and populate it
+        world.loadChunk(chunkX, chunkZ, true);
+        world.unloadChunkRequest(chunkX, chunkZ);
+        return index.getEpoch(corners, chunkX, chunkZ) == game.getCreateTime();
+    }
+
+    /**
+     * Lists the chunks of a region in a spiral out from its centre
+     * @param corners - region corners
+     * @return chunk coordinates packed as CoordMap keys
+     */
+    static long[] spiral(Point2D[] corners) {
+        int minX = (int)corners[0].getX() >> 4;
+        int minZ = (int)corners[0].getY() >> 4;
+        int maxX = (int)corners[1].getX() >> 4;
+        int maxZ = (int)corners[1].getY() >> 4;
+        int centerX = (minX + maxX) / 2;
+        int centerZ = (minZ + maxZ) / 2;
+        int rings = Math.max(Math.max(centerX - minX, maxX - centerX), Math.max(centerZ - minZ, maxZ - centerZ));
+        long[] result = new long[(maxX - minX + 1) * (maxZ - minZ + 1)];
+        int count = 0;
+        result[count++] = CoordMap.key(centerX, centerZ);
+        for (int ring = 1; ring <= rings; ring++) {
+            // Walk round the ring: up the east side, then west along the south, down the west side and back east
+            int x = centerX + ring;
+            int z = centerZ - ring;
+            int[][] steps = {{0, 1}, {-1, 0}, {0, -1}, {1, 0}};
+            for (int[] step : steps) {
+                for (int i = 0; i < ring * 2; i++) {
+                    x += step[0];
+                    z += step[1];
+                    if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                        result[count++] = CoordMap.key(x, z);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void load() {
+        File file = new File(getBeaconzPlugin().getDataFolder(), FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration yml = YamlConfiguration.loadConfiguration(file);
+        paused = yml.getBoolean("paused", false);
+        for (String name : yml.getStringList("games")) {
+            jobs.put(name, new Job());
+        }
+        if (!jobs.isEmpty()) {
+            getLogger().info("Carrying on generating " + jobs.size() + " game(s)" + (paused ? " when resumed" : ""));
+        }
+        start();
+    }
+
+    private void save() {
+        File file = new File(getBeaconzPlugin().getDataFolder(), FILE_NAME);
+        YamlConfiguration yml = new YamlConfiguration();
+        yml.set("paused", paused);
+        yml.set("games", new ArrayList<String>(jobs.keySet()));
+        try {
+            yml.save(file);
+        } catch (IOException e) {
+            getLogger().severe("Problem saving " + FILE_NAME);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Where a game has got to. The chunk list is worked out on the first tick, once the game is known.
+     */
+    private static class Job {
+        private long[] chunks;
+        private int next;
+        /**
+         * Chunks the index shows as generated for the game
+         */
+        private int done;
+        /**
+         * Chunks that could not be generated when their turn came, tried again after the rest
+         */
+        private final List<Long> deferred = new ArrayList<Long>();
+    }
+}
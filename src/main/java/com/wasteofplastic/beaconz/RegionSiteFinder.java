@@ -0,0 +1,340 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Looks for places to put new game regions ahead of time, so that creating a game does not have to
+ * search the world while everyone waits.
+ * <p>
+ * Candidate centres are taken all round the existing game regions, plus a few at random. Each one is
+ * sampled for ocean biomes on the same grid as GameMgr.isAreaSafe, a little every tick, and the ones that
+ * pass are ranked by how much of them is land and how far they are from the existing regions. The best
+ * few are kept ready for GameMgr.nextRegionLocation.
+ * <p>
+ * World.getBiome must be called on the main thread, so the sampling is spread over ticks with a time
+ * budget rather than done on another thread.
+ *
+ */
+public class RegionSiteFinder extends BeaconzPluginDependent {
+
+    /**
+     * Number of sites kept ready
+     */
+    static final int QUEUE_SIZE = 5;
+    private static final int RANDOM_CANDIDATES = 10;
+    /**
+     * Blocks between biome samples, same as GameMgr.isAreaSafe
+     */
+    private static final int SAMPLE_SPACING = 50;
+    /**
+     * Sampling time allowed per tick
+     */
+    private static final long BUDGET_NANOS = 2000000L;
+
+    /**
+     * Ready sites, best first
+     */
+    private final List<Site> sites = new ArrayList<Site>();
+    private final LinkedList<Candidate> candidates = new LinkedList<Candidate>();
+    private Candidate current;
+    /**
+     * Radius of the regions the sites are for
+     */
+    private double radius;
+    private int seenRegionsChanged = -1;
+    private BukkitTask task;
+
+    public RegionSiteFinder(Beaconz beaconzPlugin) {
+        super(beaconzPlugin);
+    }
+
+    /**
+     * Takes the best ready site and starts looking for another. Main thread.
+     * @param radius - radius of the new region
+     * @return centre of the new region, or null if no site is ready
+     */
+    public Point2D poll(double radius) {
+        Point2D result = null;
+        if (radius == this.radius) {
+            revalidate();
+            if (!sites.isEmpty()) {
+                result = sites.remove(0).centre;
+            }
+        }
+        refill(radius);
+        return result;
+    }
+
+    /**
+     * Starts looking for sites if fewer than QUEUE_SIZE are ready
+     * @param radius - radius of the regions to look for
+     */
+    public void refill(double radius) {
+        if (radius != this.radius) {
+            // Game distance has changed, so none of the sites fit any more
+            this.radius = radius;
+            sites.clear();
+            candidates.clear();
+            current = null;
+        }
+        if (task != null || sites.size() >= QUEUE_SIZE) {
+            return;
+        }
+        task = new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }}.runTaskTimer(getBeaconzPlugin(), 1L, 1L);
+    }
+
+    /**
+     * @return number of sites ready
+     */
+    public int size() {
+        return sites.size();
+    }
+
+    /**
+     * Samples candidates until the time budget for this tick runs out
+     */
+    private void tick() {
+        if (getGameMgr() == null) {
+            // Not ready
+            return;
+        }
+        if (current == null && candidates.isEmpty()) {
+            addCandidates();
+        }
+        long end = System.nanoTime() + BUDGET_NANOS;
+        World world = getBeaconzWorld();
+        while (System.nanoTime() < end) {
+            if (current == null) {
+                if (candidates.isEmpty()) {
+                    // Every candidate has been tried - wait for the next poll before trying again
+                    task.cancel();
+                    task = null;
+                    return;
+                }
+                current = candidates.removeFirst();
+                if (!getGameMgr().isAreaFree(current.centre, radius)) {
+                    current = null;
+                    continue;
+                }
+            }
+            Biome biome = world.getBiome(current.x, current.z);
+            if (biome.equals(Biome.DEEP_OCEAN) || biome.equals(Biome.OCEAN)) {
+                current.bad++;
+            }
+            current.samples++;
+            if (current.bad > current.maxBad) {
+                // Too wet, same as isAreaSafe
+                current = null;
+            } else if (!current.next()) {
+                double land = 1D - (double)current.bad / current.samples;
+                Site site = new Site(current.centre, land);
+                site.score = score(land, gap(site.centre), radius * 2D);
+                rank(sites, site, QUEUE_SIZE);
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Adds candidates all round each game region and a few at random
+     */
+    private void addCandidates() {
+        seenRegionsChanged = getGameMgr().getRegionsChanged();
+        Set<Point2D> seen = new HashSet<Point2D>();
+        for (Site site : sites) {
+            seen.add(site.centre);
+        }
+        boolean hasGames = false;
+        for (Region region : getGameMgr().getRegions().values()) {
+            if (region != getGameMgr().getLobby()) {
+                hasGames = true;
+                addAround(region.getCenter(), region.getRadius() + 512D + radius, seen);
+            }
+        }
+        if (!hasGames) {
+            // Start at the world center
+            addAround(new Point2D.Double(Settings.xCenter, Settings.zCenter), radius, seen);
+        }
+        Random rand = new Random();
+        for (int i = 0; i < RANDOM_CANDIDATES; i++) {
+            int range = (int)(radius * 200D);
+            add(new Point2D.Double(getGameMgr().rup16(rand.nextInt(range)), getGameMgr().rup16(rand.nextInt(range))), seen);
+        }
+    }
+
+    /**
+     * Adds the eight centres at distance from centre - the sides as GameMgr.goodNeighbor, then the diagonals
+     */
+    private void addAround(Point2D centre, double distance, Set<Point2D> seen) {
+        int[][] directions = {{0, 1}, {1, 0}, {0, -1}, {-1, 0}, {1, 1}, {1, -1}, {-1, -1}, {-1, 1}};
+        for (int[] direction : directions) {
+            add(new Point2D.Double(getGameMgr().rup16(centre.getX() + direction[0] * distance),
+                    getGameMgr().rup16(centre.getY() + direction[1] * distance)), seen);
+        }
+    }
+
+    private void add(Point2D centre, Set<Point2D> seen) {
+        if (seen.add(centre) && getGameMgr().isAreaFree(centre, radius)) {
+            candidates.add(new Candidate(centre));
+        }
+    }
+
+    /**
+     * Drops sites that have been taken by other regions since they were found and scores the rest again
+     */
+    private void revalidate() {
+        if (seenRegionsChanged == getGameMgr().getRegionsChanged()) {
+            return;
+        }
+        seenRegionsChanged = getGameMgr().getRegionsChanged();
+        List<Site> old = new ArrayList<Site>(sites);
+        sites.clear();
+        for (Site site : old) {
+            if (getGameMgr().isAreaFree(site.centre, radius)) {
+                site.score = score(site.land, gap(site.centre), radius * 2D);
+                rank(sites, site, QUEUE_SIZE);
+            }
+        }
+        // Regions have moved, so look round them again
+        candidates.clear();
+        current = null;
+    }
+
+    /**
+     * @param centre
+     * @return how much further the centre is from the nearest game region than it needs to be
+     */
+    private double gap(Point2D centre) {
+        double result = Double.MAX_VALUE;
+        for (Region region : getGameMgr().getRegions().values()) {
+            if (region != getGameMgr().getLobby()) {
+                result = Math.min(result, centre.distance(region.getCenter()) - (region.getRadius() + 512D + radius));
+            }
+        }
+        if (result == Double.MAX_VALUE) {
+            result = centre.distance(Settings.xCenter, Settings.zCenter) - radius;
+        }
+        return Math.max(0D, result);
+    }
+
+    /**
+     * Scores a site. Land counts for most, but sites next to the existing regions are preferred so the
+     * games stay close together.
+     * @param land - fraction of samples that were not ocean
+     * @param gap - blocks further from the nearest region than needed
+     * @param width - region width
+     * @return score, higher is better
+     */
+    static double score(double land, double gap, double width) {
+        return land / (1D + gap / width);
+    }
+
+    /**
+     * Puts a site into a list kept best first, dropping the worst if there are more than max
+     * @param sites
+     * @param site
+     * @param max
+     */
+    static void rank(List<Site> sites, Site site, int max) {
+        int i = 0;
+        while (i < sites.size() && sites.get(i).score >= site.score) {
+            i++;
+        }
+        sites.add(i, site);
+        while (sites.size() > max) {
+            sites.remove(sites.size() - 1);
+        }
+    }
+
+    /**
+     * A place that passed the biome check
+     */
+    static class Site {
+        final Point2D centre;
+        final double land;
+        double score;
+
+        Site(Point2D centre, double land) {
+            this.centre = centre;
+            this.land = land;
+        }
+    }
+
+    /**
+     * A candidate centre part way through being sampled
+     */
+    private class Candidate {
+        final Point2D centre;
+        final int minX;
+        final int maxX;
+        final int minZ;
+        final int maxZ;
+        final int maxBad;
+        int x;
+        int z;
+        int samples;
+        int bad;
+
+        Candidate(Point2D centre) {
+            this.centre = centre;
+            minX = (int)(double)getGameMgr().rup16(centre.getX() - radius);
+            minZ = (int)(double)getGameMgr().rup16(centre.getY() - radius);
+            maxX = (int)(double)getGameMgr().rup16(centre.getX() + radius);
+            maxZ = (int)(double)getGameMgr().rup16(centre.getY() + radius);
+            maxBad = (int)(radius * radius) / 1280;
+            x = minX;
+            z = minZ;
+        }
+
+        /**
+         * Moves on to the next sample point in the same order as isAreaSafe
+         * @return false if there are no more
+         */
+        boolean next() {
+            z += SAMPLE_SPACING;
+            if (z > maxZ) {
+                z = minZ;
+                x += SAMPLE_SPACING;
+            }
+            return x <= maxX;
+        }
+    }
+}
@@ -23,9 +23,14 @@ package com.wasteofplastic.beaconz;
 
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,6 +45,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.configuration.ConfigurationSection;
@@ -53,6 +59,7 @@ import org.bukkit.scoreboard.Team;
 
 import com.wasteofplastic.beaconz.map.BeaconMap;
 import com.wasteofplastic.beaconz.map.TerritoryMapRenderer;
+import com.wasteofplastic.beaconz.map.TerritoryRaster;
 
 /**
  * Enables quick finding of beacons
@@ -64,11 +71,60 @@ public class Register extends BeaconzPluginDependent {
 
     public Register(Beaconz beaconzPlugin) {
         super(beaconzPlugin);
+        this.scoreRecalculator = new ScoreRecalculator(beaconzPlugin);
+        this.journal = new RegisterJournal(beaconzPlugin, new File(beaconzPlugin.getDataFolder(), JOURNAL_FILE));
+        this.territoryRaster = new TerritoryRaster(beaconzPlugin);
     }
 
+    private final ScoreRecalculator scoreRecalculator;
+    /**
+     * Records changes between snapshots
+     */
+    private final RegisterJournal journal;
+    /**
+     * Number of the last snapshot saved or loaded. The journal only applies to this snapshot.
+     */
+    private long generation = 0;
+    /**
+     * True if beaconz.dat could not be read at load. beaconz.dat.old is then the last good save, so it is
+     * left alone by saveRegister until the next load.
+     */
+    private boolean snapshotDamaged = false;
+    /**
+     * Shared territory picture used by the map renderers
+     */
+    private final TerritoryRaster territoryRaster;
+    /**
+     * Goes up by one every time a beacon, link or triangle changes, so that renderers can tell if
+     * anything has changed without comparing the register
+     */
+    private long modCount = 0;
+    /**
+     * Value of modCount when each game last changed
+     */
+    private final HashMap<Game, Long> gameModCount = new HashMap<Game, Long>();
+    /**
+     * Told about every triangle added to or removed from the register
+     */
+    private final List<TriangleListener> triangleListeners = new ArrayList<TriangleListener>();
+
+    /**
+     * File the register is saved to. Older versions saved to beaconz.yml.
+     */
+    private static final String SNAPSHOT_FILE = "beaconz.dat";
+    private static final String JOURNAL_FILE = "beaconz.journal";
+
     private HashMap<Short, BeaconObj> beaconMaps = new HashMap<Short, BeaconObj>();
-    private HashMap<Point2D, BeaconObj> beaconRegister = new HashMap<Point2D, BeaconObj>();
+    private CoordMap beaconRegister = new CoordMap();
+    /**
+     * Spatial index of the beacons in beaconRegister. Used for range queries.
+     */
+    private BeaconGrid beaconGrid = new BeaconGrid();
     private Set<TriangleField> triangleFields = new HashSet<TriangleField>();
+    /**
+     * Spatial index of triangleFields. Used for point in triangle queries.
+     */
+    private TriangleIndex triangleIndex = new TriangleIndex();
     //private HashMap<Team, Set<Line2D>> links = new HashMap<Team, Set<Line2D>>();
     private HashMap<Game,List<BeaconLink>> beaconLinks = new HashMap<Game, List<BeaconLink>>();
 
@@ -76,106 +132,567 @@ public class Register extends BeaconzPluginDependent {
      * Store of the blocks around a beacon. Starts as the initial 8 blocks adjacent to the
      * beacon. Can expand as players add emerald blocks to the beacon.
      */
-    private HashMap<Point2D, BeaconObj> baseBlocks = new HashMap<Point2D, BeaconObj>();
+    private CoordMap baseBlocks = new CoordMap();
     private HashMap<BeaconObj, Set<Point2D>> baseBlocksInverse = new HashMap<BeaconObj, Set<Point2D>>();
+    /**
+     * Chunks with a beacon or base block in them. Lets getBeacon(Block) turn away blocks anywhere else straight away.
+     */
+    private ChunkSet beaconChunks = new ChunkSet();
+
+    /**
+     * Running per-team totals, updated by delta whenever the register changes so that scores
+     * can be read without scanning every beacon, link and triangle.
+     */
+    private HashMap<Team, Integer> teamBeaconCount = new HashMap<Team, Integer>();
+    private HashMap<Team, Integer> teamLinkCount = new HashMap<Team, Integer>();
+    private HashMap<Team, Integer> teamTriangleCount = new HashMap<Team, Integer>();
+    private HashMap<Team, TriangleAreaEngine> teamArea = new HashMap<Team, TriangleAreaEngine>();
 
     public void saveRegister() {
-        // Save the beacons
-        File beaconzFile = new File(getBeaconzPlugin().getDataFolder(),"beaconz.yml");
-        Set<BeaconLink> storedLinks = new HashSet<BeaconLink>();
-        YamlConfiguration beaconzYml = new YamlConfiguration();
-        // Backup the beacons file just in case
-        if (beaconzFile.exists()) {
-            File backup = new File(getBeaconzPlugin().getDataFolder(),"beaconz.old");
-            beaconzFile.renameTo(backup);
+        File snapshotFile = new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE);
+        File tempFile = new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE + ".tmp");
+        long newGeneration = generation + 1;
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            RegisterSnapshotWriter writer = new RegisterSnapshotWriter(out);
+            try {
+                writer.writeTag(RegisterSnapshotWriter.GENERATION);
+                writer.writeVarLong(newGeneration);
+                writeSnapshot(writer);
+                writer.finish();
+                // The snapshot must be on disk before the journal it replaces is deleted
+                out.getFD().sync();
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            getLogger().severe("Problem saving beacons file!");
+            e.printStackTrace();
+            return;
         }
-        int count = 0;
-        for (BeaconObj beacon : beaconRegister.values()) {
-            Game game = getGameMgr().getGame(beacon.getPoint());
-            String gameName = game == null? "None":game.getName();
-            beaconzYml.set("beacon." + count + ".game",gameName);
-            String owner = "unowned";
-            if (beacon.getOwnership() != null) {
-                owner = beacon.getOwnership().getName();
+        // Backup the beacons file just in case
+        if (snapshotFile.exists()) {
+            if (snapshotDamaged) {
+                // Only saves from this session can be here - the backup is kept as it is
+                snapshotFile.delete();
+            } else {
+                File backup = new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE + ".old");
+                backup.delete();
+                snapshotFile.renameTo(backup);
             }
-            beaconzYml.set("beacon." + count + ".location", beacon.getX() + ":" + beacon.getY() + ":" + beacon.getZ()
-                    + ":" + owner);
-            // Store links
-            if (game != null) {
-                List<String> beaconStringLinks = new ArrayList<String>();
-                if (beaconLinks.containsKey(game)) {
-                    for (BeaconLink link : beaconLinks.get(game)) {
-                        if (!storedLinks.contains(link) && link.getBeacon1().equals(beacon)) {
-                            beaconStringLinks.add(link.getBeacon2().getX() +":" + link.getBeacon2().getZ()+ ":" + link.getTimeStamp());
-                            // Only store the link once. Reduces file size and when it is loaded the reverse link will be auto made.
-                            storedLinks.add(link);
-                        }
-                    }
-                    beaconzYml.set("beacon." + count + ".links", beaconStringLinks);
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            getLogger().severe("Could not rename " + tempFile.getName() + " to " + SNAPSHOT_FILE);
+            return;
+        }
+        syncFolder(getBeaconzPlugin().getDataFolder());
+        // Everything in the journal is now in the snapshot
+        generation = newGeneration;
+        journal.start(generation);
+    }
+
+    /**
+     * Makes sure renames in a folder are on disk. Not every system can sync a folder, so this is best effort.
+     * @param folder
+     */
+    private static void syncFolder(File folder) {
+        try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows cannot open a folder like this
+        }
+    }
+
+    /**
+     * Records that something in a game changed
+     * @param game - game, or null if no game or all games changed
+     */
+    private void changed(Game game) {
+        modCount++;
+        if (game != null) {
+            gameModCount.put(game, modCount);
+        }
+    }
+
+    private void changed(int x, int z) {
+        changed(getGameMgr().getGame(x, z));
+    }
+
+    /**
+     * Adds a listener that is told about every triangle added or removed from now on
+     * @param listener
+     */
+    public void addTriangleListener(TriangleListener listener) {
+        triangleListeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeTriangleListener(TriangleListener listener) {
+        triangleListeners.remove(listener);
+    }
+
+    private void fireTriangleAdded(TriangleField triangle) {
+        for (TriangleListener listener : triangleListeners) {
+            listener.triangleAdded(triangle);
+        }
+    }
+
+    private void fireTriangleRemoved(TriangleField triangle) {
+        for (TriangleListener listener : triangleListeners) {
+            listener.triangleRemoved(triangle);
+        }
+    }
+
+    /**
+     * @return a number that goes up whenever a beacon, link or triangle changes
+     */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @param game
+     * @return a number that goes up whenever a beacon, link or triangle in this game changes
+     */
+    public long getModCount(Game game) {
+        Long count = gameModCount.get(game);
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * @return the shared territory picture used by the map renderers
+     */
+    public TerritoryRaster getTerritoryRaster() {
+        return territoryRaster;
+    }
+
+    /**
+     * @return the journal of changes since the last save
+     */
+    public RegisterJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Streams every beacon and link to the writer
+     * @param writer
+     * @throws IOException
+     */
+    private void writeSnapshot(RegisterSnapshotWriter writer) throws IOException {
+        // Group the map ids by beacon
+        HashMap<BeaconObj, List<Short>> maps = new HashMap<BeaconObj, List<Short>>();
+        for (Entry<Short, BeaconObj> en : beaconMaps.entrySet()) {
+            // Check if this map still exists
+            if (Bukkit.getMap(en.getKey()) != null) {
+                if (!maps.containsKey(en.getValue())) {
+                    maps.put(en.getValue(), new ArrayList<Short>());
                 }
+                maps.get(en.getValue()).add(en.getKey());
             }
-            if (beacon.getId() != null) {
-                beaconzYml.set("beacon." + count + ".id", beacon.getId());
-            }
-            // Save additional blocks added to beacon
-            //getLogger().info("DEBUG: plinthBlocksInverse = " + plinthBlocksInverse.toString());
-            List<String> plinthBlocksString = new ArrayList<String>();
-            for (Point2D point: baseBlocksInverse.get(beacon)) {
-                //getLogger().info("DEBUG: writing plinth block " + point);
-                plinthBlocksString.add((int)point.getX() + ":" + (int)point.getY());
+        }
+        for (BeaconObj beacon : beaconRegister.values()) {
+            writer.writeTag(RegisterSnapshotWriter.BEACON);
+            writer.writeString(beacon.getOwnership() == null ? null : beacon.getOwnership().getName());
+            writer.writeSignedVarInt(beacon.getX());
+            writer.writeVarInt(beacon.getY());
+            writer.writeSignedVarInt(beacon.getZ());
+            // Base blocks, relative to the beacon
+            Set<Point2D> points = baseBlocksInverse.get(beacon);
+            if (points == null) {
+                writer.writeVarInt(0);
+            } else {
+                writer.writeVarInt(points.size());
+                for (Point2D point : points) {
+                    writer.writeSignedVarInt((int)point.getX() - beacon.getX());
+                    writer.writeSignedVarInt((int)point.getY() - beacon.getZ());
+                }
             }
-            beaconzYml.set("beacon." + count + ".baseblocks", plinthBlocksString);
-            // Save the defenses
+            // Defenses
+            writer.writeVarInt(beacon.getDefenseBlocks().size());
             for (DefenseBlock defensiveBlock : beacon.getDefenseBlocks().values()) {
-                beaconzYml.set("beacon." + count + ".defensiveblocks."
-                        + Beaconz.getStringLocation(defensiveBlock.getBlock().getLocation()).replace('.', '_'), defensiveBlock.getLevel());
-                if (defensiveBlock.getPlacer() != null) {
-                    beaconzYml.set("beacon." + count + ".defensiveblocksowner."
-                            + Beaconz.getStringLocation(defensiveBlock.getBlock().getLocation()).replace('.', '_'), defensiveBlock.getPlacer().toString());
+                Block block = defensiveBlock.getBlock();
+                writer.writeString(block.getWorld().getName());
+                writer.writeSignedVarInt(block.getX());
+                writer.writeVarInt(block.getY());
+                writer.writeSignedVarInt(block.getZ());
+                writer.writeSignedVarInt(defensiveBlock.getLevel());
+                writer.writeString(defensiveBlock.getPlacer() == null ? null : defensiveBlock.getPlacer().toString());
+            }
+            // Maps
+            List<Short> beaconMapIds = maps.get(beacon);
+            if (beaconMapIds == null) {
+                writer.writeVarInt(0);
+            } else {
+                writer.writeVarInt(beaconMapIds.size());
+                for (Short id : beaconMapIds) {
+                    writer.writeVarInt(id & 0xFFFF);
                 }
             }
-            // Save the defenses
-            for (DefenseBlock defensiveBlock : beacon.getDefenseBlocks().values()) {
-                beaconzYml.set("beacon." + count + ".defensiveblocks."
-                        + Beaconz.getStringLocation(defensiveBlock.getBlock().getLocation()).replace('.', '_'), defensiveBlock.getLevel());
-                if (defensiveBlock.getPlacer() != null) {
-                    beaconzYml.set("beacon." + count + ".defensiveblocksowner."
-                            + Beaconz.getStringLocation(defensiveBlock.getBlock().getLocation()).replace('.', '_'), defensiveBlock.getPlacer().toString());
+        }
+        // Links are stored once. When they are loaded the reverse link will be auto made.
+        Set<BeaconLink> storedLinks = new HashSet<BeaconLink>();
+        for (List<BeaconLink> links : beaconLinks.values()) {
+            for (BeaconLink link : links) {
+                if (storedLinks.add(link)) {
+                    writer.writeTag(RegisterSnapshotWriter.LINK);
+                    writer.writeSignedVarInt(link.getBeacon1().getX());
+                    writer.writeSignedVarInt(link.getBeacon1().getZ());
+                    writer.writeSignedVarInt(link.getBeacon2().getX() - link.getBeacon1().getX());
+                    writer.writeSignedVarInt(link.getBeacon2().getZ() - link.getBeacon1().getZ());
+                    writer.writeVarLong(link.getTimeStamp());
                 }
             }
-            // Save maps
-            List<String> maps = new ArrayList<String>();
-            for (Short id : beaconMaps.keySet()) {
-                if (beacon.equals(beaconMaps.get(id))) {
-                    // Check if this map still exists
-                    if (Bukkit.getMap(id) != null) {
-                        maps.add(String.valueOf(id));
+        }
+    }
+
+    /**
+     * Loads register info from a file. Reads the binary snapshot if there is one and replays the journal
+     * on top of it. If the snapshot cannot be read it is renamed to beaconz.dat.bad and the previous save is
+     * loaded instead. Otherwise reads the older beaconz.yml, which is then converted to a snapshot.
+     */
+    public void loadRegister() {
+        // Changes made while loading are not journaled
+        journal.setPaused(true);
+        // Clear the data
+        clear();
+        beaconLinks.clear();
+
+        File snapshotFile = new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE);
+        File backupFile = new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE + ".old");
+        File beaconzFile = new File(getBeaconzPlugin().getDataFolder(),"beaconz.yml");
+        boolean migrate = false;
+        int replayed = 0;
+        generation = 0;
+        snapshotDamaged = false;
+        try {
+            if (snapshotFile.exists() || backupFile.exists()) {
+                boolean loaded = snapshotFile.exists() && loadSnapshotFile(snapshotFile);
+                if (!loaded) {
+                    // Fall back to the previous save. replayJournal skips a journal written for another
+                    // generation, so the damaged save's changes are not put on top of it.
+                    snapshotDamaged = true;
+                    if (snapshotFile.exists()) {
+                        snapshotFile.renameTo(new File(getBeaconzPlugin().getDataFolder(), SNAPSHOT_FILE + ".bad"));
+                    }
+                    clearLoaded();
+                    getLogger().severe("Loading the previous save from " + backupFile.getName());
+                    loaded = backupFile.exists() && loadSnapshotFile(backupFile);
+                    if (!loaded) {
+                        getLogger().severe("Could not load " + backupFile.getName() + " either! Starting with no beacons.");
+                        clearLoaded();
                     }
                 }
+                if (loaded && journal.getFile().length() > 0) {
+                    try {
+                        replayed = replayJournal(journal.getFile());
+                    } catch (IOException e) {
+                        getLogger().severe("Problem replaying " + JOURNAL_FILE + "!");
+                        e.printStackTrace();
+                    }
+                }
+            } else if (beaconzFile.exists()) {
+                loadYaml(beaconzFile);
+                migrate = true;
             }
-            beaconzYml.set("beacon." + count + ".maps", maps);
-            count++;
+            makeLoadedLinks();
+        } finally {
+            journal.setPaused(false);
         }
+        if (migrate) {
+            // One-time conversion to the snapshot format. The YAML file is kept under a new name.
+            getLogger().info("Converting beaconz.yml to " + SNAPSHOT_FILE);
+            saveRegister();
+            if (snapshotFile.exists()) {
+                beaconzFile.renameTo(new File(getBeaconzPlugin().getDataFolder(), "beaconz.yml.migrated"));
+            }
+        } else if (replayed > 0) {
+            // Fold the replayed changes into a new snapshot
+            getLogger().info("Replayed " + replayed + " changes from " + JOURNAL_FILE);
+            saveRegister();
+        } else {
+            journal.start(generation);
+        }
+    }
+
+    /**
+     * Loads a snapshot, logging any problem
+     * @param file
+     * @return true if the whole file was read
+     */
+    private boolean loadSnapshotFile(File file) {
         try {
-            beaconzYml.save(beaconzFile);
+            loadSnapshot(file);
+            return true;
         } catch (IOException e) {
-            getLogger().severe("Problem saving beacons file!");
+            getLogger().severe("Problem loading " + file.getName() + "!");
             e.printStackTrace();
+            return false;
         }
     }
 
     /**
-     * Loads register info from a file. Deserializes a the YML
+     * Throws away whatever was read from a snapshot that could not be loaded in full
      */
-    public void loadRegister() {
-        //int count = 0;
-        // Clear the data
+    private void clearLoaded() {
         clear();
+        beaconLinks.clear();
+        generation = 0;
+    }
 
-        File beaconzFile = new File(getBeaconzPlugin().getDataFolder(),"beaconz.yml");
-        if (!beaconzFile.exists()) {
-            return;
+    /**
+     * Applies the changes in the journal to the register
+     * @param journalFile
+     * @return number of changes applied
+     * @throws IOException
+     */
+    private int replayJournal(File journalFile) throws IOException {
+        RegisterSnapshotReader reader = new RegisterSnapshotReader(new FileInputStream(journalFile), RegisterJournal.MAGIC);
+        int count = 0;
+        try {
+            if (reader.readTag() != RegisterSnapshotWriter.GENERATION || reader.readVarLong() != generation) {
+                // The snapshot was saved after this journal was written, so it already has these changes
+                return 0;
+            }
+            while (true) {
+                int tag;
+                try {
+                    tag = reader.readTag();
+                } catch (EOFException e) {
+                    break;
+                }
+                replayRecord(tag, reader);
+                count++;
+            }
+        } catch (EOFException e) {
+            getLogger().warning(JOURNAL_FILE + " ends part way through a change. The last change was lost.");
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Applies one journal record. All of a record's fields are read before anything is changed.
+     * @param tag
+     * @param reader
+     * @throws IOException
+     */
+    private void replayRecord(int tag, RegisterSnapshotReader reader) throws IOException {
+        switch (tag) {
+        case RegisterJournal.BEACON_ADDED: {
+            String owner = reader.readString();
+            int x = reader.readSignedVarInt();
+            int y = reader.readVarInt();
+            int z = reader.readSignedVarInt();
+            loadBeacon(owner, x, y, z);
+            break;
         }
+        case RegisterJournal.OWNER_CHANGED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            String owner = reader.readString();
+            if (beacon != null) {
+                Game game = getGameMgr().getGame(beacon.getX(), beacon.getZ());
+                setBeaconOwner(beacon, owner == null || game == null ? null : game.getScorecard().getTeam(owner));
+            }
+            break;
+        }
+        case RegisterJournal.BEACON_LOST: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            if (beacon != null) {
+                // Links are only made once everything is loaded, so only the link list needs updating
+                for (List<BeaconLink> links : beaconLinks.values()) {
+                    Iterator<BeaconLink> it = links.iterator();
+                    while (it.hasNext()) {
+                        BeaconLink link = it.next();
+                        if (link.getBeacon1().equals(beacon) || link.getBeacon2().equals(beacon)) {
+                            it.remove();
+                            adjustCount(teamLinkCount, link.getOwner(), -1);
+                        }
+                    }
+                }
+                setBeaconOwner(beacon, null);
+            }
+            break;
+        }
+        case RegisterJournal.LINK_ADDED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            int destX = (beacon == null ? 0 : beacon.getX()) + reader.readSignedVarInt();
+            int destZ = (beacon == null ? 0 : beacon.getZ()) + reader.readSignedVarInt();
+            long linkTime = reader.readVarLong();
+            BeaconObj dest = beaconRegister.get(destX, destZ);
+            if (beacon != null && dest != null) {
+                loadLink(beacon, dest, linkTime);
+            }
+            break;
+        }
+        case RegisterJournal.LINK_REMOVED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            int destX = (beacon == null ? 0 : beacon.getX()) + reader.readSignedVarInt();
+            int destZ = (beacon == null ? 0 : beacon.getZ()) + reader.readSignedVarInt();
+            BeaconObj dest = beaconRegister.get(destX, destZ);
+            if (beacon != null && dest != null) {
+                // Nothing is visualized while loading, so unlink both ends directly
+                beacon.getLinks().remove(dest);
+                dest.getLinks().remove(beacon);
+                unregisterLink(beacon, dest);
+            }
+            break;
+        }
+        case RegisterJournal.BASE_BLOCK_ADDED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            int dx = reader.readSignedVarInt();
+            int dz = reader.readSignedVarInt();
+            if (beacon != null) {
+                addBeaconBaseBlock(beacon.getX() + dx, beacon.getZ() + dz, beacon);
+            }
+            break;
+        }
+        case RegisterJournal.DEFENSE_ADDED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            Block block = readBlock(reader);
+            int level = reader.readSignedVarInt();
+            String placer = reader.readString();
+            if (beacon != null && block != null) {
+                beacon.addDefenseBlock(block, level, placer);
+            }
+            break;
+        }
+        case RegisterJournal.DEFENSE_REMOVED: {
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            Block block = readBlock(reader);
+            if (beacon != null && block != null) {
+                beacon.removeDefenseBlock(block);
+            }
+            break;
+        }
+        case RegisterJournal.MAP_ADDED: {
+            short id = (short)reader.readVarInt();
+            BeaconObj beacon = readBeacon(reader, beaconRegister);
+            if (beacon != null) {
+                loadBeaconMap(id, beacon);
+            }
+            break;
+        }
+        case RegisterJournal.MAP_REMOVED:
+            beaconMaps.remove((short)reader.readVarInt());
+            break;
+        default:
+            throw new IOException("Unknown journal record type " + tag);
+        }
+    }
+
+    /**
+     * Reads a beacon's x,z and looks it up
+     * @return beacon or null if it is not known
+     */
+    private static BeaconObj readBeacon(RegisterSnapshotReader reader, CoordMap beacons) throws IOException {
+        int x = reader.readSignedVarInt();
+        int z = reader.readSignedVarInt();
+        return beacons.get(x, z);
+    }
+
+    /**
+     * Reads a world name and block coordinates
+     * @return block or null if the world is not loaded
+     */
+    private static Block readBlock(RegisterSnapshotReader reader) throws IOException {
+        String worldName = reader.readString();
+        int x = reader.readSignedVarInt();
+        int y = reader.readVarInt();
+        int z = reader.readSignedVarInt();
+        World world = Bukkit.getWorld(worldName);
+        return world == null ? null : world.getBlockAt(x, y, z);
+    }
+
+    /**
+     * Reads a binary snapshot written by saveRegister
+     * @param snapshotFile
+     * @throws IOException
+     */
+    private void loadSnapshot(File snapshotFile) throws IOException {
+        RegisterSnapshotReader reader = new RegisterSnapshotReader(new FileInputStream(snapshotFile));
+        try {
+            int tag;
+            while ((tag = reader.readTag()) != RegisterSnapshotWriter.END) {
+                switch (tag) {
+                case RegisterSnapshotWriter.GENERATION:
+                    generation = reader.readVarLong();
+                    break;
+                case RegisterSnapshotWriter.BEACON:
+                    readBeacon(reader);
+                    break;
+                case RegisterSnapshotWriter.LINK:
+                    int x = reader.readSignedVarInt();
+                    int z = reader.readSignedVarInt();
+                    int destX = x + reader.readSignedVarInt();
+                    int destZ = z + reader.readSignedVarInt();
+                    long linkTime = reader.readVarLong();
+                    BeaconObj beacon = beaconRegister.get(x, z);
+                    BeaconObj dest = beaconRegister.get(destX, destZ);
+                    if (beacon != null && dest != null) {
+                        loadLink(beacon, dest, linkTime);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + tag);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads one beacon record. The whole record is always read, even if the beacon's game has gone.
+     * @param reader
+     * @throws IOException
+     */
+    private void readBeacon(RegisterSnapshotReader reader) throws IOException {
+        String owner = reader.readString();
+        int x = reader.readSignedVarInt();
+        int y = reader.readVarInt();
+        int z = reader.readSignedVarInt();
+        BeaconObj newBeacon = loadBeacon(owner, x, y, z);
+        // Load base blocks
+        int count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            int blockX = x + reader.readSignedVarInt();
+            int blockZ = z + reader.readSignedVarInt();
+            if (newBeacon != null) {
+                addBeaconBaseBlock(blockX, blockZ, newBeacon);
+            }
+        }
+        // Load the defensive blocks
+        count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            String worldName = reader.readString();
+            int blockX = reader.readSignedVarInt();
+            int blockY = reader.readVarInt();
+            int blockZ = reader.readSignedVarInt();
+            int level = reader.readSignedVarInt();
+            String placer = reader.readString();
+            World world = Bukkit.getWorld(worldName);
+            if (newBeacon != null && world != null) {
+                newBeacon.addDefenseBlock(world.getBlockAt(blockX, blockY, blockZ), level, placer);
+            }
+        }
+        // Load map id's
+        count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            short id = (short)reader.readVarInt();
+            if (newBeacon != null) {
+                loadBeaconMap(id, newBeacon);
+            }
+        }
+    }
+
+    /**
+     * Loads the register from the YAML file used before the binary snapshot
+     * @param beaconzFile
+     */
+    private void loadYaml(File beaconzFile) {
         YamlConfiguration beaconzYml = new YamlConfiguration();
         try {
             beaconzYml.load(beaconzFile);
@@ -190,7 +707,6 @@ public class Register extends BeaconzPluginDependent {
             e.printStackTrace();
         }
         //beacons
-        beaconLinks.clear();
         HashMap<BeaconObj, List<String>> beaconStringLinks = new HashMap<BeaconObj, List<String>>();
         ConfigurationSection configSec = beaconzYml.getConfigurationSection("beacon");
         if (configSec != null) {
@@ -204,22 +720,10 @@ public class Register extends BeaconzPluginDependent {
                         int y = Integer.valueOf(args[1]);
                         int z = Integer.valueOf(args[2]);
 
-                        Game game = getGameMgr().getGame(x, z);
-                        if (game != null) {
-                            Team team = null;
-                            if (!args[3].equalsIgnoreCase("unowned")) {
-                                team = game.getScorecard().getTeam(args[3]);
-                            }
-                            BeaconObj newBeacon = addBeacon(team, x, y, z);
-                            //count++;
-                            //BeaconObj newBeacon = new BeaconObj(getBeaconzPlugin(), x,y,z , team));
+                        BeaconObj newBeacon = loadBeacon(args[3], x, y, z);
+                        if (newBeacon != null) {
                             // Check for links
                             beaconStringLinks.put(newBeacon, configSec.getStringList(beacon + ".links"));
-                            // Initialize the link array if required
-                            if (beaconLinks.get(game) == null) {
-                                List<BeaconLink> pairs = new ArrayList<BeaconLink>();
-                                beaconLinks.put(game, pairs);
-                            }
                             // Load base blocks
                             List<String> baseBlocks = configSec.getStringList(beacon + ".baseblocks");
                             for (String baseBlock : baseBlocks) {
@@ -248,37 +752,20 @@ public class Register extends BeaconzPluginDependent {
                             // Load map id's
                             List<String> maps = configSec.getStringList(beacon + ".maps");
                             for (String mapNumber: maps) {
-                                short id = Short.valueOf(mapNumber);
-                                beaconMaps.put(id, newBeacon);
-                                @SuppressWarnings("deprecation")
-                                MapView map = Bukkit.getMap(id);
-                                if (map != null) {
-                                    for (MapRenderer renderer : map.getRenderers()) {
-                                        if (renderer instanceof TerritoryMapRenderer || renderer instanceof BeaconMap) {
-                                            map.removeRenderer(renderer);
-                                        }
-                                    }
-                                    map.addRenderer(new TerritoryMapRenderer(getBeaconzPlugin()));
-                                    map.addRenderer(new BeaconMap(getBeaconzPlugin()));
-                                } else {
-                                    getLogger().severe("Could not load map #" + id + " as it doesn't exist on this server. Skipping...");
-                                }
+                                loadBeaconMap(Short.valueOf(mapNumber), newBeacon);
                             }
                             //getLogger().info("DEBUG: loaded beacon at " + x + "," + y + "," + z);
-                        } else {
-                            // Game was deleted
-                            //getLogger().warning("Tried to load beacon at " + x + "," + y + "," + z + " but there is no active game there. Skipping...");
                         }
                     }
                 }
             }
         }
-        // Once all beacons have been loaded, add links and make triangles
+        // Once all beacons have been loaded, add links
         long count = 0;
         for (BeaconObj beacon: beaconStringLinks.keySet()) {
             for (String link : beaconStringLinks.get(beacon)) {
                 String[] args = link.split(":");
-                BeaconObj dest = beaconRegister.get(new Point2D.Double(Double.valueOf(args[0]), Double.valueOf(args[1])));
+                BeaconObj dest = beaconRegister.get(Double.valueOf(args[0]).intValue(), Double.valueOf(args[1]).intValue());
                 if (dest != null) {
                     Long linkTime = 0L;
                     if (args.length == 3) {
@@ -287,26 +774,92 @@ public class Register extends BeaconzPluginDependent {
                         count += 1000;
                         linkTime = count;
                     }
-                    BeaconLink newBeaconPair = new BeaconLink(beacon, dest, linkTime);
-                    // Duplicates are made when the link is made below
-                    Game game = getGameMgr().getGame(beacon.getPoint());
-                    if (game != null) {
-                        if (beaconLinks.get(game) == null) {
-                            List<BeaconLink> pairs = new ArrayList<BeaconLink>();
-                            beaconLinks.put(game, pairs);
-                        }
-                        if (!beaconLinks.get(game).contains(newBeaconPair)) {
-                            beaconLinks.get(game).add(newBeaconPair);
-                        } else {
-                            getLogger().warning("Removed duplicate link");
-                        }
-                    }
+                    loadLink(beacon, dest, linkTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a beacon read from disk
+     * @param owner - team name, or null or "unowned"
+     * @param x
+     * @param y
+     * @param z
+     * @return the beacon, or null if there is no longer a game there
+     */
+    private BeaconObj loadBeacon(String owner, int x, int y, int z) {
+        Game game = getGameMgr().getGame(x, z);
+        if (game == null) {
+            // Game was deleted
+            //getLogger().warning("Tried to load beacon at " + x + "," + y + "," + z + " but there is no active game there. Skipping...");
+            return null;
+        }
+        Team team = null;
+        if (owner != null && !owner.equalsIgnoreCase("unowned")) {
+            team = game.getScorecard().getTeam(owner);
+        }
+        BeaconObj newBeacon = addBeacon(team, x, y, z);
+        // Initialize the link array if required
+        if (beaconLinks.get(game) == null) {
+            List<BeaconLink> pairs = new ArrayList<BeaconLink>();
+            beaconLinks.put(game, pairs);
+        }
+        return newBeacon;
+    }
+
+    /**
+     * Reattaches a map to a beacon after loading
+     * @param id
+     * @param beacon
+     */
+    private void loadBeaconMap(short id, BeaconObj beacon) {
+        beaconMaps.put(id, beacon);
+        @SuppressWarnings("deprecation")
+        MapView map = Bukkit.getMap(id);
+        if (map != null) {
+            for (MapRenderer renderer : map.getRenderers()) {
+                if (renderer instanceof TerritoryMapRenderer || renderer instanceof BeaconMap) {
+                    map.removeRenderer(renderer);
                 }
             }
+            map.addRenderer(new TerritoryMapRenderer(getBeaconzPlugin()));
+            map.addRenderer(new BeaconMap(getBeaconzPlugin()));
+        } else {
+            getLogger().severe("Could not load map #" + id + " as it doesn't exist on this server. Skipping...");
+        }
+    }
+
+    /**
+     * Adds a link read from disk to the game's link list. The beacons are linked by makeLoadedLinks.
+     * @param beacon
+     * @param dest
+     * @param linkTime
+     */
+    private void loadLink(BeaconObj beacon, BeaconObj dest, long linkTime) {
+        BeaconLink newBeaconPair = new BeaconLink(beacon, dest, linkTime);
+        // Duplicates are made when the link is made below
+        Game game = getGameMgr().getGame(beacon.getPoint());
+        if (game != null) {
+            if (beaconLinks.get(game) == null) {
+                List<BeaconLink> pairs = new ArrayList<BeaconLink>();
+                beaconLinks.put(game, pairs);
+            }
+            if (!beaconLinks.get(game).contains(newBeaconPair)) {
+                beaconLinks.get(game).add(newBeaconPair);
+                adjustCount(teamLinkCount, newBeaconPair.getOwner(), 1);
+            } else {
+                getLogger().warning("Removed duplicate link");
+            }
         }
+    }
 
+    /**
+     * Once all beacons and links have been loaded, links the beacons and makes the triangles
+     */
+    private void makeLoadedLinks() {
         // Make the links game by game
-        for (Entry<Game, List<BeaconLink>> entry : beaconLinks.entrySet()) {           
+        for (Entry<Game, List<BeaconLink>> entry : beaconLinks.entrySet()) {
             // Sort the list
             Collections.sort(entry.getValue());
             //getLogger().info("DEBUG: number of beacon links: " + entry.getValue().size());
@@ -334,9 +887,24 @@ public class Register extends BeaconzPluginDependent {
         if (region == null) {
             beaconMaps.clear();
             beaconRegister.clear();
+            beaconGrid.clear();
+            markBeaconChunks();
+            for (TriangleField triangle : triangleFields) {
+                fireTriangleRemoved(triangle);
+            }
             triangleFields.clear();
+            triangleIndex.clear();
+            territoryRaster.clear();
             //links.clear();
             beaconLinks.clear();
+            teamBeaconCount.clear();
+            teamLinkCount.clear();
+            teamTriangleCount.clear();
+            teamArea.clear();
+            changed((Game)null);
+            for (Game game : gameModCount.keySet()) {
+                gameModCount.put(game, modCount);
+            }
         } else {
             //getLogger().info("DEBUG: clearing region " + region.displayCoords());
             Iterator<Entry<Short, BeaconObj>> bmit = beaconMaps.entrySet().iterator();
@@ -349,15 +917,16 @@ public class Register extends BeaconzPluginDependent {
                 }
             }
             //getLogger().info("DEBUG: beacon maps done");
-            Iterator<Entry<Point2D, BeaconObj>> brit = beaconRegister.entrySet().iterator();
-            while (brit.hasNext()) {
-                Entry<Point2D, BeaconObj> en = brit.next();
-                //getLogger().info("DEBUG: checking " + en.getKey());
-                if (region.containsPoint(en.getKey())) {
-                    //getLogger().info("DEBUG: Removing beacon at " + en.getKey());
-                    brit.remove();
+            for (BeaconObj beacon : beaconRegister.values()) {
+                //getLogger().info("DEBUG: checking " + beacon.getPoint());
+                if (region.containsPoint(beacon.getX(), beacon.getZ())) {
+                    //getLogger().info("DEBUG: Removing beacon at " + beacon.getPoint());
+                    beaconGrid.remove(beacon);
+                    beaconRegister.remove(beacon.getX(), beacon.getZ());
+                    adjustCount(teamBeaconCount, beacon.getOwnership(), -1);
                 }
             }
+            markBeaconChunks();
             //getLogger().info("DEBUG: beacons done");
             Iterator<TriangleField> trit = triangleFields.iterator();
             while (trit.hasNext()) {
@@ -365,15 +934,62 @@ public class Register extends BeaconzPluginDependent {
                 //getLogger().info("DEBUG: Checking triangle with corner at " + tri.a);
                 if (region.containsPoint(tri.a)) {
                     //getLogger().info("DEBUG: Removing triangle!");
+                    triangleIndex.remove(tri);
                     trit.remove();
+                    uncountTriangle(tri);
+                    fireTriangleRemoved(tri);
                 }
             }
             //getLogger().info("DEBUG: triangles done");
-            beaconLinks.remove(region.getGame());
+            territoryRaster.clear(region.getGame());
+            changed(region.getGame());
+            List<BeaconLink> removedLinks = beaconLinks.remove(region.getGame());
+            if (removedLinks != null) {
+                for (BeaconLink link : removedLinks) {
+                    adjustCount(teamLinkCount, link.getOwner(), -1);
+                }
+            }
+            // The journal does not record whole regions being cleared, so take a new snapshot instead
+            journal.requestCompaction();
            // getLogger().info("DEBUG: links done");
         }
     }
 
+    /**
+     * Removes a link between two beacons from both ends and from the game's link list
+     * @param beacon
+     * @param otherBeacon
+     */
+    public void removeBeaconLink(BeaconObj beacon, BeaconObj otherBeacon) {
+        otherBeacon.removeLink(beacon);
+        beacon.removeLink(otherBeacon);
+        journal.linkRemoved(beacon, otherBeacon);
+        unregisterLink(beacon, otherBeacon);
+    }
+
+    /**
+     * Takes a link off the game's link list and its team's link count
+     * @param beacon
+     * @param otherBeacon
+     */
+    private void unregisterLink(BeaconObj beacon, BeaconObj otherBeacon) {
+        Game game = getGameMgr().getGame(beacon.getPoint());
+        List<BeaconLink> links = beaconLinks.get(game);
+        if (links != null) {
+            // Links are equal whichever way round they go
+            Iterator<BeaconLink> it = links.iterator();
+            BeaconLink removed = new BeaconLink(beacon, otherBeacon);
+            while (it.hasNext()) {
+                BeaconLink link = it.next();
+                if (link.equals(removed)) {
+                    it.remove();
+                    adjustCount(teamLinkCount, link.getOwner(), -1);
+                }
+            }
+        }
+        changed(game);
+    }
+
     /**
      * Add a link between beacons created now
      * @param beacon
@@ -389,6 +1005,9 @@ public class Register extends BeaconzPluginDependent {
         // Note that links cannot be duplicated
         if (!beaconLinks.get(game).contains(beaconLinks)) {
             beaconLinks.get(game).add(beaconPair);
+            adjustCount(teamLinkCount, beaconPair.getOwner(), 1);
+            journal.linkAdded(beaconPair);
+            changed(game);
             // Try to add link - if there are too many already, refuse
             if (!startBeacon.addOutboundLink(endBeacon)) {
                 return new LinkResult(0,false,0);
@@ -443,16 +1062,7 @@ public class Register extends BeaconzPluginDependent {
      * @return number of links
      */
     public int getTeamLinks(Team team) {
-        //getLogger().info("DEBUG: getting team links " + beaconLinks.get(getGameMgr().getGame(team)));
-        int result = 0;
-        if (getGameMgr().getGame(team) != null && beaconLinks.containsKey(getGameMgr().getGame(team))) {
-            for (BeaconLink pair: beaconLinks.get(getGameMgr().getGame(team))) {
-                if (pair.getOwner().equals(team)) {
-                    result++;
-                }
-            }
-        }
-        return result;
+        return getCount(teamLinkCount, team);
     }
 
     /**
@@ -470,19 +1080,22 @@ public class Register extends BeaconzPluginDependent {
         return teambeacons;
     }
 
+    /**
+     * Get the number of beacons a team owns
+     * @param team
+     * @return number of beacons
+     */
+    public int getTeamBeaconCount(Team team) {
+        return getCount(teamBeaconCount, team);
+    }
+
     /**
      * Get number the triangles for a team
      * @param team
      * @return number of triangles
      */
     public int getTeamTriangles(Team team) {
-        int teamtriangles = 0;
-        for (TriangleField triangle : triangleFields) {
-            if (triangle.getOwner() != null && triangle.getOwner().equals(team)) {
-                teamtriangles++;
-            }
-        }
-        return teamtriangles;
+        return getCount(teamTriangleCount, team);
     }
 
     /**
@@ -491,7 +1104,8 @@ public class Register extends BeaconzPluginDependent {
      * @return total area
      */
     public int getTeamArea(Team team) {
-        return (int)TriangleScorer.getScore(triangleFields, team);
+        TriangleAreaEngine area = teamArea.get(team);
+        return area == null ? 0 : TriangleAreaEngine.toBlocks(area.getArea());
     }
 
     /**
@@ -505,16 +1119,25 @@ public class Register extends BeaconzPluginDependent {
     public BeaconObj addBeacon(Team owner, int x, int y, int z) {
         // Create a beacon
         BeaconObj beacon = new BeaconObj(getBeaconzPlugin(), x, y, z, owner);
+        journal.beaconAdded(owner, x, y, z);
         //getLogger().info("DEBUG: registered beacon at " + x + "," + y + ", " + z + " owner " + owner);
         for (int xx = x-1; xx <= x + 1; xx++) {
             for (int zz = z - 1; zz <= z + 1; zz++) {
-                Point2D location = new Point2D.Double(xx,zz);
                 if (xx == x && zz == z) {
                     // Center square = beacon
-                    beaconRegister.put(location, beacon);
+                    BeaconObj oldBeacon = beaconRegister.put(xx, zz, beacon);
+                    if (oldBeacon != null) {
+                        adjustCount(teamBeaconCount, oldBeacon.getOwnership(), -1);
+                    }
+                    adjustCount(teamBeaconCount, owner, 1);
+                    beaconGrid.add(beacon);
+                    beaconChunks.mark(xx, zz);
+                    changed(x, z);
                 } else {
                     // Put the defensive blocks
-                    baseBlocks.put(location, beacon);
+                    Point2D location = new Point2D.Double(xx,zz);
+                    baseBlocks.put(xx, zz, beacon);
+                    beaconChunks.mark(xx, zz);
                     Set<Point2D> points = baseBlocksInverse.get(beacon);
                     if (points == null) {
                         points = new HashSet<Point2D>();
@@ -542,14 +1165,30 @@ public class Register extends BeaconzPluginDependent {
      * @return true if the triangle is valid, otherwise false
      */
     public Boolean addTriangle(Point2D point2d, Point2D point2d2, Point2D point2d3, Team owner)  throws IllegalArgumentException {
+        return addTriangle(point2d, point2d2, point2d3, owner, true);
+    }
+
+    /**
+     * Creates a triangular field covering the world between three beacons
+     * @param point2d
+     * @param point2d2
+     * @param point2d3
+     * @param owner
+     * @param refreshScore - if false the caller refreshes the team's score
+     * @return true if the triangle is valid, otherwise false
+     */
+    Boolean addTriangle(Point2D point2d, Point2D point2d2, Point2D point2d3, Team owner, boolean refreshScore)  throws IllegalArgumentException {
         //getLogger().info("DEBUG: Adding triangle at " + point2d + " " + point2d2 + " " + point2d3);
         // Check that locations are known beacons
-        if (beaconRegister.containsKey(point2d) && beaconRegister.containsKey(point2d2) && beaconRegister.containsKey(point2d3)) {
+        BeaconObj beacon1 = getBeaconAt((int)point2d.getX(), (int)point2d.getY());
+        BeaconObj beacon2 = getBeaconAt((int)point2d2.getX(), (int)point2d2.getY());
+        BeaconObj beacon3 = getBeaconAt((int)point2d3.getX(), (int)point2d3.getY());
+        if (beacon1 != null && beacon2 != null && beacon3 != null) {
             //getLogger().info("DEBUG: All three beacons are in the register");
             // Check the beacons are all owned by the same faction
-            if (beaconRegister.get(point2d).getOwnership().equals(owner)
-                    && beaconRegister.get(point2d2).getOwnership().equals(owner)
-                    && beaconRegister.get(point2d3).getOwnership().equals(owner)) {
+            if (beacon1.getOwnership().equals(owner)
+                    && beacon2.getOwnership().equals(owner)
+                    && beacon3.getOwnership().equals(owner)) {
                 //getLogger().info("DEBUG: All beacons are owned by same team");
                 TriangleField triangle = new TriangleField(point2d, point2d2, point2d3, owner);
                 // Check to see if this control field would overlap enemy-held beacons
@@ -601,9 +1240,16 @@ public class Register extends BeaconzPluginDependent {
                 }*/
                 if (triangleFields.add(triangle)) {
                     //getLogger().info("DEBUG: Added control field!");
-                    // New control field, refresh score
-                    Game game = getGameMgr().getGame(point2d);
-                    game.getScorecard().refreshScores(owner);
+                    triangleIndex.add(triangle);
+                    territoryRaster.invalidate(triangle);
+                    countTriangle(triangle);
+                    changed(triangle.getVertexX(0), triangle.getVertexZ(0));
+                    fireTriangleAdded(triangle);
+                    if (refreshScore) {
+                        // New control field, refresh score
+                        Game game = getGameMgr().getGame(point2d);
+                        game.getScorecard().refreshScores(owner);
+                    }
                     //getLogger().info("DEBUG: New score is " + game.getScorecard().getScore(owner, "area"));
                     return true;
                 }
@@ -619,17 +1265,38 @@ public class Register extends BeaconzPluginDependent {
     }
 
     /**
-     * @return the beaconRegister
+     * @return a copy of all the beacons in the register
      */
-    public HashMap<Point2D, BeaconObj> getBeaconRegister() {
-        return beaconRegister;
+    public List<BeaconObj> getBeacons() {
+        return beaconRegister.values();
+    }
+
+    /**
+     * @return number of beacons in the register
+     */
+    public int getNumberOfBeacons() {
+        return beaconRegister.size();
     }
 
     /**
      * @param triangleFields the triangleFields to set
      */
     public void setTriangleFields(Set<TriangleField> triangleFields) {
+        for (TriangleField triangle : this.triangleFields) {
+            fireTriangleRemoved(triangle);
+        }
         this.triangleFields = triangleFields;
+        triangleIndex.clear();
+        territoryRaster.clear();
+        changed((Game)null);
+        teamTriangleCount.clear();
+        teamArea.clear();
+        for (TriangleField triangle : triangleFields) {
+            triangleIndex.add(triangle);
+            countTriangle(triangle);
+            fireTriangleAdded(triangle);
+        }
+        recalculateAreas();
     }
 
     /**
@@ -639,6 +1306,24 @@ public class Register extends BeaconzPluginDependent {
         return triangleFields;
     }
 
+    /**
+     * Removes a triangle field from the register. Use this instead of removing from getTriangleFields()
+     * so that the triangle index is kept up to date.
+     * @param triangle
+     * @return true if the triangle was in the register
+     */
+    public boolean removeTriangle(TriangleField triangle) {
+        if (triangleFields.remove(triangle)) {
+            triangleIndex.remove(triangle);
+            territoryRaster.invalidate(triangle);
+            uncountTriangle(triangle);
+            changed(triangle.getVertexX(0), triangle.getVertexZ(0));
+            fireTriangleRemoved(triangle);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Checks if a block is part of a natural beacon
      * @param b
@@ -655,14 +1340,7 @@ public class Register extends BeaconzPluginDependent {
      * @return true if beacon is there, false if not
      */
     public boolean isNearBeacon(Point2D point, int range) {
-        int distSquared = range*range;
-        for (Point2D beacon : beaconRegister.keySet()) {
-            // Distance squared check is less computationally intensive than checking the square
-            if (distSquared > point.distanceSq(beacon)) {
-                return true;
-            }
-        }
-        return false;
+        return beaconGrid.isNear(point.getX(), point.getY(), range);
     }
 
     /**
@@ -672,16 +1350,7 @@ public class Register extends BeaconzPluginDependent {
      * @return list of nearby beacons
      */
     public List<BeaconObj> getNearbyBeacons(Location location, int range) {
-        int distSquared = range*range;
-        List<BeaconObj> result = new ArrayList<BeaconObj>();
-        Point2D point = new Point2D.Double(location.getX(), location.getZ());
-        for (Point2D beacon : beaconRegister.keySet()) {
-            // Distance squared check is less computationally intensive than checking the square
-            if (distSquared > point.distanceSq(beacon)) {
-                result.add(beaconRegister.get(beacon));
-            }
-        }
-        return result;
+        return beaconGrid.getNearby(location.getX(), location.getZ(), range);
     }
 
     /**
@@ -703,6 +1372,10 @@ public class Register extends BeaconzPluginDependent {
      */
     public BeaconObj getBeacon(Block block) {
         //getLogger().info("DEBUG: material = " + b.getType());
+        // Quickest check - nothing to do with beacons in this chunk
+        if (!beaconChunks.contains(block.getX(), block.getZ())) {
+            return null;
+        }
         // Quick check
         if (!block.getType().equals(Material.BEACON) && !block.getType().equals(Material.DIAMOND_BLOCK)
                 && !block.getType().equals(Material.OBSIDIAN) && !block.getType().equals(Material.STAINED_GLASS)
@@ -710,13 +1383,14 @@ public class Register extends BeaconzPluginDependent {
             return null;
         }
         //getLogger().info("DEBUG: correct material");
-        Point2D point = new Point2D.Double(block.getLocation().getBlockX(),block.getLocation().getBlockZ());
+        int x = block.getX();
+        int z = block.getZ();
 
         // Check plinth blocks
         if (block.getType().equals(Material.EMERALD_BLOCK)) {
-            if (baseBlocks.containsKey(point)) {
+            BeaconObj beacon = baseBlocks.get(x, z);
+            if (beacon != null) {
                 // Check height
-                BeaconObj beacon = baseBlocks.get(point);
                 if (beacon.getY() == block.getY() + 1) {
                     // Correct height
                     return beacon;
@@ -734,11 +1408,11 @@ public class Register extends BeaconzPluginDependent {
                 //getLogger().info("DEBUG: no beacon below here");
                 return null;
             }
-            point = new Point2D.Double(below.getLocation().getBlockX(),below.getLocation().getBlockZ());
             // Beacon below
-            if (beaconRegister.containsKey(point)) {
+            BeaconObj beacon = beaconRegister.get(below.getX(), below.getZ());
+            if (beacon != null) {
                 //getLogger().info("DEBUG: found in register");
-                return beaconRegister.get(point);
+                return beacon;
             } else {
                 //getLogger().info("DEBUG: not found in register");
                 return null;
@@ -746,9 +1420,10 @@ public class Register extends BeaconzPluginDependent {
         }
         // Check beacons
         if (block.getType().equals(Material.BEACON)) {
-            if (beaconRegister.containsKey(point)) {
+            BeaconObj beacon = beaconRegister.get(x, z);
+            if (beacon != null) {
                 //getLogger().info("DEBUG: found in register");
-                return beaconRegister.get(point);
+                return beacon;
             } else {
                 /*
                 getLogger().info("DEBUG: not found in register. Known points are:");
@@ -764,9 +1439,9 @@ public class Register extends BeaconzPluginDependent {
             for (int modZ = -1; modZ < 2; modZ++) {
                 Block test = block.getRelative(modX, 1, modZ);
                 if (test.getType().equals(Material.BEACON)) {
-                    point = new Point2D.Double(test.getLocation().getBlockX(),test.getLocation().getBlockZ());
-                    if (beaconRegister.containsKey(point)) {
-                        return beaconRegister.get(point);
+                    BeaconObj beacon = beaconRegister.get(test.getX(), test.getZ());
+                    if (beacon != null) {
+                        return beacon;
                     }
                 }
             }
@@ -791,6 +1466,11 @@ public class Register extends BeaconzPluginDependent {
         Game game = getGameMgr().getGame(beacon.getPoint());
         Team oldOwner = beacon.getOwnership();
         beacon.setOwnership(null);
+        journal.beaconLost(beacon);
+        changed(game);
+        if (getBeaconAt(beacon.getX(), beacon.getZ()) == beacon) {
+            adjustCount(teamBeaconCount, oldOwner, -1);
+        }
 
         // Remove links to the beacon (and back)
         Iterator<BeaconObj> beaconIterator = beacon.getLinks().iterator();
@@ -805,6 +1485,7 @@ public class Register extends BeaconzPluginDependent {
                     BeaconLink beaconPair = beaconPairIterator.next();
                     if (beaconPair.getBeacon1().equals(beacon) || beaconPair.getBeacon2().equals(beacon)) {
                         beaconPairIterator.remove();
+                        adjustCount(teamLinkCount, beaconPair.getOwner(), -1);
                     }
                 }
                 Iterator<BeaconLink> linkIterator = beaconLinks.get(game).iterator();
@@ -814,6 +1495,7 @@ public class Register extends BeaconzPluginDependent {
                     if (pair.getBeacon1().equals(beacon) || pair.getBeacon2().equals(beacon)) {
                         linkLossCount++;
                         linkIterator.remove();
+                        adjustCount(teamLinkCount, pair.getOwner(), -1);
                     }
                 }
                 // linkLossCount should always be a multiple of 2 because links go both ways
@@ -856,15 +1538,20 @@ public class Register extends BeaconzPluginDependent {
                     }
                 }
                 // Remove triangle
+                triangleIndex.remove(triangle);
+                territoryRaster.invalidate(triangle);
                 it.remove();
+                uncountTriangle(triangle);
+                fireTriangleRemoved(triangle);
             }
         }
 
         // Cap the beacon with obsidian
         getBeaconzWorld().getBlockAt(beacon.getX(), beacon.getHeight() + 1, beacon.getZ()).setType(Material.OBSIDIAN);
 
-        // Refresh the scores
-        recalculateScore(getGameMgr().getGame(beacon.getX(), beacon.getZ()));
+        // Refresh the scores. Losing a beacon can let another team make triangles it could not before,
+        // so look for new triangles off the main thread
+        scoreRecalculator.requestRecalculation(getGameMgr().getGame(beacon.getX(), beacon.getZ()));
         Scorecard sc = getGameMgr().getSC(beacon.getX(), beacon.getZ());
         if(sc!=null && oldOwner != null) sc.refreshScores(oldOwner);
     }
@@ -892,6 +1579,7 @@ public class Register extends BeaconzPluginDependent {
         beacon.setId(index);
         //getLogger().info("DEBUG: storing beacon map # " + index + " for beacon at "+ beacon.getLocation());
         this.beaconMaps.put(index, beacon);
+        journal.mapAdded(index, beacon);
     }
 
     /**
@@ -900,6 +1588,7 @@ public class Register extends BeaconzPluginDependent {
     public void removeBeaconMap(Short index) {  
         getLogger().info("DEBUG: removing beacon map # " + index );
         this.beaconMaps.remove(index);
+        journal.mapRemoved(index);
     }
 
     /**
@@ -916,20 +1605,31 @@ public class Register extends BeaconzPluginDependent {
      * @return list of triangles at this location
      */
     public List<TriangleField> getTriangle(int x, int y) {
-        // TODO: Brute force check - in the future, will need to be indexed better
-        List<TriangleField> result = new ArrayList<TriangleField>();
-        //int index = 1;
-        for (TriangleField tri: triangleFields) {
-            if (tri.contains(x, y) != null) {
-                /*
-                getLogger().info("DEBUG: triangle " + index++);
-                for (Line2D line : tri.getSides()) {
-                    getLogger().info("DEBUG: " + line.getP1().toString() + " to " + line.getP2().toString());
-                } */
-                result.add(tri);
-            }
-        }
-        return result;
+        return triangleIndex.getTriangles(x, y);
+    }
+
+    /**
+     * Gets the triangles that may cover part of an area, without scanning every triangle
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @return triangles whose bounding boxes overlap the area
+     */
+    public List<TriangleField> getTriangles(int minX, int minZ, int maxX, int maxZ) {
+        return triangleIndex.getTriangles(minX, minZ, maxX, maxZ);
+    }
+
+    /**
+     * Finds a square of blocks around x,z inside which {@link #getTriangle(int, int)} always gives the
+     * same answer, until the triangles change
+     * @param x
+     * @param z
+     * @param bounds - set to the min x, min z, max x and max z of the square, inclusive
+     * @return false if there is no such square bigger than a few blocks
+     */
+    public boolean getUniformTriangleArea(int x, int z, int[] bounds) {
+        return triangleIndex.getUniformArea(x, z, bounds);
     }
 
     /**
@@ -939,8 +1639,7 @@ public class Register extends BeaconzPluginDependent {
      * @return beacon object
      */
     public BeaconObj getBeaconAt(int x, int z) {
-        Point2D point = new Point2D.Double(x,z);
-        return beaconRegister.get(point);
+        return beaconRegister.get(x, z);
     }
 
     /**
@@ -951,6 +1650,12 @@ public class Register extends BeaconzPluginDependent {
     public void setBeaconOwner(BeaconObj beacon, Team team) {
         Team oldowner = beacon.getOwnership();
         beacon.setOwnership(team);
+        journal.ownerChanged(beacon, team);
+        changed(beacon.getX(), beacon.getZ());
+        if (getBeaconAt(beacon.getX(), beacon.getZ()) == beacon) {
+            adjustCount(teamBeaconCount, oldowner, -1);
+            adjustCount(teamBeaconCount, team, 1);
+        }
         // TODO : Add other things in the future as a result of the ownership change
         Game game = getGameMgr().getGame(beacon.getX(), beacon.getZ());
         if (oldowner != null) {
@@ -959,6 +1664,22 @@ public class Register extends BeaconzPluginDependent {
         game.getScorecard().refreshScores(team);
     }
 
+    /**
+     * @param game
+     * @return a copy of the links in this game
+     */
+    List<BeaconLink> getLinks(Game game) {
+        List<BeaconLink> links = beaconLinks.get(game);
+        return links == null ? new ArrayList<BeaconLink>() : new ArrayList<BeaconLink>(links);
+    }
+
+    /**
+     * @return the score recalculator for this register
+     */
+    public ScoreRecalculator getScoreRecalculator() {
+        return scoreRecalculator;
+    }
+
     /**
      * Gets all enemy links not of team
      * @param team
@@ -995,6 +1716,27 @@ public class Register extends BeaconzPluginDependent {
         addBeaconBaseBlock(location.getBlockX(), location.getBlockZ(), beacon);
     }
 
+    /**
+     * Marks again the chunks of all beacons and base blocks so that chunks that have been cleared are
+     * no longer marked
+     */
+    private void markBeaconChunks() {
+        beaconChunks.clear();
+        for (long key : beaconRegister.keys()) {
+            int x = CoordMap.keyX(key);
+            int z = CoordMap.keyZ(key);
+            // The pyramid blocks are looked up from the block diagonally under the beacon
+            for (int xx = x - 1; xx <= x + 1; xx++) {
+                for (int zz = z - 1; zz <= z + 1; zz++) {
+                    beaconChunks.mark(xx, zz);
+                }
+            }
+        }
+        for (long key : baseBlocks.keys()) {
+            beaconChunks.mark(CoordMap.keyX(key), CoordMap.keyZ(key));
+        }
+    }
+
     /**
      * Adds a block to the defense block register. Blocks around a beacon are automatically added.
      * @param x
@@ -1003,13 +1745,15 @@ public class Register extends BeaconzPluginDependent {
      */
     public void addBeaconBaseBlock(int x, int z, BeaconObj beacon) {
         Point2D point = new Point2D.Double(x,z);
-        baseBlocks.put(point, beacon);
+        baseBlocks.put(x, z, beacon);
+        beaconChunks.mark(x, z);
         Set<Point2D> points = baseBlocksInverse.get(beacon);
         if (points == null) {
             points = new HashSet<Point2D>();
         }
         points.add(point);
         baseBlocksInverse.put(beacon, points);
+        journal.baseBlockAdded(beacon, x, z);
     }
 
     /**
@@ -1018,7 +1762,17 @@ public class Register extends BeaconzPluginDependent {
      * @return beacon or null if it doesn't exist
      */
     public BeaconObj getBeaconAt(Point2D point) {
-        return baseBlocks.get(point);
+        return baseBlocks.get((int)point.getX(), (int)point.getY());
+    }
+
+    /**
+     * Get the beacon associated with the base or defense block at x,z
+     * @param x
+     * @param z
+     * @return beacon or null if it doesn't exist
+     */
+    public BeaconObj getBaseBlockBeacon(int x, int z) {
+        return baseBlocks.get(x, z);
     }
 
     /**
@@ -1030,9 +1784,7 @@ public class Register extends BeaconzPluginDependent {
         if (location == null) {
             return null;
         }
-        Point2D point = new Point2D.Double(location.getBlockX(),location.getBlockZ());
-        //getLogger().info("DEBUG: " + point);
-        return baseBlocks.get(point);
+        return baseBlocks.get(location.getBlockX(), location.getBlockZ());
     }
 
     /**
@@ -1050,15 +1802,34 @@ public class Register extends BeaconzPluginDependent {
      * @return
      */
     public boolean isAboveBeacon(Location loc) {
-        Point2D point = new Point2D.Double(loc.getBlockX(),loc.getBlockZ());
-        if (baseBlocks.containsKey(point)) {
-            BeaconObj beacon = baseBlocks.get(point);
+        return isAboveBeacon(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    /**
+     * Check if this block is above an owned beacon or above a defense
+     * @param block
+     * @return
+     */
+    public boolean isAboveBeacon(Block block) {
+        return isAboveBeacon(block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Check if this block coordinate is above an owned beacon or above a defense
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean isAboveBeacon(int x, int y, int z) {
+        BeaconObj beacon = baseBlocks.get(x, z);
+        if (beacon != null) {
             // Check ownership
             if (beacon.getOwnership() == null) {
                 return false;
             }
             // Check height - if block is lower than the beacon, then it's not a part of it
-            if (beacon.getY() > loc.getBlockY()) {
+            if (beacon.getY() > y) {
                 return false;
             }
             // It's a defense block
@@ -1085,10 +1856,144 @@ public class Register extends BeaconzPluginDependent {
 
 
 
+    /**
+     * Adds delta to a team's running total. Teams whose total drops to zero are removed.
+     * @param counter
+     * @param team - null (unowned) is ignored
+     * @param delta
+     */
+    private static void adjustCount(HashMap<Team, Integer> counter, Team team, int delta) {
+        if (team == null) {
+            return;
+        }
+        Integer current = counter.get(team);
+        int value = (current == null ? 0 : current) + delta;
+        if (value == 0) {
+            counter.remove(team);
+        } else {
+            counter.put(team, value);
+        }
+    }
+
+    /**
+     * Adds a new triangle to its team's triangle count and area
+     * @param triangle
+     */
+    private void countTriangle(TriangleField triangle) {
+        if (triangle.getOwner() == null) {
+            return;
+        }
+        adjustCount(teamTriangleCount, triangle.getOwner(), 1);
+        TriangleAreaEngine area = teamArea.get(triangle.getOwner());
+        if (area == null) {
+            area = new TriangleAreaEngine();
+            teamArea.put(triangle.getOwner(), area);
+        }
+        area.add(triangle);
+    }
+
+    /**
+     * Takes a removed triangle off its team's triangle count and area
+     * @param triangle
+     */
+    private void uncountTriangle(TriangleField triangle) {
+        if (triangle.getOwner() == null) {
+            return;
+        }
+        adjustCount(teamTriangleCount, triangle.getOwner(), -1);
+        TriangleAreaEngine area = teamArea.get(triangle.getOwner());
+        if (area != null) {
+            area.remove(triangle);
+            if (area.size() == 0) {
+                teamArea.remove(triangle.getOwner());
+            }
+        }
+    }
+
+    /**
+     * Sweeps each team's area again after the areas have been rebuilt one triangle at a time
+     */
+    private void recalculateAreas() {
+        for (TriangleAreaEngine area : teamArea.values()) {
+            area.recalculate();
+        }
+    }
+
+    private static int getCount(HashMap<Team, Integer> counter, Team team) {
+        Integer value = counter.get(team);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Recounts beacons, links, triangles and area per team by scanning the whole register and compares
+     * the result with the running totals. Any totals that are wrong are reset to the recount.
+     * @return list of mismatches found, empty if the running totals were all correct
+     */
+    public List<String> checkTeamCounts() {
+        HashMap<Team, Integer> beacons = new HashMap<Team, Integer>();
+        for (BeaconObj beacon : beaconRegister.values()) {
+            adjustCount(beacons, beacon.getOwnership(), 1);
+        }
+        HashMap<Team, Integer> links = new HashMap<Team, Integer>();
+        for (List<BeaconLink> gameLinks : beaconLinks.values()) {
+            for (BeaconLink link : gameLinks) {
+                adjustCount(links, link.getOwner(), 1);
+            }
+        }
+        HashMap<Team, Integer> triangles = new HashMap<Team, Integer>();
+        HashMap<Team, Set<TriangleField>> teamTriangles = new HashMap<Team, Set<TriangleField>>();
+        for (TriangleField triangle : triangleFields) {
+            if (triangle.getOwner() != null) {
+                adjustCount(triangles, triangle.getOwner(), 1);
+                if (!teamTriangles.containsKey(triangle.getOwner())) {
+                    teamTriangles.put(triangle.getOwner(), new HashSet<TriangleField>());
+                }
+                teamTriangles.get(triangle.getOwner()).add(triangle);
+            }
+        }
+        HashMap<Team, Integer> areas = new HashMap<Team, Integer>();
+        for (Entry<Team, Set<TriangleField>> entry : teamTriangles.entrySet()) {
+            adjustCount(areas, entry.getKey(), TriangleAreaEngine.toBlocks(TriangleAreaEngine.getUnionArea(entry.getValue())));
+        }
+        HashMap<Team, Integer> runningAreas = new HashMap<Team, Integer>();
+        for (Team team : teamArea.keySet()) {
+            adjustCount(runningAreas, team, getTeamArea(team));
+        }
+        List<String> mismatches = new ArrayList<String>();
+        compareCounts("beacons", teamBeaconCount, beacons, mismatches);
+        compareCounts("links", teamLinkCount, links, mismatches);
+        compareCounts("triangles", teamTriangleCount, triangles, mismatches);
+        compareCounts("area", runningAreas, areas, mismatches);
+        if (!mismatches.isEmpty()) {
+            teamBeaconCount = beacons;
+            teamLinkCount = links;
+            teamTriangleCount.clear();
+            teamArea.clear();
+            for (TriangleField triangle : triangleFields) {
+                countTriangle(triangle);
+            }
+            recalculateAreas();
+        }
+        return mismatches;
+    }
+
+    private static void compareCounts(String type, HashMap<Team, Integer> running, HashMap<Team, Integer> recount, List<String> mismatches) {
+        Set<Team> teams = new HashSet<Team>(running.keySet());
+        teams.addAll(recount.keySet());
+        for (Team team : teams) {
+            int expected = getCount(recount, team);
+            int actual = getCount(running, team);
+            if (expected != actual) {
+                mismatches.add(team.getName() + " " + type + ": counted " + actual + ", recount " + expected);
+            }
+        }
+    }
+
     /**
      * Recalculates the score for game. Used when a beacon is lost because that could enable the opposition to
      * then make a new triangle that they could not before. Also used when loading plugin.
      * Note that all links should already be in place.
+     * Runs on the calling thread. Use getScoreRecalculator().requestRecalculation(game) during play.
      */
     public void recalculateScore(Game game) {
         //getLogger().info("DEBUG: recalc score for " + game.getName());
@@ -0,0 +1,377 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.bukkit.block.Block;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.Team;
+
+/**
+ * Append-only journal of changes made to the register since the last snapshot.
+ * <p>
+ * Changes are encoded on the main thread into a memory buffer using the same varint records as the
+ * snapshot. A background task appends the buffer to the journal file about once a second and syncs it
+ * to disk, so gameplay never waits on a full save. Each journal starts with the generation of the
+ * snapshot it follows. Once the journal grows past COMPACT_SIZE the register is saved as a new
+ * snapshot, which starts a fresh journal.
+ *
+ */
+public class RegisterJournal extends BeaconzPluginDependent {
+
+    public static final byte[] MAGIC = {'B', 'Z', 'J'};
+
+    /**
+     * Record tags. Numbered after the snapshot tags.
+     */
+    public static final int BEACON_ADDED = 10;
+    public static final int OWNER_CHANGED = 11;
+    public static final int BEACON_LOST = 12;
+    public static final int LINK_ADDED = 13;
+    public static final int BASE_BLOCK_ADDED = 14;
+    public static final int DEFENSE_ADDED = 15;
+    public static final int DEFENSE_REMOVED = 16;
+    public static final int MAP_ADDED = 17;
+    public static final int MAP_REMOVED = 18;
+    public static final int LINK_REMOVED = 19;
+
+    private static final long FLUSH_TICKS = 20L;
+    private static final long COMPACT_SIZE = 1024L * 1024L;
+
+    private final File file;
+    /**
+     * Guards buffer and writer. Never held while doing file IO.
+     */
+    private final Object bufferLock = new Object();
+    /**
+     * Guards the journal file. Taken before bufferLock when both are needed.
+     */
+    private final Object fileLock = new Object();
+    private ByteArrayOutputStream buffer;
+    private RegisterSnapshotWriter writer;
+    private long fileSize;
+    private boolean paused;
+    private boolean compactionRequested;
+    private BukkitTask flusher;
+
+    public RegisterJournal(Beaconz beaconzPlugin, File file) {
+        super(beaconzPlugin);
+        this.file = file;
+    }
+
+    /**
+     * @return the journal file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Throws away the current journal and starts a new one that follows the snapshot with this generation.
+     * Called after every snapshot save.
+     * @param generation
+     */
+    public void start(long generation) {
+        synchronized (fileLock) {
+            synchronized (bufferLock) {
+                try {
+                    buffer = new ByteArrayOutputStream();
+                    writer = new RegisterSnapshotWriter(buffer, MAGIC);
+                    writer.writeTag(RegisterSnapshotWriter.GENERATION);
+                    writer.writeVarLong(generation);
+                } catch (IOException e) {
+                    // Cannot happen writing to memory
+                    e.printStackTrace();
+                }
+                if (file.exists() && !file.delete()) {
+                    getLogger().severe("Could not delete old journal " + file.getName());
+                }
+                fileSize = 0;
+                compactionRequested = false;
+            }
+        }
+        if (flusher == null) {
+            flusher = new BukkitRunnable() {
+
+                @Override
+                public void run() {
+                    flush();
+                }}.runTaskTimerAsynchronously(getBeaconzPlugin(), FLUSH_TICKS, FLUSH_TICKS);
+        }
+    }
+
+    /**
+     * Stops recording. Used while the register is being loaded or replayed.
+     * @param paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Appends anything buffered to the journal file and syncs it to disk. Safe to call from any thread.
+     */
+    public void flush() {
+        synchronized (fileLock) {
+            byte[] bytes;
+            synchronized (bufferLock) {
+                if (writer == null) {
+                    return;
+                }
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                bytes = buffer.toByteArray();
+                buffer.reset();
+            }
+            if (bytes.length == 0) {
+                return;
+            }
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(file, true);
+                out.write(bytes);
+                out.getFD().sync();
+                fileSize += bytes.length;
+            } catch (IOException e) {
+                getLogger().severe("Problem writing the register journal!");
+                e.printStackTrace();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+            if (fileSize > COMPACT_SIZE && !compactionRequested) {
+                compactionRequested = true;
+                requestCompaction();
+            }
+        }
+    }
+
+    /**
+     * Saves a full snapshot on the main thread, which starts a new journal
+     */
+    public void requestCompaction() {
+        if (!getBeaconzPlugin().isEnabled()) {
+            return;
+        }
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                getRegister().saveRegister();
+            }}.runTask(getBeaconzPlugin());
+    }
+
+    /**
+     * Flushes the journal and stops the background writer
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.cancel();
+            flusher = null;
+        }
+        flush();
+    }
+
+    public void beaconAdded(Team owner, int x, int y, int z) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(BEACON_ADDED)) {
+                    writer.writeString(owner == null ? null : owner.getName());
+                    writer.writeSignedVarInt(x);
+                    writer.writeVarInt(y);
+                    writer.writeSignedVarInt(z);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void ownerChanged(BeaconObj beacon, Team owner) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(OWNER_CHANGED)) {
+                    writeBeacon(beacon);
+                    writer.writeString(owner == null ? null : owner.getName());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Beacon has lost its owner and all its links
+     * @param beacon
+     */
+    public void beaconLost(BeaconObj beacon) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(BEACON_LOST)) {
+                    writeBeacon(beacon);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void linkAdded(BeaconLink link) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(LINK_ADDED)) {
+                    writeBeacon(link.getBeacon1());
+                    writer.writeSignedVarInt(link.getBeacon2().getX() - link.getBeacon1().getX());
+                    writer.writeSignedVarInt(link.getBeacon2().getZ() - link.getBeacon1().getZ());
+                    writer.writeVarLong(link.getTimeStamp());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void baseBlockAdded(BeaconObj beacon, int x, int z) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(BASE_BLOCK_ADDED)) {
+                    writeBeacon(beacon);
+                    writer.writeSignedVarInt(x - beacon.getX());
+                    writer.writeSignedVarInt(z - beacon.getZ());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void defenseAdded(BeaconObj beacon, Block block, int level, UUID placer) {
+        defenseAdded(beacon, block, level, placer == null ? null : placer.toString());
+    }
+
+    public void defenseAdded(BeaconObj beacon, Block block, int level, String placer) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(DEFENSE_ADDED)) {
+                    writeBeacon(beacon);
+                    writeBlock(block);
+                    writer.writeSignedVarInt(level);
+                    writer.writeString(placer);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void defenseRemoved(BeaconObj beacon, Block block) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(DEFENSE_REMOVED)) {
+                    writeBeacon(beacon);
+                    writeBlock(block);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void linkRemoved(BeaconObj beacon1, BeaconObj beacon2) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(LINK_REMOVED)) {
+                    writeBeacon(beacon1);
+                    writer.writeSignedVarInt(beacon2.getX() - beacon1.getX());
+                    writer.writeSignedVarInt(beacon2.getZ() - beacon1.getZ());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void mapAdded(short id, BeaconObj beacon) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(MAP_ADDED)) {
+                    writer.writeVarInt(id & 0xFFFF);
+                    writeBeacon(beacon);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void mapRemoved(short id) {
+        synchronized (bufferLock) {
+            try {
+                if (begin(MAP_REMOVED)) {
+                    writer.writeVarInt(id & 0xFFFF);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the tag if the journal is recording
+     * @param tag
+     * @return false if nothing should be recorded
+     * @throws IOException
+     */
+    private boolean begin(int tag) throws IOException {
+        if (paused || writer == null) {
+            return false;
+        }
+        writer.writeTag(tag);
+        return true;
+    }
+
+    private void writeBeacon(BeaconObj beacon) throws IOException {
+        writer.writeSignedVarInt(beacon.getX());
+        writer.writeSignedVarInt(beacon.getZ());
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        writer.writeString(block.getWorld().getName());
+        writer.writeSignedVarInt(block.getX());
+        writer.writeVarInt(block.getY());
+        writer.writeSignedVarInt(block.getZ());
+    }
+}
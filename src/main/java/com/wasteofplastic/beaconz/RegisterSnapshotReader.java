@@ -0,0 +1,143 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the binary snapshot format written by {@link RegisterSnapshotWriter}. Records are read one at a
+ * time so the whole file never has to be held in memory.
+ *
+ */
+public class RegisterSnapshotReader implements Closeable {
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<String>();
+    private final int version;
+
+    /**
+     * Opens the stream and checks the header
+     * @param in
+     * @throws IOException if the stream is not a snapshot or is a newer version than this plugin knows
+     */
+    public RegisterSnapshotReader(InputStream in) throws IOException {
+        this(in, RegisterSnapshotWriter.MAGIC);
+    }
+
+    /**
+     * Opens the stream and checks the header
+     * @param in
+     * @param expectedMagic - file type marker the stream must start with
+     * @throws IOException if the stream is the wrong type or is a newer version than this plugin knows
+     */
+    public RegisterSnapshotReader(InputStream in, byte[] expectedMagic) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+        byte[] magic = new byte[expectedMagic.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, expectedMagic)) {
+            throw new IOException("Not a beaconz snapshot");
+        }
+        version = this.in.readUnsignedByte();
+        if (version > RegisterSnapshotWriter.VERSION) {
+            throw new IOException("Snapshot version " + version + " is newer than this plugin supports");
+        }
+    }
+
+    /**
+     * @return format version of the snapshot
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads the tag that starts the next record
+     * @return one of the RegisterSnapshotWriter tags
+     * @throws IOException
+     */
+    public int readTag() throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    /**
+     * Reads an interned string
+     * @return string, which may be null
+     * @throws IOException
+     */
+    public String readString() throws IOException {
+        int token = readVarInt();
+        if (token == 0) {
+            return null;
+        }
+        if (token == 1) {
+            String value = in.readUTF();
+            strings.add(value);
+            return value;
+        }
+        if (token - 2 >= strings.size()) {
+            throw new IOException("Unknown string index " + (token - 2));
+        }
+        return strings.get(token - 2);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * Streams the register out in the compact binary snapshot format read by {@link RegisterSnapshotReader}.
+ * <p>
+ * The file starts with MAGIC and the format VERSION, followed by records that each start with a tag byte
+ * and finish with an END tag. Whole numbers are written as varints, signed ones zig-zag encoded so that
+ * small negative coordinates stay small. Strings such as game and team names are interned as they are
+ * written: the first time a string is seen it is written out in full, after that only its index.
+ *
+ */
+public class RegisterSnapshotWriter implements Closeable {
+
+    public static final byte[] MAGIC = {'B', 'Z', 'S'};
+    /**
+     * 1 - first version
+     * 2 - adds the GENERATION record
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Record tags
+     */
+    public static final int END = 0;
+    public static final int BEACON = 1;
+    public static final int LINK = 2;
+    /**
+     * Save counter, used to match a journal to the snapshot it follows
+     */
+    public static final int GENERATION = 3;
+
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+    public RegisterSnapshotWriter(OutputStream out) throws IOException {
+        this(out, MAGIC);
+    }
+
+    /**
+     * @param out
+     * @param magic - file type marker written before the version
+     * @throws IOException
+     */
+    public RegisterSnapshotWriter(OutputStream out, byte[] magic) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+        this.out.write(magic);
+        this.out.writeByte(VERSION);
+    }
+
+    /**
+     * Starts a record
+     * @param tag
+     * @throws IOException
+     */
+    public void writeTag(int tag) throws IOException {
+        out.writeByte(tag);
+    }
+
+    /**
+     * Writes a non-negative int in 1 to 5 bytes
+     * @param value
+     * @throws IOException
+     */
+    public void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Writes an int that may be negative, zig-zag encoded
+     * @param value
+     * @throws IOException
+     */
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes a non-negative long in 1 to 10 bytes
+     * @param value
+     * @throws IOException
+     */
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int)value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * Writes an interned string. Null is allowed.
+     * @param value
+     * @throws IOException
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarInt(index + 2);
+        } else {
+            writeVarInt(1);
+            out.writeUTF(value);
+            strings.put(value, strings.size());
+        }
+    }
+
+    /**
+     * Pushes any buffered bytes to the underlying stream
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the END tag and flushes
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        writeTag(END);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scoreboard.Team;
+
+/**
+ * Recalculates the triangles for a game off the main thread.
+ * <p>
+ * A request takes a snapshot of the game's link graph on the main thread, looks for the triangles
+ * those links make on an async task and then adds them to the register back on the main thread in
+ * one go. Requests for a game that is already waiting or being worked on are merged, so a burst of
+ * captures only causes one more recalculation.
+ *
+ */
+public class ScoreRecalculator extends BeaconzPluginDependent {
+
+    /**
+     * Games waiting for a recalculation to start
+     */
+    private final Set<Game> queued = new HashSet<Game>();
+    /**
+     * Games with a recalculation on the worker thread
+     */
+    private final Set<Game> running = new HashSet<Game>();
+
+    public ScoreRecalculator(Beaconz beaconzPlugin) {
+        super(beaconzPlugin);
+    }
+
+    /**
+     * Asks for the triangles of a game to be worked out again. Must be called on the main thread.
+     * @param game
+     */
+    public void requestRecalculation(Game game) {
+        if (game == null || !queued.add(game)) {
+            // Already waiting
+            return;
+        }
+        if (!running.contains(game)) {
+            scheduleStart(game);
+        }
+        // Otherwise it will be started when the running one finishes
+    }
+
+    /**
+     * @param game
+     * @return true if a recalculation is waiting or running for this game
+     */
+    public boolean isPending(Game game) {
+        return queued.contains(game) || running.contains(game);
+    }
+
+    private void scheduleStart(final Game game) {
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                start(game);
+            }}.runTask(getBeaconzPlugin());
+    }
+
+    /**
+     * Takes the snapshot and hands it to the worker. Main thread.
+     * @param game
+     */
+    private void start(final Game game) {
+        queued.remove(game);
+        if (!getGameMgr().getGames().containsValue(game)) {
+            // Game was deleted in the meantime
+            return;
+        }
+        running.add(game);
+        final Snapshot snapshot = new Snapshot(game);
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                final List<TriangleField> found = snapshot.findNewTriangles();
+                if (!getBeaconzPlugin().isEnabled()) {
+                    return;
+                }
+                new BukkitRunnable() {
+
+                    @Override
+                    public void run() {
+                        apply(game, found);
+                    }}.runTask(getBeaconzPlugin());
+            }}.runTaskAsynchronously(getBeaconzPlugin());
+    }
+
+    /**
+     * Adds the triangles found by the worker and refreshes the scores once. Main thread.
+     * The register may have changed since the snapshot, so every triangle is checked again as it is added.
+     * @param game
+     * @param found
+     */
+    private void apply(Game game, List<TriangleField> found) {
+        running.remove(game);
+        if (getGameMgr().getGames().containsValue(game)) {
+            Set<Team> changed = new HashSet<Team>();
+            for (TriangleField triangle : found) {
+                try {
+                    if (getRegister().addTriangle(triangle.a, triangle.b, triangle.c, triangle.getOwner(), false)) {
+                        changed.add(triangle.getOwner());
+                    }
+                } catch (IllegalArgumentException e) {
+                    // A beacon changed hands since the snapshot was taken - the next recalculation will sort it out
+                }
+            }
+            for (Team team : changed) {
+                game.getScorecard().refreshScores(team);
+            }
+        }
+        if (queued.contains(game)) {
+            scheduleStart(game);
+        }
+    }
+
+    /**
+     * Copy of everything the worker needs to know about a game. Teams are replaced by numbers so that
+     * the worker never touches Bukkit objects.
+     */
+    private class Snapshot {
+        private final List<Long> linkStarts = new ArrayList<Long>();
+        private final List<Long> linkEnds = new ArrayList<Long>();
+        private final List<Integer> linkOwners = new ArrayList<Integer>();
+        private final List<Line2D> linkLines = new ArrayList<Line2D>();
+        private final HashMap<Long, long[]> neighbours = new HashMap<Long, long[]>();
+        private final HashMap<Long, Integer> beaconOwners = new HashMap<Long, Integer>();
+        private final List<TriangleField> triangles = new ArrayList<TriangleField>();
+        private final List<Integer> triangleOwners = new ArrayList<Integer>();
+        private final List<Team> teams = new ArrayList<Team>();
+
+        Snapshot(Game game) {
+            List<BeaconLink> links = getRegister().getLinks(game);
+            // Same order as the links were made
+            Collections.sort(links);
+            for (BeaconLink link : links) {
+                linkStarts.add(addBeacon(link.getBeacon1(), true));
+                linkEnds.add(addBeacon(link.getBeacon2(), true));
+                linkOwners.add(teamId(link.getOwner()));
+                linkLines.add(new Line2D.Double(link.getLine().getP1(), link.getLine().getP2()));
+            }
+            for (TriangleField triangle : getRegister().getTriangleFields()) {
+                if (game.getRegion().containsPoint(triangle.a)) {
+                    // Own copy so the worker never shares a Polygon with the main thread
+                    triangles.add(copy(triangle.a, triangle.b, triangle.c, triangle.getOwner()));
+                    triangleOwners.add(teamId(triangle.getOwner()));
+                }
+            }
+        }
+
+        /**
+         * Records the beacon's owner and links
+         * @param beacon
+         * @param withNeighbours - also record the beacons it links to
+         * @return beacon key
+         */
+        private long addBeacon(BeaconObj beacon, boolean withNeighbours) {
+            long key = CoordMap.key(beacon.getX(), beacon.getZ());
+            if (!beaconOwners.containsKey(key)) {
+                beaconOwners.put(key, teamId(beacon.getOwnership()));
+                long[] keys = new long[beacon.getLinks().size()];
+                int i = 0;
+                for (BeaconObj linked : beacon.getLinks()) {
+                    keys[i++] = CoordMap.key(linked.getX(), linked.getZ());
+                }
+                neighbours.put(key, keys);
+            }
+            if (withNeighbours) {
+                for (BeaconObj linked : beacon.getLinks()) {
+                    addBeacon(linked, false);
+                }
+            }
+            return key;
+        }
+
+        /**
+         * @param team
+         * @return number standing for team, -1 for unowned
+         */
+        private int teamId(Team team) {
+            if (team == null) {
+                return -1;
+            }
+            int id = teams.indexOf(team);
+            if (id < 0) {
+                teams.add(team);
+                id = teams.size() - 1;
+            }
+            return id;
+        }
+
+        /**
+         * Walks link to link to link like Register.recalculateScore and keeps the triangles that
+         * Register.addTriangle would accept. Worker thread.
+         * @return triangles to add, in the order they should be added
+         */
+        List<TriangleField> findNewTriangles() {
+            List<TriangleField> result = new ArrayList<TriangleField>();
+            for (int l = 0; l < linkStarts.size(); l++) {
+                int owner = linkOwners.get(l);
+                if (owner < 0) {
+                    continue;
+                }
+                long first = linkStarts.get(l);
+                long third = linkEnds.get(l);
+                for (long second : neighboursOf(first)) {
+                    for (long next : neighboursOf(second)) {
+                        if (next == third && isOwnedBy(first, owner) && isOwnedBy(second, owner) && isOwnedBy(third, owner)) {
+                            TriangleField triangle = copy(point(first), point(second), point(third), teams.get(owner));
+                            if (isAllowed(triangle, owner)) {
+                                triangles.add(triangle);
+                                triangleOwners.add(owner);
+                                result.add(triangle);
+                            }
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Same checks as Register.addTriangle
+         */
+        private boolean isAllowed(TriangleField triangle, int owner) {
+            for (int i = 0; i < triangles.size(); i++) {
+                TriangleField other = triangles.get(i);
+                if (triangleOwners.get(i) != owner && (other.contains(triangle) || triangle.contains(other))) {
+                    return false;
+                }
+                if (triangle.equals(other)) {
+                    return false;
+                }
+            }
+            for (int l = 0; l < linkLines.size(); l++) {
+                if (linkOwners.get(l) != owner) {
+                    for (Line2D side : triangle.getSides()) {
+                        if (side.intersectsLine(linkLines.get(l))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        private long[] neighboursOf(long key) {
+            long[] result = neighbours.get(key);
+            return result == null ? new long[0] : result;
+        }
+
+        private boolean isOwnedBy(long key, int owner) {
+            Integer id = beaconOwners.get(key);
+            return id != null && id == owner;
+        }
+    }
+
+    private static Point2D point(long key) {
+        return new Point2D.Double(CoordMap.keyX(key), CoordMap.keyZ(key));
+    }
+
+    private static TriangleField copy(Point2D a, Point2D b, Point2D c, Team owner) {
+        return new TriangleField(new Point2D.Double(a.getX(), a.getY()), new Point2D.Double(b.getX(), b.getY()),
+                new Point2D.Double(c.getX(), c.getY()), owner);
+    }
+}
@@ -259,7 +259,7 @@ public class Scorecard extends BeaconzPluginDependent{
                     break;
                 }
                 case ("beacons"): {
-                    value = getRegister().getTeamBeacons(team).size();
+                    value = getRegister().getTeamBeaconCount(team);
                     break;
                 }
                 case ("links"): {
@@ -357,6 +357,10 @@ public class Scorecard extends BeaconzPluginDependent{
                 }
             }
         }
+        // The game manager is not ready yet while it loads the games - it finds those teams itself
+        if (getGameMgr() != null) {
+            getGameMgr().addTeam(team, game);
+        }
         //Refresh the scores, save the game and return
         refreshScores(team);
         if (save) game.save();
@@ -256,6 +256,21 @@ public class Settings {
      * Use dynmap or not
      */
     public static boolean useDynmap;
+
+    /**
+     * Memory in MB that finished map tiles can use
+     */
+    public static int mapTileCacheSize;
+
+    /**
+     * Memory in MB that each game's territory raster can use
+     */
+    public static int mapRasterCacheSize;
+
+    /**
+     * Milliseconds per tick spent generating new game regions. 0 leaves chunks to be generated when first loaded.
+     */
+    public static int pregenBudget;
     
     /**
      * Allow eggs of any kind to be used in the lobby
@@ -22,41 +22,197 @@
 
 package com.wasteofplastic.beaconz;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
 import org.bukkit.scheduler.BukkitRunnable;
 
 /**
  * Tiny database for a hashmap that is not used very often, but could be very big so I
- * don't want it in memory. 
+ * don't want it in memory.
+ * <p>
+ * Names are kept in two files. name-uuid.idx holds fixed size records sorted by name, so a
+ * name is found with a binary search without reading the whole file. New names are appended
+ * to name-uuid.log and kept in memory until there are enough of them to be merged into the
+ * index. Recently looked up names are cached.
  * @author tastybento
  *
  */
 public class TinyDB {
-    private Beaconz plugin;
-    private ConcurrentHashMap<String,UUID> treeMap;
-    private boolean savingFlag;
+    private static final byte[] MAGIC = {'B', 'Z', 'N'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 4;
+    /**
+     * Longest name that fits in an index record, in bytes. Minecraft names are 16 characters at most.
+     */
+    private static final int NAME_SIZE = 16;
+    private static final int RECORD_SIZE = NAME_SIZE + 16;
+    /**
+     * Number of new names that triggers a merge into the index
+     */
+    private static final int MERGE_SIZE = 1000;
+    private static final int CACHE_SIZE = 1000;
+
+    private final Beaconz plugin;
+    private final Logger logger;
+    private final File indexFile;
+    private final File logFile;
+    /**
+     * Open index file, null if there is none yet
+     */
+    private RandomAccessFile index;
+    private int indexCount;
+    /**
+     * Names added since the last merge. These are in the log file or about to be written to it.
+     */
+    private final HashMap<String,UUID> recent = new HashMap<String,UUID>();
+    /**
+     * Names waiting to be appended to the log file
+     */
+    private final Map<String,UUID> toAppend = new LinkedHashMap<String,UUID>();
+    private final LinkedHashMap<String,UUID> cache = new LinkedHashMap<String,UUID>(16, 0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, UUID> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    /**
+     * Held while writing files so only one save runs at a time
+     */
+    private final Object fileLock = new Object();
+    private final AtomicBoolean savingFlag = new AtomicBoolean();
+
     /**
      * Opens the database
      * @param plugin
      */
-    public TinyDB(Beaconz plugin) {       
+    public TinyDB(Beaconz plugin) {
+        this(plugin, plugin.getDataFolder(), plugin.getLogger());
+    }
+
+    /**
+     * Opens the database in a folder
+     * @param plugin - used to run saves in the background, may be null if only saveDB is used
+     * @param folder
+     * @param logger
+     */
+    TinyDB(Beaconz plugin, File folder, Logger logger) {
         this.plugin = plugin;
-        this.treeMap = new ConcurrentHashMap<String,UUID>();
-        File database = new File(plugin.getDataFolder(), "name-uuid.txt");
-        if (!database.exists()) {
-            try {
-                database.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
+        this.logger = logger;
+        this.indexFile = new File(folder, "name-uuid.idx");
+        this.logFile = new File(folder, "name-uuid.log");
+        try {
+            openIndex();
+        } catch (IOException e) {
+            logger.severe("Problem opening name database! Names will be added again as players join.");
+            e.printStackTrace();
+        }
+        readLog();
+        File oldDB = new File(folder, "name-uuid.txt");
+        if (oldDB.exists()) {
+            convertOldDB(oldDB);
+        }
+    }
+
+    private void openIndex() throws IOException {
+        index = null;
+        indexCount = 0;
+        if (!indexFile.exists()) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        byte[] magic = new byte[MAGIC.length];
+        raf.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || raf.readUnsignedByte() > VERSION) {
+            raf.close();
+            throw new IOException("Not a name index");
+        }
+        indexCount = raf.readInt();
+        index = raf;
+    }
+
+    /**
+     * Loads the names added since the last merge
+     */
+    private void readLog() {
+        if (!logFile.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(logFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    try {
+                        recent.put(line.substring(0, space), UUID.fromString(line.substring(space + 1)));
+                    } catch (IllegalArgumentException e) {
+                        // Line cut short by a crash
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.severe("Problem reading name database log!");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves the names in the old text database into the index
+     * @param oldDB
+     */
+    private void convertOldDB(File oldDB) {
+        logger.info("Converting name-uuid.txt");
+        try (BufferedReader br = new BufferedReader(new FileReader(oldDB))) {
+            // Names and UUID's are stored in line pairs, newest first
+            String line = br.readLine();
+            String uuid = br.readLine();
+            while (line != null && uuid != null) {
+                String name = line.toLowerCase();
+                if (!recent.containsKey(name)) {
+                    try {
+                        recent.put(name, UUID.fromString(uuid));
+                    } catch (IllegalArgumentException e) {
+                        // Skip it
+                    }
+                }
+                line = br.readLine();
+                uuid = br.readLine();
+            }
+        } catch (IOException e) {
+            logger.severe("Problem reading name-uuid.txt!");
+            e.printStackTrace();
+            return;
+        }
+        synchronized (fileLock) {
+            if (merge()) {
+                oldDB.renameTo(new File(oldDB.getParentFile(), "name-uuid.txt.converted"));
             }
         }
     }
@@ -65,64 +221,186 @@ public class TinyDB {
      * Async Saving of the DB
      */
     public void asyncSaveDB() {
-        if (!savingFlag) {
+        if (savingFlag.compareAndSet(false, true)) {
             new BukkitRunnable() {
 
                 @Override
                 public void run() {
-                    saveDB();                
+                    try {
+                        saveDB();
+                    } finally {
+                        savingFlag.set(false);
+                    }
+                    // Pick up names given after this save took its batch
+                    boolean more;
+                    synchronized (TinyDB.this) {
+                        more = !toAppend.isEmpty();
+                    }
+                    if (more && plugin.isEnabled()) {
+                        asyncSaveDB();
+                    }
                 }}.runTaskAsynchronously(plugin);
         }
     }
 
     /**
-     * Saves the DB
+     * Saves the DB. Appends new names to the log and merges them into the index once there are enough.
      */
     public void saveDB() {
-        savingFlag = true;
-        try {
-            File oldDB = new File(plugin.getDataFolder(), "name-uuid.txt");
-            File newDB = new File(plugin.getDataFolder(), "name-uuid-new.txt");
-            //File backup = new File(plugin.getDataFolder(), "name-uuid.bak");
-            try(PrintWriter out = new PrintWriter(newDB)) {
-                // Write the newest entries at the top
-                for (Entry<String, UUID> entry: treeMap.entrySet()) {
-                    out.println(entry.getKey());
-                    out.println(entry.getValue().toString());
-                }
-                if (oldDB.exists()) {
-                    // Go through the old file and remove any                     
-                    try(BufferedReader br = new BufferedReader(new FileReader(oldDB))){
-                        // Go through the old file and read it line by line and write to the new file
-                        String line = br.readLine();
-                        String uuid = br.readLine();
-                        while (line != null) {
-                            if (!treeMap.containsKey(line)) {                  
-                                out.println(line);
-                                out.println(uuid);
-                            }                    
-                            // Read next lines
-                            line = br.readLine();
-                            uuid = br.readLine();
-                        } 
-                        br.close();
+        synchronized (fileLock) {
+            Map<String,UUID> batch;
+            int recentCount;
+            synchronized (this) {
+                batch = new LinkedHashMap<String,UUID>(toAppend);
+                toAppend.clear();
+                recentCount = recent.size();
+            }
+            if (!batch.isEmpty()) {
+                try (PrintWriter out = new PrintWriter(new FileWriter(logFile, true))) {
+                    for (Entry<String, UUID> entry : batch.entrySet()) {
+                        out.println(entry.getKey() + " " + entry.getValue());
+                    }
+                    if (out.checkError()) {
+                        throw new IOException("Write failed");
+                    }
+                } catch (IOException e) {
+                    logger.severe("Problem saving name database!");
+                    e.printStackTrace();
+                    synchronized (this) {
+                        // Try again next time, unless the name has been given again since
+                        for (Entry<String, UUID> entry : batch.entrySet()) {
+                            if (!toAppend.containsKey(entry.getKey())) {
+                                toAppend.put(entry.getKey(), entry.getValue());
+                            }
+                        }
                     }
-                    
-                }                
-                out.close();      
+                    return;
+                }
+            }
+            if (recentCount >= MERGE_SIZE) {
+                merge();
+            }
+        }
+    }
+
+    /**
+     * Writes a new index holding the old index and the recent names. Must hold fileLock.
+     * @return true if the merge worked
+     */
+    private boolean merge() {
+        Map<String,UUID> merged = new HashMap<String,UUID>();
+        synchronized (this) {
+            merged.putAll(recent);
+        }
+        TreeMap<byte[],UUID> records = new TreeMap<byte[],UUID>(new Comparator<byte[]>() {
+
+            @Override
+            public int compare(byte[] o1, byte[] o2) {
+                return compareNames(o1, o2);
+            }});
+        for (Entry<String, UUID> entry : new HashMap<String,UUID>(merged).entrySet()) {
+            byte[] name = nameBytes(entry.getKey());
+            if (name == null) {
+                // Too long for an index record so it stays in the log
+                merged.remove(entry.getKey());
+            } else {
+                records.put(name, entry.getValue());
+            }
+        }
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            // Count is filled in at the end
+            out.writeInt(0);
+            DataInputStream in = null;
+            if (indexFile.exists()) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                in.skipBytes(HEADER_SIZE);
             }
-            
-            // Move files around
             try {
-                Files.move(newDB.toPath(), oldDB.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException ex) {
-                plugin.getLogger().severe("Problem saving name database! Could not rename files!");                
-            }                         
+                byte[] oldName = in == null ? null : readName(in);
+                for (Entry<byte[], UUID> entry : records.entrySet()) {
+                    // Copy older names that come first
+                    while (oldName != null && compareNames(oldName, entry.getKey()) < 0) {
+                        out.write(oldName);
+                        out.writeLong(in.readLong());
+                        out.writeLong(in.readLong());
+                        count++;
+                        oldName = readName(in);
+                    }
+                    if (oldName != null && compareNames(oldName, entry.getKey()) == 0) {
+                        // Replaced by the newer entry
+                        in.readLong();
+                        in.readLong();
+                        oldName = readName(in);
+                    }
+                    out.write(entry.getKey());
+                    out.writeLong(entry.getValue().getMostSignificantBits());
+                    out.writeLong(entry.getValue().getLeastSignificantBits());
+                    count++;
+                }
+                while (oldName != null) {
+                    out.write(oldName);
+                    out.writeLong(in.readLong());
+                    out.writeLong(in.readLong());
+                    count++;
+                    oldName = readName(in);
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            logger.severe("Problem saving name database index!");
+            e.printStackTrace();
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            raf.seek(MAGIC.length + 1);
+            raf.writeInt(count);
         } catch (IOException e) {
-            plugin.getLogger().severe("Problem saving name database!");
+            logger.severe("Problem saving name database index!");
             e.printStackTrace();
+            return false;
+        }
+        synchronized (this) {
+            try {
+                if (index != null) {
+                    index.close();
+                }
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.severe("Problem saving name database! Could not rename files!");
+                e.printStackTrace();
+            }
+            try {
+                openIndex();
+            } catch (IOException e) {
+                logger.severe("Problem opening name database!");
+                e.printStackTrace();
+            }
+            // Names given while merging are still recent
+            for (Entry<String, UUID> entry : merged.entrySet()) {
+                if (entry.getValue().equals(recent.get(entry.getKey()))) {
+                    recent.remove(entry.getKey());
+                }
+            }
+            // Start a new log with whatever is left
+            try (PrintWriter out = new PrintWriter(logFile)) {
+                for (Entry<String, UUID> entry : recent.entrySet()) {
+                    if (!toAppend.containsKey(entry.getKey())) {
+                        out.println(entry.getKey() + " " + entry.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                logger.severe("Problem saving name database log!");
+                e.printStackTrace();
+            }
         }
-        savingFlag = false;
+        return true;
     }
 
     /**
@@ -131,8 +409,19 @@ public class TinyDB {
      * @param playerUUID
      */
     public void savePlayerName(String playerName, UUID playerUUID) {
-        treeMap.put(playerName.toLowerCase(), playerUUID);
-        // This will be saved when everything shuts down
+        String name = playerName.toLowerCase();
+        synchronized (this) {
+            if (playerUUID.equals(cache.get(name)) || playerUUID.equals(recent.get(name))) {
+                // Already known
+                return;
+            }
+            recent.put(name, playerUUID);
+            toAppend.put(name, playerUUID);
+            cache.put(name, playerUUID);
+        }
+        if (plugin != null) {
+            asyncSaveDB();
+        }
     }
 
     /**
@@ -140,32 +429,112 @@ public class TinyDB {
      * @param playerName
      * @return UUID of player, or null if unknown
      */
-    public UUID getPlayerUUID(String playerName) {
+    public synchronized UUID getPlayerUUID(String playerName) {
+        String name = playerName.toLowerCase();
         // Try cache
-        if (treeMap.containsKey(playerName.toLowerCase())) {
-            //plugin.getLogger().info("DEBUG: found in UUID cache");
-            return treeMap.get(playerName.toLowerCase());
+        UUID result = cache.get(name);
+        if (result != null) {
+            return result;
         }
-        // Names and UUID's are stored in line pairs.
-        try(BufferedReader br = new BufferedReader(new FileReader(new File(plugin.getDataFolder(), "name-uuid.txt")))) {
-            String line = br.readLine();
-            String uuid = br.readLine();
-            while (line != null && !line.equalsIgnoreCase(playerName)) {                
-                line = br.readLine();
-                uuid = br.readLine();
-            }
-            if (line == null) {
-                return null;
+        result = recent.get(name);
+        if (result == null) {
+            try {
+                result = search(name);
+            } catch (IOException e) {
+                logger.severe("Problem reading name database!");
+                e.printStackTrace();
             }
-            UUID result = UUID.fromString(uuid);
+        }
+        if (result != null) {
             // Add to cache
-            treeMap.put(playerName.toLowerCase(), result);
-            //plugin.getLogger().info("DEBUG: found in UUID database");
-            return result;
-        } catch (Exception e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } 
+            cache.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Binary search of the index file
+     * @param name - lower case name
+     * @return UUID or null if not in the index
+     * @throws IOException
+     */
+    private UUID search(String name) throws IOException {
+        byte[] key = nameBytes(name);
+        if (index == null || key == null) {
+            return null;
+        }
+        byte[] record = new byte[NAME_SIZE];
+        int low = 0;
+        int high = indexCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            index.seek(HEADER_SIZE + (long)mid * RECORD_SIZE);
+            index.readFully(record);
+            int compare = compareNames(record, key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return new UUID(index.readLong(), index.readLong());
+            }
+        }
         return null;
     }
+
+    /**
+     * Closes the index file
+     */
+    public synchronized void close() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+            }
+            index = null;
+        }
+    }
+
+    /**
+     * @param name
+     * @return name as a zero padded index key, or null if it is too long
+     */
+    private static byte[] nameBytes(String name) {
+        byte[] bytes;
+        try {
+            bytes = name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+        if (bytes.length > NAME_SIZE) {
+            return null;
+        }
+        byte[] key = new byte[NAME_SIZE];
+        System.arraycopy(bytes, 0, key, 0, bytes.length);
+        return key;
+    }
+
+    /**
+     * Reads the name part of the next index record
+     * @return name key or null at the end of the file
+     */
+    private static byte[] readName(DataInputStream in) throws IOException {
+        byte[] name = new byte[NAME_SIZE];
+        try {
+            in.readFully(name);
+        } catch (EOFException e) {
+            return null;
+        }
+        return name;
+    }
+
+    private static int compareNames(byte[] a, byte[] b) {
+        for (int i = 0; i < NAME_SIZE; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,299 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.wasteofplastic.beaconz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the exact area covered by a set of triangles, counting overlaps once.
+ * <p>
+ * The area is found with a vertical sweep. The x axis is cut into slabs at every vertex and every
+ * point where two edges cross. Inside a slab no edges cross, so the covered length along z changes
+ * linearly and the slab area is its width times the covered length at its middle.
+ * <p>
+ * Adding or removing a triangle only changes the area inside that triangle's x range, so only that
+ * strip is swept again, using just the triangles that reach into it.
+ *
+ */
+public class TriangleAreaEngine {
+
+    private final List<TriangleField> triangles = new ArrayList<TriangleField>();
+    private double area;
+
+    /**
+     * Adds a triangle and updates the area
+     * @param triangle
+     */
+    public void add(TriangleField triangle) {
+        List<TriangleField> strip = inStrip(triangle.getMinX(), triangle.getMaxX());
+        double before = stripArea(strip, triangle.getMinX(), triangle.getMaxX());
+        strip.add(triangle);
+        double after = stripArea(strip, triangle.getMinX(), triangle.getMaxX());
+        triangles.add(triangle);
+        area += after - before;
+    }
+
+    /**
+     * Removes a triangle and updates the area
+     * @param triangle
+     * @return true if the triangle was known
+     */
+    public boolean remove(TriangleField triangle) {
+        if (!triangles.remove(triangle)) {
+            return false;
+        }
+        if (triangles.isEmpty()) {
+            // Drop any rounding that has built up
+            area = 0;
+            return true;
+        }
+        List<TriangleField> strip = inStrip(triangle.getMinX(), triangle.getMaxX());
+        double after = stripArea(strip, triangle.getMinX(), triangle.getMaxX());
+        strip.add(triangle);
+        double before = stripArea(strip, triangle.getMinX(), triangle.getMaxX());
+        area += after - before;
+        return true;
+    }
+
+    /**
+     * Works the area out again in one sweep, dropping any rounding that add and remove have built up
+     */
+    public void recalculate() {
+        area = getUnionArea(triangles);
+    }
+
+    /**
+     * Removes all triangles
+     */
+    public void clear() {
+        triangles.clear();
+        area = 0;
+    }
+
+    /**
+     * @return the area covered by all the triangles
+     */
+    public double getArea() {
+        return area;
+    }
+
+    /**
+     * @return number of triangles
+     */
+    public int size() {
+        return triangles.size();
+    }
+
+    /**
+     * Whole blocks in an area, counted down like the scores always have been. Allows for the rounding
+     * left by add and remove, so an exact 2658 that has drifted to 2657.9999 still counts as 2658.
+     * @param area
+     * @return whole blocks
+     */
+    public static int toBlocks(double area) {
+        return (int)(area + 1e-6);
+    }
+
+    /**
+     * Calculates the area covered by a set of triangles in one go
+     * @param triangles
+     * @return area covered, overlaps only counted once
+     */
+    public static double getUnionArea(Collection<TriangleField> triangles) {
+        if (triangles.isEmpty()) {
+            return 0;
+        }
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (TriangleField triangle : triangles) {
+            minX = Math.min(minX, triangle.getMinX());
+            maxX = Math.max(maxX, triangle.getMaxX());
+        }
+        return stripArea(new ArrayList<TriangleField>(triangles), minX, maxX);
+    }
+
+    /**
+     * @return the known triangles that reach strictly inside x0 to x1
+     */
+    private List<TriangleField> inStrip(int x0, int x1) {
+        List<TriangleField> result = new ArrayList<TriangleField>();
+        for (TriangleField triangle : triangles) {
+            if (triangle.getMaxX() > x0 && triangle.getMinX() < x1) {
+                result.add(triangle);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sweeps the strip x0 to x1 and returns the area covered by the triangles inside it
+     * @param triangles - triangles that may reach into the strip
+     * @param x0
+     * @param x1
+     * @return covered area between x0 and x1
+     */
+    private static double stripArea(List<TriangleField> triangles, int x0, int x1) {
+        if (x1 <= x0 || triangles.isEmpty()) {
+            return 0;
+        }
+        // Collect the slab boundaries
+        int n = triangles.size();
+        double[] cuts = new double[2 + n * 6];
+        int cutCount = 0;
+        cuts[cutCount++] = x0;
+        cuts[cutCount++] = x1;
+        for (int i = 0; i < n; i++) {
+            TriangleField t = triangles.get(i);
+            for (int v = 0; v < 3; v++) {
+                int x = t.getVertexX(v);
+                if (x > x0 && x < x1) {
+                    cuts[cutCount++] = x;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            TriangleField t1 = triangles.get(i);
+            for (int e1 = 0; e1 < 3; e1++) {
+                for (int j = i + 1; j < n; j++) {
+                    TriangleField t2 = triangles.get(j);
+                    if (t2.getMinX() > t1.getMaxX() || t2.getMaxX() < t1.getMinX()) {
+                        continue;
+                    }
+                    for (int e2 = 0; e2 < 3; e2++) {
+                        double x = crossingX(t1, e1, t2, e2);
+                        if (x > x0 && x < x1) {
+                            if (cutCount == cuts.length) {
+                                cuts = Arrays.copyOf(cuts, cutCount * 2);
+                            }
+                            cuts[cutCount++] = x;
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.sort(cuts, 0, cutCount);
+        // Sweep the slabs
+        double result = 0;
+        double[] lows = new double[n];
+        double[] highs = new double[n];
+        for (int c = 1; c < cutCount; c++) {
+            double left = cuts[c - 1];
+            double right = cuts[c];
+            if (right <= left) {
+                continue;
+            }
+            double mid = (left + right) / 2D;
+            int spans = 0;
+            for (int i = 0; i < n; i++) {
+                TriangleField t = triangles.get(i);
+                if (t.getMinX() < mid && t.getMaxX() > mid) {
+                    double low = Double.MAX_VALUE;
+                    double high = -Double.MAX_VALUE;
+                    for (int e = 0; e < 3; e++) {
+                        int ax = t.getVertexX(e);
+                        int bx = t.getVertexX((e + 1) % 3);
+                        if ((ax < mid) != (bx < mid)) {
+                            int az = t.getVertexZ(e);
+                            int bz = t.getVertexZ((e + 1) % 3);
+                            double z = az + (bz - az) * ((mid - ax) / (bx - ax));
+                            low = Math.min(low, z);
+                            high = Math.max(high, z);
+                        }
+                    }
+                    lows[spans] = low;
+                    highs[spans] = high;
+                    spans++;
+                }
+            }
+            if (spans > 0) {
+                result += coveredLength(lows, highs, spans) * (right - left);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Length of the union of the intervals lows[i] to highs[i]
+     */
+    private static double coveredLength(double[] lows, double[] highs, int count) {
+        // Insertion sort by low end - there are rarely more than a handful of overlapping triangles
+        for (int i = 1; i < count; i++) {
+            double low = lows[i];
+            double high = highs[i];
+            int j = i - 1;
+            while (j >= 0 && lows[j] > low) {
+                lows[j + 1] = lows[j];
+                highs[j + 1] = highs[j];
+                j--;
+            }
+            lows[j + 1] = low;
+            highs[j + 1] = high;
+        }
+        double length = 0;
+        double start = lows[0];
+        double end = highs[0];
+        for (int i = 1; i < count; i++) {
+            if (lows[i] > end) {
+                length += end - start;
+                start = lows[i];
+                end = highs[i];
+            } else if (highs[i] > end) {
+                end = highs[i];
+            }
+        }
+        return length + end - start;
+    }
+
+    /**
+     * Returns the x coordinate where edge e1 of t1 crosses edge e2 of t2, or NaN if they do not cross
+     * at a single point
+     */
+    private static double crossingX(TriangleField t1, int e1, TriangleField t2, int e2) {
+        long ax = t1.getVertexX(e1);
+        long az = t1.getVertexZ(e1);
+        long bx = t1.getVertexX((e1 + 1) % 3);
+        long bz = t1.getVertexZ((e1 + 1) % 3);
+        long cx = t2.getVertexX(e2);
+        long cz = t2.getVertexZ(e2);
+        long dx = t2.getVertexX((e2 + 1) % 3);
+        long dz = t2.getVertexZ((e2 + 1) % 3);
+        long denom = (bx - ax) * (dz - cz) - (bz - az) * (dx - cx);
+        if (denom == 0) {
+            // Parallel edges never swap order
+            return Double.NaN;
+        }
+        long tNum = (cx - ax) * (dz - cz) - (cz - az) * (dx - cx);
+        long uNum = (cx - ax) * (bz - az) - (cz - az) * (bx - ax);
+        if (denom < 0) {
+            denom = -denom;
+            tNum = -tNum;
+            uNum = -uNum;
+        }
+        if (tNum < 0 || tNum > denom || uNum < 0 || uNum > denom) {
+            return Double.NaN;
+        }
+        return ax + (bx - ax) * ((double)tNum / denom);
+    }
+}
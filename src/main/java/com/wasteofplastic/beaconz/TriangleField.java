@@ -44,6 +44,13 @@ public class TriangleField {
     public double area;
     private Polygon triangle;
     private Set<Line2D> sides;
+    // Integer vertices and bounding box for fast containment checks
+    private final int[] xs = new int[3];
+    private final int[] zs = new int[3];
+    private int minX;
+    private int maxX;
+    private int minZ;
+    private int maxZ;
 
     /**
      * Fields are 2D. Only x and z coordinates count
@@ -58,6 +65,12 @@ public class TriangleField {
         this.triangle.addPoint((int)point2d.getX(), (int)point2d.getY());
         this.triangle.addPoint((int)point2d2.getX(), (int)point2d2.getY());
         this.triangle.addPoint((int)point2d3.getX(), (int)point2d3.getY());
+        System.arraycopy(triangle.xpoints, 0, xs, 0, 3);
+        System.arraycopy(triangle.ypoints, 0, zs, 0, 3);
+        this.minX = Math.min(xs[0], Math.min(xs[1], xs[2]));
+        this.maxX = Math.max(xs[0], Math.max(xs[1], xs[2]));
+        this.minZ = Math.min(zs[0], Math.min(zs[1], zs[2]));
+        this.maxZ = Math.max(zs[0], Math.max(zs[1], zs[2]));
         this.a = point2d;
         this.b = point2d2;
         this.c = point2d3;
@@ -135,12 +148,176 @@ public class TriangleField {
     }
 
     public Team contains(int x, int y) {
-        if (triangle.contains(x,y)) {
+        if (containsPoint(x,y)) {
             return owner;
         }
         return null;
     }
 
+    /**
+     * Integer point in triangle test. Uses the same crossing rule as {@link Polygon#contains(double, double)}
+     * so that points on an edge are inside only if the interior is in the +x or +z direction, and a point on an
+     * edge shared by two triangles is only in one of them. Unlike Polygon, the edge test is exact.
+     * @param x
+     * @param z
+     * @return true if x,z is in this triangle
+     */
+    public boolean containsPoint(int x, int z) {
+        if (x < minX || x >= maxX || z < minZ || z >= maxZ) {
+            return false;
+        }
+        int hits = 0;
+        int lastx = xs[2];
+        int lastz = zs[2];
+        for (int i = 0; i < 3; lastx = xs[i], lastz = zs[i], i++) {
+            int curx = xs[i];
+            int curz = zs[i];
+            if (curz == lastz) {
+                continue;
+            }
+            int leftx;
+            if (curx < lastx) {
+                if (x >= lastx) {
+                    continue;
+                }
+                leftx = curx;
+            } else {
+                if (x >= curx) {
+                    continue;
+                }
+                leftx = lastx;
+            }
+            long test1;
+            long test2;
+            if (curz < lastz) {
+                if (z < curz || z >= lastz) {
+                    continue;
+                }
+                if (x < leftx) {
+                    hits++;
+                    continue;
+                }
+                test1 = x - curx;
+                test2 = z - curz;
+            } else {
+                if (z < lastz || z >= curz) {
+                    continue;
+                }
+                if (x < leftx) {
+                    hits++;
+                    continue;
+                }
+                test1 = x - lastx;
+                test2 = z - lastz;
+            }
+            // test1 < test2 / (lastz - curz) * (lastx - curx) without the division
+            long dz = (long)lastz - curz;
+            long dx = (long)lastx - curx;
+            if (dz > 0 ? test1 * dz < test2 * dx : test1 * dz > test2 * dx) {
+                hits++;
+            }
+        }
+        return (hits & 1) != 0;
+    }
+
+    /**
+     * Finds the blocks in row z that are inside the triangle. Gives the same answer as calling
+     * {@link #containsPoint(int, int)} for every x in the row, but works it out from the two edges
+     * that cross the row.
+     * @param z
+     * @param span - set to the first x inside and the first x after that which is outside
+     * @return false if no blocks in the row are inside
+     */
+    public boolean getRowSpan(int z, int[] span) {
+        if (z < minZ || z >= maxZ) {
+            return false;
+        }
+        int found = 0;
+        int lastx = xs[2];
+        int lastz = zs[2];
+        for (int i = 0; i < 3; lastx = xs[i], lastz = zs[i], i++) {
+            int curx = xs[i];
+            int curz = zs[i];
+            if (curz == lastz) {
+                continue;
+            }
+            // Edge from the lower vertex a to the upper vertex b
+            long ax = curz < lastz ? curx : lastx;
+            long az = curz < lastz ? curz : lastz;
+            long bx = curz < lastz ? lastx : curx;
+            long bz = curz < lastz ? lastz : curz;
+            if (z < az || z >= bz) {
+                continue;
+            }
+            // Points left of the edge, x < ax + (z - az) * (bx - ax) / (bz - az), are crossings
+            int edge = (int)(ax + ceilDiv((z - az) * (bx - ax), bz - az));
+            if (found == 0) {
+                span[0] = edge;
+            } else {
+                span[1] = edge;
+            }
+            found++;
+        }
+        if (found != 2) {
+            return false;
+        }
+        if (span[0] > span[1]) {
+            int swap = span[0];
+            span[0] = span[1];
+            span[1] = swap;
+        }
+        // Inside where exactly one edge is crossed
+        return span[0] < span[1];
+    }
+
+    private static long ceilDiv(long n, long d) {
+        return n >= 0 ? (n + d - 1) / d : -((-n) / d);
+    }
+
+    /**
+     * @param i - vertex 0, 1 or 2
+     * @return the x coordinate of the vertex
+     */
+    public int getVertexX(int i) {
+        return xs[i];
+    }
+
+    /**
+     * @param i - vertex 0, 1 or 2
+     * @return the z coordinate of the vertex
+     */
+    public int getVertexZ(int i) {
+        return zs[i];
+    }
+
+    /**
+     * @return the smallest x of the vertices
+     */
+    public int getMinX() {
+        return minX;
+    }
+
+    /**
+     * @return the largest x of the vertices
+     */
+    public int getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return the smallest z of the vertices
+     */
+    public int getMinZ() {
+        return minZ;
+    }
+
+    /**
+     * @return the largest z of the vertices
+     */
+    public int getMaxZ() {
+        return maxZ;
+    }
+
     public boolean contains(Point2D point) {
         return triangle.contains(point);
     }
@@ -0,0 +1,207 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bucketed spatial index of triangle fields. Each triangle is put in every cell its bounding box overlaps,
+ * so a point query only has to test the few triangles in one cell.
+ *
+ */
+public class TriangleIndex {
+
+    /**
+     * Cell size in blocks, as a power of two. Triangles are usually hundreds of blocks across, so cells
+     * are bigger than a chunk to keep the number of cells each triangle sits in down.
+     */
+    private static final int CELL_SHIFT = 6;
+
+    private HashMap<Long, List<TriangleField>> cells = new HashMap<Long, List<TriangleField>>();
+
+    /**
+     * Adds a triangle to the index
+     * @param triangle
+     */
+    public void add(TriangleField triangle) {
+        for (int cellX = triangle.getMinX() >> CELL_SHIFT; cellX <= triangle.getMaxX() >> CELL_SHIFT; cellX++) {
+            for (int cellZ = triangle.getMinZ() >> CELL_SHIFT; cellZ <= triangle.getMaxZ() >> CELL_SHIFT; cellZ++) {
+                Long key = cellKey(cellX, cellZ);
+                List<TriangleField> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<TriangleField>(2);
+                    cells.put(key, cell);
+                }
+                cell.add(triangle);
+            }
+        }
+    }
+
+    /**
+     * Removes this exact triangle object from the index
+     * @param triangle
+     */
+    public void remove(TriangleField triangle) {
+        for (int cellX = triangle.getMinX() >> CELL_SHIFT; cellX <= triangle.getMaxX() >> CELL_SHIFT; cellX++) {
+            for (int cellZ = triangle.getMinZ() >> CELL_SHIFT; cellZ <= triangle.getMaxZ() >> CELL_SHIFT; cellZ++) {
+                Long key = cellKey(cellX, cellZ);
+                List<TriangleField> cell = cells.get(key);
+                if (cell != null) {
+                    // Identity check - TriangleField.equals ignores the owner
+                    Iterator<TriangleField> it = cell.iterator();
+                    while (it.hasNext()) {
+                        if (it.next() == triangle) {
+                            it.remove();
+                        }
+                    }
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all triangles from the index
+     */
+    public void clear() {
+        cells.clear();
+    }
+
+    /**
+     * Gets all the triangles that contain x,z
+     * @param x
+     * @param z
+     * @return list of triangles, empty if none
+     */
+    public List<TriangleField> getTriangles(int x, int z) {
+        List<TriangleField> result = new ArrayList<TriangleField>();
+        List<TriangleField> cell = cells.get(cellKey(x >> CELL_SHIFT, z >> CELL_SHIFT));
+        if (cell != null) {
+            for (TriangleField triangle : cell) {
+                if (triangle.containsPoint(x, z)) {
+                    result.add(triangle);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets all the triangles whose bounding boxes overlap an area
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @return list of triangles, each listed once, empty if none
+     */
+    public List<TriangleField> getTriangles(int minX, int minZ, int maxX, int maxZ) {
+        List<TriangleField> result = new ArrayList<TriangleField>();
+        // Identity set - TriangleField.equals ignores the owner
+        Set<TriangleField> seen = Collections.newSetFromMap(new IdentityHashMap<TriangleField, Boolean>());
+        for (int cellX = minX >> CELL_SHIFT; cellX <= maxX >> CELL_SHIFT; cellX++) {
+            for (int cellZ = minZ >> CELL_SHIFT; cellZ <= maxZ >> CELL_SHIFT; cellZ++) {
+                List<TriangleField> cell = cells.get(cellKey(cellX, cellZ));
+                if (cell != null) {
+                    for (TriangleField triangle : cell) {
+                        if (triangle.getMaxX() >= minX && triangle.getMinX() <= maxX && triangle.getMaxZ() >= minZ
+                                && triangle.getMinZ() <= maxZ && seen.add(triangle)) {
+                            result.add(triangle);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds a square of blocks around x,z inside which {@link #getTriangles(int, int)} always gives the
+     * same triangles. Tries the whole index cell first and then smaller squares inside it.
+     * @param x
+     * @param z
+     * @param bounds - set to the min x, min z, max x and max z of the square, inclusive
+     * @return false if no square bigger than a few blocks could be found
+     */
+    public boolean getUniformArea(int x, int z, int[] bounds) {
+        List<TriangleField> cell = cells.get(cellKey(x >> CELL_SHIFT, z >> CELL_SHIFT));
+        int[] span = new int[2];
+        for (int shift = CELL_SHIFT; shift >= 2; shift -= 2) {
+            int minX = (x >> shift) << shift;
+            int minZ = (z >> shift) << shift;
+            int maxX = minX + (1 << shift) - 1;
+            int maxZ = minZ + (1 << shift) - 1;
+            if (cell == null || isUniform(cell, minX, minZ, maxX, maxZ, span)) {
+                bounds[0] = minX;
+                bounds[1] = minZ;
+                bounds[2] = maxX;
+                bounds[3] = maxZ;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every triangle either covers the whole square or none of it
+     */
+    private static boolean isUniform(List<TriangleField> triangles, int minX, int minZ, int maxX, int maxZ, int[] span) {
+        for (TriangleField triangle : triangles) {
+            if (triangle.getMaxX() < minX || triangle.getMinX() > maxX || triangle.getMaxZ() < minZ || triangle.getMinZ() > maxZ) {
+                continue;
+            }
+            boolean firstCovered = false;
+            for (int z = minZ; z <= maxZ; z++) {
+                boolean inRow = triangle.getRowSpan(z, span);
+                boolean covered = inRow && span[0] <= minX && span[1] > maxX;
+                if (inRow && !covered && span[0] <= maxX && span[1] > minX) {
+                    // Part of this row is inside
+                    return false;
+                }
+                if (z == minZ) {
+                    firstCovered = covered;
+                } else if (covered != firstCovered) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs cell coordinates into a single key
+     * @param cellX
+     * @param cellZ
+     * @return key
+     */
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long)cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -134,6 +135,87 @@ public class TriangleScorer {
         return area;
     }
 
+    /**
+     * Works out how deeply a set of triangles overlap.
+     * Element 0 of the result is the area covered by at least one triangle, element 1 the area covered
+     * by at least two and so on up to maxDepth.
+     * @param triangles
+     * @param maxDepth - deepest overlap to work out, at least 1
+     * @return list of maxDepth areas, some of which may be empty
+     */
+    public static List<Area> getDepthAreas(Collection<TriangleField> triangles, int maxDepth) {
+        List<Area> layers = new ArrayList<Area>();
+        for (int i = 0; i < maxDepth; i++) {
+            layers.add(new Area());
+        }
+        for (TriangleField triangle : triangles) {
+            Area shape = new Area(triangle.getTriangle());
+            // Deepest first, so each layer is grown from the one above it before that one grows
+            for (int k = maxDepth - 1; k > 0; k--) {
+                Area above = layers.get(k - 1);
+                if (!above.intersects(shape.getBounds2D())) {
+                    continue;
+                }
+                Area overlap = new Area(above);
+                overlap.intersect(shape);
+                layers.get(k).add(overlap);
+            }
+            layers.get(0).add(shape);
+        }
+        return layers;
+    }
+
+    /**
+     * Splits an area into the outlines of its separate pieces. Holes in a piece are left out.
+     * @param area
+     * @return list of outlines, each one the corners of a polygon
+     */
+    public static List<Point2D[]> getOutlines(Area area) {
+        List<Point2D[]> rings = new ArrayList<Point2D[]>();
+        List<Double> signedAreas = new ArrayList<Double>();
+        List<Point2D> ring = new ArrayList<Point2D>();
+        double[] coords = new double[6];
+        PathIterator pathIterator = area.getPathIterator(null);
+        while (!pathIterator.isDone()) {
+            int type = pathIterator.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO) {
+                ring.clear();
+            }
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO) {
+                ring.add(new Point2D.Double(coords[0], coords[1]));
+            } else if (type == PathIterator.SEG_CLOSE && ring.size() > 2) {
+                Point2D[] points = ring.toArray(new Point2D[ring.size()]);
+                rings.add(points);
+                signedAreas.add(signedArea(points));
+            }
+            pathIterator.next();
+        }
+        // Holes wind the other way to the outside edges. The biggest ring is always an outside edge.
+        double biggest = 0;
+        for (double signed : signedAreas) {
+            if (Math.abs(signed) > Math.abs(biggest)) {
+                biggest = signed;
+            }
+        }
+        List<Point2D[]> result = new ArrayList<Point2D[]>();
+        for (int i = 0; i < rings.size(); i++) {
+            if (signedAreas.get(i) * biggest > 0) {
+                result.add(rings.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static double signedArea(Point2D[] polyPoints) {
+        double area = 0;
+        for (int i = 0; i < polyPoints.length; i++) {
+            int j = (i + 1) % polyPoints.length;
+            area += polyPoints[i].getX() * polyPoints[j].getY();
+            area -= polyPoints[j].getX() * polyPoints[i].getY();
+        }
+        return area / 2.0;
+    }
+
     /**
      * Function to calculate the area of a polygon, according to the algorithm
      * defined at http://local.wasp.uwa.edu.au/~pbourke/geometry/polyarea/
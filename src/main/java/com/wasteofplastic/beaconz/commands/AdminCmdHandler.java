@@ -50,6 +50,7 @@ import com.wasteofplastic.beaconz.Beaconz;
 import com.wasteofplastic.beaconz.BeaconzPluginDependent;
 import com.wasteofplastic.beaconz.Game;
 import com.wasteofplastic.beaconz.Lang;
+import com.wasteofplastic.beaconz.RegionPregenerator;
 import com.wasteofplastic.beaconz.Settings;
 
 public class AdminCmdHandler extends BeaconzPluginDependent implements CommandExecutor, TabCompleter {
@@ -82,6 +83,7 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
             if (sender instanceof Player) {
                 senderMsg(sender, cc1 + "/" + label + cc2 + " claim [unowned | <team>]" + cc3 + Lang.helpAdminClaim);
             }
+            senderMsg(sender, cc1 + "/" + label + cc2 + " checkscores" + cc3 + Lang.helpAdminCheckScores);
             senderMsg(sender, cc1 + "/" + label + cc2 + " delete <gamename>" + cc3 + Lang.helpAdminDelete);
             //senderMsg(sender, cc1 + "/" + label + cc2 + " distribution <decimal between 0 and 1>" + cc3 + Lang.helpAdminDistribution);
             if (sender instanceof Player) {
@@ -100,7 +102,9 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
             }*/
             senderMsg(sender, cc1 + "/" + label + cc2 + " list [all |<gamename>] [team]" + cc3 + Lang.helpAdminList);
             senderMsg(sender, cc1 + "/" + label + cc2 + " listparms <gamename>" + cc3 + Lang.helpAdminListParms);
+            senderMsg(sender, cc1 + "/" + label + cc2 + " movestats" + cc3 + Lang.helpAdminMoveStats);
             senderMsg(sender, cc1 + "/" + label + cc2 + " newgame <gamename> [<parm1:value> <parm2:value>...]" + cc3 + Lang.helpAdminNewGame.replace("[label]", label));
+            senderMsg(sender, cc1 + "/" + label + cc2 + " pregen [pause | resume]" + cc3 + Lang.helpAdminPregen);
             senderMsg(sender, cc1 + "/" + label + cc2 + " reload" + cc3 + Lang.helpAdminReload);
             //senderMsg(sender, cc1 + "/" + label + cc2 + " setgameparms <gamename> <parm1:value> <parm2:value>... " + cc3 + Lang.helpAdminSetGameParms.replace("[label]", label));
             if (sender instanceof Player) {
@@ -135,10 +139,10 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
                             } else {
                                 Point2D newClaim = new Point2D.Double(block.getX(), block.getZ());
                                 player.sendMessage(Lang.beaconClaimingBeaconAt.replace("[location]", newClaim.toString()));
-                                if (!getRegister().getBeaconRegister().containsKey(newClaim)) {
+                                BeaconObj beacon = getRegister().getBeaconAt(block.getX(), block.getZ());
+                                if (beacon == null) {
                                     player.sendMessage(ChatColor.RED + Lang.errorNotInRegister + newClaim);
                                 } else {
-                                    BeaconObj beacon = getRegister().getBeaconRegister().get(newClaim);
                                     if (args[1].equalsIgnoreCase("unowned")) {
                                         getRegister().removeBeaconOwnership(beacon);
                                     } else {
@@ -155,7 +159,55 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
                     }
                 }
                 break;
+
+            case "checkscores":
+                // Debug - compares the running score totals with a full recount of the register
+                List<String> mismatches = getRegister().checkTeamCounts();
+                if (mismatches.isEmpty()) {
+                    senderMsg(sender, ChatColor.GREEN + Lang.adminCheckScoresMatch);
+                } else {
+                    for (String mismatch : mismatches) {
+                        senderMsg(sender, ChatColor.RED + mismatch);
+                    }
+                    senderMsg(sender, ChatColor.YELLOW + Lang.adminCheckScoresReset);
+                    for (Game g : getGameMgr().getGames().values()) {
+                        g.getScorecard().refreshScores();
+                    }
+                }
+                break;
                 
+            case "movestats":
+                // Debug - shows how well the movement cache is working
+                long hits = getPml().getMoveCacheHits();
+                long misses = getPml().getMoveCacheMisses();
+                long moves = hits + misses;
+                senderMsg(sender, ChatColor.GREEN + Lang.adminMoveStats.replace("[moves]", String.valueOf(moves))
+                        .replace("[hits]", String.valueOf(hits)).replace("[misses]", String.valueOf(misses))
+                        .replace("[percent]", String.valueOf(moves > 0 ? hits * 100 / moves : 0)));
+                break;
+
+            case "pregen":
+                RegionPregenerator pregenerator = getGameMgr().getPregenerator();
+                if (args.length > 1 && args[1].equalsIgnoreCase("pause")) {
+                    pregenerator.pause();
+                } else if (args.length > 1 && args[1].equalsIgnoreCase("resume")) {
+                    pregenerator.resume();
+                } else if (args.length > 1) {
+                    senderMsg(sender, ChatColor.RED + "/" + label + " pregen [pause | resume]" + Lang.helpAdminPregen);
+                    break;
+                }
+                if (pregenerator.getGameNames().isEmpty()) {
+                    senderMsg(sender, ChatColor.GREEN + Lang.adminPregenDone);
+                } else {
+                    for (String name : pregenerator.getGameNames()) {
+                        Game g = getGameMgr().getGame(name);
+                        senderMsg(sender, ChatColor.AQUA + Lang.adminPregenProgress.replace("[name]", name)
+                                .replace("[percent]", String.valueOf(g == null ? 0 : pregenerator.getProgress(g)))
+                                + (pregenerator.isPaused() ? ChatColor.YELLOW + Lang.adminPregenPaused : ""));
+                    }
+                }
+                break;
+
             case "distribution":
                 if (args.length < 2) {
                     senderMsg(sender, ChatColor.RED + "/" + label + " distribution <fraction between 0 and 1> " + Lang.helpAdminDistribution);
@@ -649,7 +701,7 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
         senderMsg(sender, ChatColor.GREEN + Lang.adminListBeaconsInGame.replace("[name]", name));
         boolean none = true;
         boolean noGame = true;
-        for (BeaconObj b : getRegister().getBeaconRegister().values()) { 
+        for (BeaconObj b : getRegister().getBeacons()) { 
             // Find the game this beacon is in
             Game game = getGameMgr().getGame(b.getLocation());
             if (name.equalsIgnoreCase("all") || game.getName().equalsIgnoreCase(name)) {
@@ -913,6 +965,7 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
                 options.add("switch");
             }
             // Console options
+            options.add("checkscores");
             options.add("delete");
             options.add("distribution");
             options.add("games");
@@ -924,7 +977,9 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
             options.add("force_end");
             options.add("list");
             options.add("listparms");
+            options.add("movestats");
             options.add("newgame");
+            options.add("pregen");
             options.add("reload");
             //options.add("setgameparms");
             options.add("teams");
@@ -967,6 +1022,10 @@ public class AdminCmdHandler extends BeaconzPluginDependent implements CommandEx
             if (args[0].equalsIgnoreCase("newgame")) {
                 options.add("help");
             }
+            if (args[0].equalsIgnoreCase("pregen")) {
+                options.add("pause");
+                options.add("resume");
+            }
             // Options with "all"
             if (args[0].equalsIgnoreCase("list") || args[0].equalsIgnoreCase("teams") || args[0].equalsIgnoreCase("timertoggle")) {
                 // List all the games
@@ -1,12 +1,16 @@
 package com.wasteofplastic.beaconz.dynmap;
 
+import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.bukkit.World;
@@ -19,6 +23,8 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.Team;
 import org.dynmap.DynmapAPI;
 import org.dynmap.markers.AreaMarker;
 import org.dynmap.markers.MarkerAPI;
@@ -28,9 +34,23 @@ import com.wasteofplastic.beaconz.Beaconz;
 import com.wasteofplastic.beaconz.BeaconzPluginDependent;
 import com.wasteofplastic.beaconz.Game;
 import com.wasteofplastic.beaconz.TriangleField;
-
-
-public class OurServerListener extends BeaconzPluginDependent implements Listener {
+import com.wasteofplastic.beaconz.TriangleListener;
+import com.wasteofplastic.beaconz.TriangleScorer;
+
+
+/**
+ * Shows the games and triangles on dynmap.
+ * <p>
+ * The register tells this listener about every triangle that is added or removed. Those changes are
+ * queued and applied to the markers a few at a time, so only the markers that actually changed are
+ * created or deleted.
+ * <p>
+ * If territory.merge is set in dynmap.yml, each team's triangles are instead shown as the outline of
+ * the ground they cover, worked out again off the main thread whenever the team's triangles change.
+ * Ground covered by two or more of a team's triangles is shown on one extra layer per overlap depth.
+ *
+ */
+public class OurServerListener extends BeaconzPluginDependent implements Listener, TriangleListener {
     private Beaconz plugin;
     private Plugin dynmap;
     private DynmapAPI api;
@@ -46,10 +66,40 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
     private Map<String, AreaStyle> teamstyle;
     private boolean stop;
     private static final String DEF_INFOWINDOW = "<div class=\"infowindow\">Team <span style=\"font-weight:bold;\">%teamname%</span><br /></div>";
-    private Set<TriangleField> trianglesToDo;
-
-    private Map<String, AreaMarker> resareas = new HashMap<String, AreaMarker>();
-    protected LinkedHashMap<String, Game> gamesToDo;
+    /**
+     * Triangles that need a marker made or updated
+     */
+    private final Set<TriangleField> trianglesToAdd = new LinkedHashSet<TriangleField>();
+    /**
+     * Triangles whose marker needs to be deleted
+     */
+    private final Set<TriangleField> trianglesToRemove = new LinkedHashSet<TriangleField>();
+    private final Map<TriangleField, AreaMarker> triangleMarkers = new HashMap<TriangleField, AreaMarker>();
+    private final Map<String, AreaMarker> gameMarkers = new HashMap<String, AreaMarker>();
+    /**
+     * Corners each game marker was last drawn with
+     */
+    private final Map<String, String> gameBounds = new HashMap<String, String>();
+    private BukkitTask updateTask;
+    private BukkitTask triangleTask;
+    /**
+     * Show merged team territory instead of single triangles
+     */
+    private boolean merge;
+    private int maxDepth;
+    /**
+     * Layers for ground covered by 2, 3, ... maxDepth triangles
+     */
+    private final List<MarkerSet> depthSets = new ArrayList<MarkerSet>();
+    /**
+     * Teams whose territory outline needs working out again
+     */
+    private final Set<Team> teamsToDo = new HashSet<Team>();
+    private final Map<Team, List<AreaMarker>> teamMarkers = new HashMap<Team, List<AreaMarker>>();
+    /**
+     * True while team outlines are being worked out
+     */
+    private boolean merging;
 
 
     public OurServerListener(Beaconz plugin, Plugin dynmap) {
@@ -106,6 +156,30 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         use3d = cfg.getBoolean("use3dregions", false);
         infowindow = cfg.getString("infowindow", DEF_INFOWINDOW);
         updatesPerTick = cfg.getInt("updates-per-tick", 20);
+        merge = cfg.getBoolean("territory.merge", false);
+        maxDepth = Math.max(1, cfg.getInt("territory.maxdepth", 3));
+        depthSets.clear();
+        if (merge) {
+            for (int depth = 2; depth <= maxDepth; depth++) {
+                String label = cfg.getString("layer.name", "Beaconz") + " x" + depth;
+                MarkerSet depthSet = markerapi.getMarkerSet("beaconz.depth" + depth);
+                if (depthSet == null) {
+                    depthSet = markerapi.createMarkerSet("beaconz.depth" + depth, label, null, false);
+                } else {
+                    depthSet.setMarkerSetLabel(label);
+                }
+                if (depthSet == null) {
+                    getLogger().severe("Error creating marker set for overlap depth " + depth);
+                    continue;
+                }
+                if (minzoom > 0) {
+                    depthSet.setMinZoom(minzoom);
+                }
+                depthSet.setLayerPriority(cfg.getInt("layer.layerprio", 10) + depth - 1);
+                depthSet.setHideByDefault(cfg.getBoolean("layer.hidebydefault", false));
+                depthSets.add(depthSet);
+            }
+        }
 
         /* Get style information */
         defstyle = new AreaStyle(cfg, "trianglestyle");
@@ -124,45 +198,41 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         updperiod = per*20;
         stop = false;
 
-        new BukkitRunnable() {
+        if (updateTask != null) {
+            updateTask.cancel();
+        }
+        // Start from a clean marker set. After this only changes are sent to dynmap.
+        for (AreaMarker am : set.getAreaMarkers()) {
+            am.deleteMarker();
+        }
+        for (MarkerSet depthSet : depthSets) {
+            for (AreaMarker am : depthSet.getAreaMarkers()) {
+                am.deleteMarker();
+            }
+        }
+        triangleMarkers.clear();
+        teamMarkers.clear();
+        teamsToDo.clear();
+        gameMarkers.clear();
+        gameBounds.clear();
+        trianglesToRemove.clear();
+        trianglesToAdd.clear();
+        for (TriangleField triangle : getRegister().getTriangleFields()) {
+            triangleAdded(triangle);
+        }
+        getRegister().removeTriangleListener(this);
+        getRegister().addTriangleListener(this);
+
+        updateTask = new BukkitRunnable() {
 
             @Override
             public void run() {
-                //getLogger().info("DEBUG: running outer loop");
-                // Clear the map
-                for (AreaMarker am : resareas.values()) {
-                    am.deleteMarker();
+                updateGames();
+                if (merge) {
+                    updateTeams();
+                } else {
+                    updateTriangles();
                 }
-                for (Game game : getGameMgr().getGames().values()) {
-                    handleGames(game);
-                }
-                trianglesToDo = new HashSet<TriangleField>(getRegister().getTriangleFields());
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        //getLogger().info("DEBUG: running inner loop");
-                        // Clone triangle fields
-                        if (trianglesToDo.isEmpty()) {
-                            //getLogger().info("DEBUG: canceling inner loop");
-                            this.cancel();
-                            return;
-                        }
-                        if (stop) {
-                            this.cancel();
-                            return;
-                        }
-                        int i = 0;
-                        //getLogger().info("DEBUG: There are " + trianglesToDo.size() + " triangles left");
-                        Iterator<TriangleField> it = trianglesToDo.iterator();
-                        while (it.hasNext() && i < updatesPerTick) {
-                            i++;
-                            handleTriangle(it.next());
-                            it.remove();
-                        }
-                    }
-
-                }.runTaskTimer(plugin, 40L, 1L);
-
             }
 
         }.runTaskTimer(plugin, 0L, updperiod);
@@ -199,6 +269,197 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         }
     }
 
+    @Override
+    public void triangleAdded(TriangleField triangle) {
+        if (merge) {
+            if (triangle.getOwner() != null) {
+                teamsToDo.add(triangle.getOwner());
+            }
+            return;
+        }
+        trianglesToAdd.add(triangle);
+    }
+
+    @Override
+    public void triangleRemoved(TriangleField triangle) {
+        if (merge) {
+            if (triangle.getOwner() != null) {
+                teamsToDo.add(triangle.getOwner());
+            }
+            return;
+        }
+        if (trianglesToAdd.remove(triangle) && !triangleMarkers.containsKey(triangle)) {
+            // Never made it onto the map
+            return;
+        }
+        trianglesToRemove.add(triangle);
+    }
+
+    /**
+     * Redraws the games whose corners have changed and deletes the markers of games that have gone
+     */
+    private void updateGames() {
+        Set<String> current = new HashSet<String>();
+        for (Game game : getGameMgr().getGames().values()) {
+            String markerid = getBeaconzWorld().getName() + "_" + game.getName();
+            current.add(markerid);
+            Point2D[] corners = game.getRegion().corners();
+            String bounds = corners[0].toString() + corners[1].toString();
+            if (!bounds.equals(gameBounds.get(markerid))) {
+                handleGames(game);
+                gameBounds.put(markerid, bounds);
+            }
+        }
+        Iterator<Map.Entry<String, AreaMarker>> it = gameMarkers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AreaMarker> en = it.next();
+            if (!current.contains(en.getKey())) {
+                en.getValue().deleteMarker();
+                gameBounds.remove(en.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Starts applying the queued triangle changes, updatesPerTick at a time
+     */
+    private void updateTriangles() {
+        if (triangleTask != null || (trianglesToAdd.isEmpty() && trianglesToRemove.isEmpty())) {
+            return;
+        }
+        triangleTask = new BukkitRunnable() {
+            @Override
+            public void run() {
+                if (stop || (trianglesToAdd.isEmpty() && trianglesToRemove.isEmpty())) {
+                    triangleTask = null;
+                    this.cancel();
+                    return;
+                }
+                int i = 0;
+                // Deletes go first so that a triangle removed and added again ends up with a marker
+                Iterator<TriangleField> it = trianglesToRemove.iterator();
+                while (it.hasNext() && i < updatesPerTick) {
+                    i++;
+                    AreaMarker m = triangleMarkers.remove(it.next());
+                    if (m != null) {
+                        m.deleteMarker();
+                    }
+                    it.remove();
+                }
+                it = trianglesToAdd.iterator();
+                while (it.hasNext() && i < updatesPerTick) {
+                    i++;
+                    handleTriangle(it.next());
+                    it.remove();
+                }
+            }
+
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    /**
+     * Works out the territory of the teams whose triangles have changed on an async task and then
+     * replaces their markers
+     */
+    private void updateTeams() {
+        if (merging || teamsToDo.isEmpty()) {
+            return;
+        }
+        merging = true;
+        // Copy the triangles so the worker never shares them with the main thread
+        final Map<Team, List<TriangleField>> teamTriangles = new HashMap<Team, List<TriangleField>>();
+        for (Team team : teamsToDo) {
+            teamTriangles.put(team, new ArrayList<TriangleField>());
+        }
+        teamsToDo.clear();
+        for (TriangleField triangle : getRegister().getTriangleFields()) {
+            List<TriangleField> triangles = teamTriangles.get(triangle.getOwner());
+            if (triangles != null) {
+                triangles.add(new TriangleField(new Point2D.Double(triangle.a.getX(), triangle.a.getY()),
+                        new Point2D.Double(triangle.b.getX(), triangle.b.getY()),
+                        new Point2D.Double(triangle.c.getX(), triangle.c.getY()), null));
+            }
+        }
+        new BukkitRunnable() {
+
+            @Override
+            public void run() {
+                final Map<Team, List<List<Point2D[]>>> outlines = new HashMap<Team, List<List<Point2D[]>>>();
+                for (Entry<Team, List<TriangleField>> en : teamTriangles.entrySet()) {
+                    List<List<Point2D[]>> layers = new ArrayList<List<Point2D[]>>();
+                    for (Area area : TriangleScorer.getDepthAreas(en.getValue(), maxDepth)) {
+                        layers.add(TriangleScorer.getOutlines(area));
+                    }
+                    outlines.put(en.getKey(), layers);
+                }
+                if (!plugin.isEnabled()) {
+                    return;
+                }
+                new BukkitRunnable() {
+
+                    @Override
+                    public void run() {
+                        merging = false;
+                        if (stop || !merge) {
+                            return;
+                        }
+                        for (Entry<Team, List<List<Point2D[]>>> en : outlines.entrySet()) {
+                            handleTeam(en.getKey(), en.getValue());
+                        }
+                    }}.runTask(plugin);
+            }}.runTaskAsynchronously(plugin);
+    }
+
+    /**
+     * Replaces a team's territory markers
+     * @param team
+     * @param layers - outlines of the ground covered by at least 1, 2, ... triangles
+     */
+    private void handleTeam(Team team, List<List<Point2D[]>> layers) {
+        List<AreaMarker> old = teamMarkers.remove(team);
+        if (old != null) {
+            for (AreaMarker m : old) {
+                m.deleteMarker();
+            }
+        }
+        World world = getBeaconzWorld();
+        Game game = getGameMgr().getGame(team);
+        String prefix = world.getName() + "_" + (game == null ? "" : game.getName() + "_") + team.getName() + "_";
+        List<AreaMarker> markers = new ArrayList<AreaMarker>();
+        for (int depth = 0; depth < layers.size(); depth++) {
+            MarkerSet layer = depth == 0 ? set : (depth - 1 < depthSets.size() ? depthSets.get(depth - 1) : null);
+            if (layer == null) {
+                break;
+            }
+            List<Point2D[]> outlines = layers.get(depth);
+            for (int i = 0; i < outlines.size(); i++) {
+                Point2D[] outline = outlines.get(i);
+                double[] x = new double[outline.length];
+                double[] z = new double[outline.length];
+                for (int p = 0; p < outline.length; p++) {
+                    x[p] = outline[p].getX();
+                    z[p] = outline[p].getY();
+                }
+                AreaMarker m = layer.createAreaMarker(prefix + (depth + 1) + "_" + i, team.getName(), false, world.getName(), x, z, false);
+                if (m == null) {
+                    continue;
+                }
+                if(use3d) { /* If 3D? */
+                    m.setRangeY(world.getMaxHeight()-1, world.getMaxHeight()-2);
+                }
+                /* Set line and fill properties */
+                addStyle(team.getName(), world.getName(), m, team.getName());
+                /* Build popup */
+                m.setDescription(formatInfoWindow(team.getName(), m));
+                markers.add(m);
+            }
+        }
+        if (!markers.isEmpty()) {
+            teamMarkers.put(team, markers);
+        }
+    }
+
     /**
      * Show the game area
      * @param game
@@ -219,7 +480,7 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         x[2] = xMax-1; z[2] = zMax-1;
 
         String markerid = world.getName() + "_" + name;
-        AreaMarker m = resareas.remove(markerid); /* Existing area? */
+        AreaMarker m = gameMarkers.get(markerid); /* Existing area? */
         if(m == null) {
             m = set.createAreaMarker(markerid, name, false, world.getName(), x, z, false);
             if(m == null)
@@ -238,6 +499,9 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         String desc = formatInfoWindow(game.getName(), m);
 
         m.setDescription(desc); /* Set popup */
+
+        /* Add to map */
+        gameMarkers.put(markerid, m);
     }
     
     /* Handle triangles */
@@ -254,7 +518,7 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         x[2] = triangle.c.getX(); z[2] = triangle.c.getY();
 
         String markerid = world.getName() + "_" + triangle.toString();
-        AreaMarker m = resareas.remove(markerid); /* Existing area? */
+        AreaMarker m = triangleMarkers.remove(triangle); /* Existing area? */
         if(m == null) {
             m = set.createAreaMarker(markerid, name, false, world.getName(), x, z, false);
             if(m == null)
@@ -275,7 +539,7 @@ public class OurServerListener extends BeaconzPluginDependent implements Listene
         m.setDescription(desc); /* Set popup */
 
         /* Add to map */
-        resareas.put(markerid, m);
+        triangleMarkers.put(triangle, m);
     }
 
     /**
@@ -214,8 +214,6 @@ public class BeaconCaptureListener extends BeaconzPluginDependent implements Lis
                     getRegister().setBeaconOwner(beacon,team);
                     player.sendMessage(ChatColor.GREEN + Lang.beaconYouCapturedABeacon);
                     giveBeaconMap(player,beacon);
-                    // Save for safety
-                    getRegister().saveRegister();
                 } else {
                     if (DEBUG)
                         getLogger().info("DEBUG: another block");
@@ -162,8 +162,6 @@ public class BeaconLinkListener extends BeaconzPluginDependent implements Listen
                 player.sendMessage(ChatColor.GREEN + Lang.beaconTheMapDisintegrates);
                 player.getInventory().setItemInMainHand(null);
                 removeExp(player, expRequired);
-                // Save for safety
-                getRegister().saveRegister();
                 // Update score
                 getGameMgr().getGame(team).getScorecard().refreshScores(team);
                 getGameMgr().getGame(team).getScorecard().refreshSBdisplay(team);
@@ -174,8 +172,6 @@ public class BeaconLinkListener extends BeaconzPluginDependent implements Listen
                 player.sendMessage(ChatColor.GREEN + Lang.beaconTheMapDisintegrates);
                 getRegister().removeBeaconMap(event.getItem().getDurability());
                 player.getInventory().setItemInMainHand(null);
-                // Save for safety
-                getRegister().saveRegister();
                 // Update score
                 getGameMgr().getGame(team).getScorecard().refreshScores(team);
                 getGameMgr().getGame(team).getScorecard().refreshSBdisplay(team);
@@ -22,7 +22,6 @@
 
 package com.wasteofplastic.beaconz.listeners;
 
-import java.awt.geom.Point2D;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
@@ -87,7 +86,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         Iterator<Block> it = event.blockList().iterator();
         while(it.hasNext()) {
             Block b = it.next();
-            if (getRegister().isAboveBeacon(b.getLocation())) {
+            if (getRegister().isAboveBeacon(b)) {
                 // TODO: Check if it is the highest block
                 it.remove();
             }
@@ -107,7 +106,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         }
         for (Block b : event.getBlocks()) {
             Block whereItWillBe = b.getRelative(event.getDirection());
-            if (getRegister().isAboveBeacon(whereItWillBe.getLocation())) {
+            if (getRegister().isAboveBeacon(whereItWillBe)) {
                 event.setCancelled(true);
                 return;
             }
@@ -127,7 +126,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
             return;
         }
         for (Block b : event.getBlocks()) {
-            if (getRegister().isAboveBeacon(b.getLocation())) {
+            if (getRegister().isAboveBeacon(b)) {
                 event.setCancelled(true);
                 return;
             }
@@ -176,16 +175,16 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         
         // Check to see if block is being placed adjacent to a beacon
         Block adjBlock = block.getRelative(BlockFace.NORTH);
-        BeaconObj adjacentBeacon = getRegister().getBeaconAt(new Point2D.Double(adjBlock.getX(), adjBlock.getZ()));
+        BeaconObj adjacentBeacon = getRegister().getBaseBlockBeacon(adjBlock.getX(), adjBlock.getZ());
         if (adjacentBeacon == null) {
             adjBlock = block.getRelative(BlockFace.SOUTH);
-            adjacentBeacon = getRegister().getBeaconAt(new Point2D.Double(adjBlock.getX(), adjBlock.getZ()));
+            adjacentBeacon = getRegister().getBaseBlockBeacon(adjBlock.getX(), adjBlock.getZ());
             if (adjacentBeacon == null) {
                 adjBlock = block.getRelative(BlockFace.EAST);
-                adjacentBeacon = getRegister().getBeaconAt(new Point2D.Double(adjBlock.getX(), adjBlock.getZ()));
+                adjacentBeacon = getRegister().getBaseBlockBeacon(adjBlock.getX(), adjBlock.getZ());
                 if (adjacentBeacon == null) {
                     adjBlock = block.getRelative(BlockFace.WEST);
-                    adjacentBeacon = getRegister().getBeaconAt(new Point2D.Double(adjBlock.getX(), adjBlock.getZ()));
+                    adjacentBeacon = getRegister().getBaseBlockBeacon(adjBlock.getX(), adjBlock.getZ());
                 }
             }
         }
@@ -248,7 +247,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         }
 
         // Check if the block is a defensive block
-        BeaconObj beacon = getRegister().getBeaconAt(new Point2D.Double(block.getX(), block.getZ()));
+        BeaconObj beacon = getRegister().getBaseBlockBeacon(block.getX(), block.getZ());
         if (beacon == null || beacon.getOwnership() == null) {
             return;
         }
@@ -340,7 +339,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         Team team = sc.getTeam(player);
         // Check if the block is a beacon or the surrounding pyramid
         Block block = event.getBlock();
-        BeaconObj beacon = getRegister().getBeaconAt(new Point2D.Double(block.getX(), block.getZ()));
+        BeaconObj beacon = getRegister().getBaseBlockBeacon(block.getX(), block.getZ());
         if (beacon == null || beacon.getOwnership() == null) {
             return;
         }
@@ -460,7 +459,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
         Team team = sc.getTeam(player);
         // Check if the block is a beacon or the surrounding pyramid
         Block block = event.getBlock();
-        BeaconObj beacon = getRegister().getBeaconAt(new Point2D.Double(block.getX(), block.getZ()));
+        BeaconObj beacon = getRegister().getBaseBlockBeacon(block.getX(), block.getZ());
         if (beacon == null || beacon.getOwnership() == null) {
             return;
         }
@@ -580,7 +579,7 @@ public class BeaconPassiveDefenseListener extends BeaconzPluginDependent impleme
             //getLogger().info("DEBUG: not right world");
             return;
         }
-        if (getRegister().isAboveBeacon(event.getToBlock().getLocation())) {
+        if (getRegister().isAboveBeacon(event.getToBlock())) {
             event.setCancelled(true);
             //getLogger().info("DEBUG: stopping flow");
         }
@@ -29,7 +29,6 @@ import java.util.UUID;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Arrow;
@@ -45,8 +44,6 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.vehicle.VehicleMoveEvent;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.PotionMeta;
@@ -65,7 +62,7 @@ import com.wasteofplastic.beaconz.DefenseBlock;
  * @author tastybento
  *
  */
-public class BeaconProjectileDefenseListener extends BeaconzPluginDependent implements Listener {
+public class BeaconProjectileDefenseListener extends BeaconzPluginDependent implements Listener, MoveConsumer {
     private static final int RANGE = 10;
     private HashMap<UUID, Team> projectiles = new HashMap<UUID, Team>();
     /**
@@ -138,25 +135,16 @@ public class BeaconProjectileDefenseListener extends BeaconzPluginDependent impl
     }
 
     /**
-     * Check if player comes within range of a beacon
-     * @param event
+     * Check if player, or a vehicle with a player in it, comes within range of a beacon
+     * @param move
      */
-    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
-    public void onPlayerMove(PlayerMoveEvent event) {
-        // Remember that teleporting is not detected as player movement..
-        // If we want to catch movement by teleportation, we have to keep track of the players to-from by ourselves
+    @Override
+    public boolean onMove(MoveContext move) {
         // Only proceed if there's been a move, not just a head move
-        if (event.getFrom().getBlockX() == event.getTo().getBlockX() && event.getFrom().getBlockY() == event.getTo().getBlockY()
-                && event.getFrom().getBlockZ() == event.getTo().getBlockZ()) {
-            return;
+        if (move.isNewBlock()) {
+            fireOnPlayer(move);
         }
-        World world = event.getTo().getWorld();
-        if (!world.equals(getBeaconzWorld())) {
-            return;
-        }
-
-        Player player = event.getPlayer();
-        fireOnPlayer(player, event.getFrom(), event.getTo());
+        return false;
     }
 
     /**
@@ -300,44 +288,19 @@ public class BeaconProjectileDefenseListener extends BeaconzPluginDependent impl
         }
     }
 
-    /**
-     * Check if player comes within range of a beacon
-     * @param event
-     */
-    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
-    public void onVehicleMove(VehicleMoveEvent event) {
-        // Remember that teleporting is not detected as player movement..
-        // If we want to catch movement by teleportation, we have to keep track of the players to-from by ourselves
-        // Only proceed if there's been a move, not just a head move
-        if (event.getFrom().getBlockX() == event.getTo().getBlockX() && event.getFrom().getBlockY() == event.getTo().getBlockY()
-                && event.getFrom().getBlockZ() == event.getTo().getBlockZ()) {
-            return;
-        }
-        World world = event.getTo().getWorld();
-        if (!world.equals(getBeaconzWorld())) {
-            return;
-        }
-        if (event.getVehicle().getPassenger() == null) {
-            return;
-        }
-        if (!(event.getVehicle().getPassenger() instanceof Player)) {
-            return;
-        }
-        Player player = (Player)event.getVehicle().getPassenger();
-        fireOnPlayer(player, event.getFrom(), event.getTo());
-    }
-
-    private void fireOnPlayer(Player player, Location from, Location to) {
+    private void fireOnPlayer(MoveContext move) {
         // Nothing from here on applies to Lobby...
-        if (getGameMgr().isPlayerInLobby(player)) {
+        if (move.isInLobby()) {
             return;
         }
         // Check if player is in a team
-        Team team = getGameMgr().getPlayerTeam(player);
+        Team team = move.getTeam();
         if (team == null) {
             return;
         }
-        for (BeaconObj beacon : getRegister().getNearbyBeacons(to, RANGE)) {
+        Location from = move.getFrom();
+        Location to = move.getTo();
+        for (BeaconObj beacon : move.getNearbyBeacons(RANGE)) {
             // Only deal with enemy-owned beacons
             if (beacon.getOwnership() != null && !beacon.getOwnership().equals(team)) {
                 // Offensive beacon
@@ -282,7 +282,7 @@ public class BeaconProtectionListener extends BeaconzPluginDependent implements
             event.setCancelled(true);
             event.getPlayer().sendMessage(ChatColor.RED + Lang.beaconCannotPlaceLiquids);
         }
-        if (getRegister().isAboveBeacon(b.getLocation())) {
+        if (getRegister().isAboveBeacon(b)) {
             event.setCancelled(true);
             event.getPlayer().sendMessage(ChatColor.RED + Lang.beaconCannotPlaceLiquids);
         }
@@ -314,7 +314,7 @@ public class BeaconProtectionListener extends BeaconzPluginDependent implements
         Block b = event.getBlock().getRelative(dispenser.getFacing());
         if (DEBUG)
             getLogger().info("DEBUG: " + b.getLocation());
-        if (getRegister().isAboveBeacon(b.getLocation())) {
+        if (getRegister().isAboveBeacon(b)) {
             world.playSound(b.getLocation(), Sound.BLOCK_STONE_BREAK, 1F, 2F);
             event.setCancelled(true);
         }
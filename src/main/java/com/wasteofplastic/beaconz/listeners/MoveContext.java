@@ -0,0 +1,204 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz.listeners;
+
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
+import org.bukkit.scoreboard.Team;
+
+import com.wasteofplastic.beaconz.BeaconObj;
+import com.wasteofplastic.beaconz.Beaconz;
+import com.wasteofplastic.beaconz.BeaconzPluginDependent;
+import com.wasteofplastic.beaconz.Game;
+import com.wasteofplastic.beaconz.Region;
+import com.wasteofplastic.beaconz.TriangleField;
+
+/**
+ * Everything the movement consumers want to know about one move. Each value is looked up the first
+ * time a consumer asks for it and then kept, so however many consumers need it, it is only looked up
+ * once per move.
+ *
+ */
+public class MoveContext extends BeaconzPluginDependent {
+
+    private final Player player;
+    private final Location from;
+    private final Location to;
+    private final Vehicle vehicle;
+
+    private Region regionFrom;
+    private Region regionTo;
+    private boolean regionFromFound;
+    private boolean regionToFound;
+    private Boolean inLobby;
+    private Game game;
+    private boolean gameFound;
+    private Team team;
+    private boolean teamFound;
+    private List<BeaconObj> nearbyBeacons;
+    private int nearbyRange;
+    private List<TriangleField> trianglesFrom;
+    private List<TriangleField> trianglesTo;
+
+    /**
+     * @param plugin
+     * @param player - player moving
+     * @param from
+     * @param to
+     * @param vehicle - vehicle the player is moving in, or null
+     */
+    public MoveContext(Beaconz plugin, Player player, Location from, Location to, Vehicle vehicle) {
+        super(plugin);
+        this.player = player;
+        this.from = from;
+        this.to = to;
+        this.vehicle = vehicle;
+    }
+
+    /**
+     * @return the player moving
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    public Location getFrom() {
+        return from;
+    }
+
+    public Location getTo() {
+        return to;
+    }
+
+    /**
+     * @return the vehicle the player is moving in, or null if the player is moving by themselves
+     */
+    public Vehicle getVehicle() {
+        return vehicle;
+    }
+
+    /**
+     * @return true if the move crossed into another block along x or z
+     */
+    public boolean isNewBlockXZ() {
+        return from.getBlockX() != to.getBlockX() || from.getBlockZ() != to.getBlockZ();
+    }
+
+    /**
+     * @return true if the move crossed into another block along any axis
+     */
+    public boolean isNewBlock() {
+        return isNewBlockXZ() || from.getBlockY() != to.getBlockY();
+    }
+
+    /**
+     * @return region the move started in, or null
+     */
+    public Region getRegionFrom() {
+        if (!regionFromFound) {
+            regionFrom = getGameMgr().getRegion(from);
+            regionFromFound = true;
+        }
+        return regionFrom;
+    }
+
+    /**
+     * @return region the move ends in, or null
+     */
+    public Region getRegionTo() {
+        if (!regionToFound) {
+            regionTo = getGameMgr().getRegion(to);
+            regionToFound = true;
+        }
+        return regionTo;
+    }
+
+    /**
+     * @return true if the player is in the lobby
+     */
+    public boolean isInLobby() {
+        if (inLobby == null) {
+            inLobby = getGameMgr().isPlayerInLobby(player);
+        }
+        return inLobby;
+    }
+
+    /**
+     * @return game the move ends in, or null
+     */
+    public Game getGame() {
+        if (!gameFound) {
+            game = getRegionTo() == null ? null : getGameMgr().getGame(getRegionTo());
+            gameFound = true;
+        }
+        return game;
+    }
+
+    /**
+     * Gets the player's team. Note that like {@link com.wasteofplastic.beaconz.GameMgr#getPlayerTeam(Player)}
+     * this sends players without a team back to the lobby.
+     * @return the player's team, or null
+     */
+    public Team getTeam() {
+        if (!teamFound) {
+            team = getGameMgr().getPlayerTeam(player);
+            teamFound = true;
+        }
+        return team;
+    }
+
+    /**
+     * @param range
+     * @return beacons within range of where the move ends
+     */
+    public List<BeaconObj> getNearbyBeacons(int range) {
+        if (nearbyBeacons == null || nearbyRange != range) {
+            nearbyBeacons = getRegister().getNearbyBeacons(to, range);
+            nearbyRange = range;
+        }
+        return nearbyBeacons;
+    }
+
+    /**
+     * @return triangles covering the block the move started in
+     */
+    public List<TriangleField> getTrianglesFrom() {
+        if (trianglesFrom == null) {
+            trianglesFrom = getRegister().getTriangle(from.getBlockX(), from.getBlockZ());
+        }
+        return trianglesFrom;
+    }
+
+    /**
+     * @return triangles covering the block the move ends in
+     */
+    public List<TriangleField> getTrianglesTo() {
+        if (trianglesTo == null) {
+            trianglesTo = getRegister().getTriangle(to.getBlockX(), to.getBlockZ());
+        }
+        return trianglesTo;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz.listeners;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+import com.wasteofplastic.beaconz.Beaconz;
+import com.wasteofplastic.beaconz.BeaconzPluginDependent;
+
+/**
+ * Listens to player and vehicle moves in the Beaconz world and hands each one to the registered
+ * {@link MoveConsumer}s, in the order they were added. The details of the move are shared between
+ * the consumers through one {@link MoveContext}.
+ *
+ */
+public class MoveDispatcher extends BeaconzPluginDependent implements Listener {
+
+    private final List<MoveConsumer> consumers = new ArrayList<MoveConsumer>();
+
+    public MoveDispatcher(Beaconz plugin) {
+        super(plugin);
+    }
+
+    /**
+     * Adds a consumer that will be told about moves after the ones already added
+     * @param consumer
+     */
+    public void addConsumer(MoveConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * Handle player movement
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        // Remember that teleporting is not detected as player movement..
+        // Only proceed if there's been a move, not just a head move
+        if (event.getFrom().getBlockX() == event.getTo().getBlockX() && event.getFrom().getBlockY() == event.getTo().getBlockY()
+                && event.getFrom().getBlockZ() == event.getTo().getBlockZ()) {
+            return;
+        }
+        if (!event.getTo().getWorld().equals(getBeaconzWorld())) {
+            return;
+        }
+        MoveContext move = new MoveContext(getBeaconzPlugin(), event.getPlayer(), event.getFrom(), event.getTo(), null);
+        for (MoveConsumer consumer : consumers) {
+            if (consumer.onMove(move)) {
+                event.setCancelled(true);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles movement inside a vehicle (or on a vehicle)
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
+    public void onVehicleMove(VehicleMoveEvent event) {
+        if (!event.getVehicle().getWorld().equals(getBeaconzWorld())) {
+            return;
+        }
+        Entity passenger = event.getVehicle().getPassenger();
+        if (!(passenger instanceof Player)) {
+            return;
+        }
+        MoveContext move = new MoveContext(getBeaconzPlugin(), (Player)passenger, event.getFrom(), event.getTo(), event.getVehicle());
+        for (MoveConsumer consumer : consumers) {
+            consumer.onMove(move);
+        }
+    }
+}
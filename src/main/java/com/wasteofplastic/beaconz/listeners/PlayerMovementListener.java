@@ -22,6 +22,7 @@
 
 package com.wasteofplastic.beaconz.listeners;
 
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,21 +34,19 @@ import java.util.UUID;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
-import org.bukkit.World;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.PlayerLeashEntityEvent;
 import org.bukkit.event.hanging.HangingPlaceEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerShearEntityEvent;
 import org.bukkit.event.vehicle.VehicleDamageEvent;
-import org.bukkit.event.vehicle.VehicleMoveEvent;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
 import org.bukkit.scoreboard.Team;
@@ -65,10 +64,52 @@ import com.wasteofplastic.beaconz.TriangleField;
  * @author tastybento
  *
  */
-public class PlayerMovementListener extends BeaconzPluginDependent implements Listener {
+public class PlayerMovementListener extends BeaconzPluginDependent implements Listener, MoveConsumer {
 
     private HashMap<UUID, Collection<PotionEffect>> triangleEffects = new HashMap<UUID, Collection<PotionEffect>>();
     private Set<UUID> barrierPlayers = new HashSet<UUID>();
+    /**
+     * How close to a region edge the barrier is shown
+     */
+    private static final int BARRIER_DISTANCE = 20;
+    /**
+     * What was last found out about where each player is
+     */
+    private HashMap<UUID, MoveState> moveStates = new HashMap<UUID, MoveState>();
+    private long moveCacheHits = 0;
+    private long moveCacheMisses = 0;
+
+    /**
+     * The region and triangles at a player's last position, and a rectangle around it inside which
+     * neither can change and no barrier needs showing. Only good while the register and regions are
+     * the same as when it was made.
+     */
+    private static class MoveState {
+        private final boolean inLobby;
+        private final List<TriangleField> triangles;
+        private final int minX;
+        private final int minZ;
+        private final int maxX;
+        private final int maxZ;
+        private final long modCount;
+        private final int regionsChanged;
+
+        MoveState(boolean inLobby, List<TriangleField> triangles, int minX, int minZ, int maxX, int maxZ,
+                long modCount, int regionsChanged) {
+            this.inLobby = inLobby;
+            this.triangles = triangles;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.modCount = modCount;
+            this.regionsChanged = regionsChanged;
+        }
+
+        boolean contains(Location loc) {
+            return loc.getBlockX() >= minX && loc.getBlockX() <= maxX && loc.getBlockZ() >= minZ && loc.getBlockZ() <= maxZ;
+        }
+    }
 
     public PlayerMovementListener(Beaconz plugin) {
         super(plugin);
@@ -160,86 +201,100 @@ public class PlayerMovementListener extends BeaconzPluginDependent implements Li
     }
 
     /**
-     * Handles movement inside a vehicle (or on a vehicle)
-     * @param event
+     * Handles player movement, by themselves or in a vehicle
+     * @param move
+     * @return true if the move should be canceled
      */
-    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
-    public void onVehicleMove(final VehicleMoveEvent event) {
-        if (!event.getVehicle().getWorld().equals(getBeaconzWorld())) {
-            return;
+    @Override
+    public boolean onMove(MoveContext move) {
+        if (move.getVehicle() != null) {
+            onVehicleMove(move);
+            return false;
         }
-        // Check if a player is in it
-        Entity passenger = event.getVehicle().getPassenger();
-        if (passenger != null && passenger instanceof Player) {
-            Player player = (Player)passenger;
-            Location from = event.getFrom();
-            Location to = event.getTo();
-            /*
-            if (checkMove(player, event.getVehicle().getWorld(), from, to)) {
-                // Vehicle should stop moving
-                Vector direction = event.getVehicle().getLocation().getDirection();
-                event.getVehicle().teleport(event.getVehicle().getLocation().add(from.toVector().subtract(to.toVector()).normalize()));
-                event.getVehicle().getLocation().setDirection(direction);
-                event.getVehicle().setVelocity(new Vector(0,0,0));
-            }*/
-            // Check potion effects for boats etc.
-            if ((!(event.getVehicle() instanceof LivingEntity))) {
-                for (PotionEffect effect : getPml().getTriangleEffects(player.getUniqueId())) {
-                    if (effect.getType().equals(PotionEffectType.SLOW)) {
-                        double delay = effect.getAmplifier();
-                        event.getVehicle().setVelocity(event.getVehicle().getVelocity().divide(new Vector(delay,delay,delay)));
-                        break;
-                    }
+        // Remember that teleporting is not detected as player movement..
+        // If we want to catch movement by teleportation, we have to keep track of the players to-from by ourselves
+        // Only proceed if there's been a change in X or Z coords
+        if (!move.isNewBlockXZ()) {
+            return false;
+        }
+        return checkMove(move);
+    }
+
+    /**
+     * Handles movement inside a vehicle (or on a vehicle)
+     * @param move
+     */
+    private void onVehicleMove(MoveContext move) {
+        Vehicle vehicle = move.getVehicle();
+        Player player = move.getPlayer();
+        Location from = move.getFrom();
+        Location to = move.getTo();
+        /*
+        if (checkMove(move)) {
+            // Vehicle should stop moving
+            Vector direction = vehicle.getLocation().getDirection();
+            vehicle.teleport(vehicle.getLocation().add(from.toVector().subtract(to.toVector()).normalize()));
+            vehicle.getLocation().setDirection(direction);
+            vehicle.setVelocity(new Vector(0,0,0));
+        }*/
+        // Check potion effects for boats etc.
+        if ((!(vehicle instanceof LivingEntity))) {
+            for (PotionEffect effect : getTriangleEffects(player.getUniqueId())) {
+                if (effect.getType().equals(PotionEffectType.SLOW)) {
+                    double delay = effect.getAmplifier();
+                    vehicle.setVelocity(vehicle.getVelocity().divide(new Vector(delay,delay,delay)));
+                    break;
                 }
             }
-            // Check if there are any other passengers
-            for (Player pl : getBeaconzWorld().getPlayers()) {
-                if (!pl.equals(player) && pl.isInsideVehicle() && pl.getVehicle().getEntityId() == event.getVehicle().getEntityId()) {
-                    //getLogger().info(pl.getName() + " inside vehicle of id " + pl.getVehicle().getEntityId());
-                    //getLogger().info("Event id = " + event.getVehicle().getEntityId());
-                    checkMove(pl, event.getVehicle().getWorld(), from, to);
-                }
+        }
+        // Check if there are any other passengers
+        for (Player pl : getBeaconzWorld().getPlayers()) {
+            if (!pl.equals(player) && pl.isInsideVehicle() && pl.getVehicle().getEntityId() == vehicle.getEntityId()) {
+                //getLogger().info(pl.getName() + " inside vehicle of id " + pl.getVehicle().getEntityId());
+                //getLogger().info("Event id = " + vehicle.getEntityId());
+                checkMove(new MoveContext(getBeaconzPlugin(), pl, from, to, vehicle));
             }
         }
     }
 
     /**
-     * Handle player movement
+     * Forgets what is known about where a player is
      * @param event
      */
-    @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
-    public void onPlayerMove(PlayerMoveEvent event) {
-        // Remember that teleporting is not detected as player movement..
-        // If we want to catch movement by teleportation, we have to keep track of the players to-from by ourselves
-        // Only proceed if there's been a change in X or Z coords
-        if (event.getFrom().getBlockX() == event.getTo().getBlockX() && event.getFrom().getBlockZ() == event.getTo().getBlockZ()) {
-            return;
-        }
-        World world = event.getTo().getWorld();
-        if (!world.equals(getBeaconzWorld())) {
-            return;
-        }
-        Player player = event.getPlayer();
-        Location from = event.getFrom();
-        Location to = event.getTo();
-        event.setCancelled(checkMove(player, world, from, to));
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        moveStates.remove(event.getPlayer().getUniqueId());
     }
 
     /**
      * Handles checking of player movement.
-     * @param player
-     * @param world
-     * @param from
-     * @param to
+     * @param move
      * @return true if the event should be canceled
      */
-    private boolean checkMove(Player player, World world, Location from, Location to) {
-        Region regionFrom = getGameMgr().getRegion(from);
-        Region regionTo = getGameMgr().getRegion(to);
+    private boolean checkMove(MoveContext move) {
+        Player player = move.getPlayer();
+        Location from = move.getFrom();
+        Location to = move.getTo();
+        // Moves that stay inside the rectangle worked out last time need no lookups
+        MoveState state = moveStates.get(player.getUniqueId());
+        if (state != null && state.modCount == getRegister().getModCount() && state.regionsChanged == getGameMgr().getRegionsChanged()
+                && state.contains(from) && state.contains(to)) {
+            moveCacheHits++;
+            if (state.inLobby) {
+                removeLobbyEffects(player);
+                return false;
+            }
+            return applyTriangleEffects(player, state.triangles, state.triangles, move.getTeam());
+        }
+        moveCacheMisses++;
+        moveStates.remove(player.getUniqueId());
+
+        Region regionFrom = move.getRegionFrom();
+        Region regionTo = move.getRegionTo();
 
         // Check if a player is close to a barrier
         if (regionFrom != null) {
-            regionFrom.showBarrier(player, 20);
+            regionFrom.showBarrier(player, BARRIER_DISTANCE);
         }
 
         // Check if player is trying to leave a region by moving over a region boundary
@@ -282,17 +337,11 @@ public class PlayerMovementListener extends BeaconzPluginDependent implements Li
         }
 
         // Nothing from here on applies to Lobby...
-        if (getGameMgr().isPlayerInLobby(player)) {
-            for (PotionEffect effect : player.getActivePotionEffects()) {
-                player.removePotionEffect(effect.getType());
-                // Check vehicle
-                if (player.isInsideVehicle() && player.getVehicle() instanceof LivingEntity) {                    
-                    //getLogger().info("DEBUG: living vehicle remove");
-                    LivingEntity le = (LivingEntity)player.getVehicle();
-                    le.removePotionEffect(effect.getType());
-                }
+        if (move.isInLobby()) {
+            if (regionTo == getGameMgr().getLobby()) {
+                rememberMove(player, to, regionTo, true, null);
             }
-            triangleEffects.remove(player.getUniqueId());
+            removeLobbyEffects(player);
             return false;
         }
         // Check if a player is standing on an enemy beacon
@@ -304,10 +353,76 @@ public class PlayerMovementListener extends BeaconzPluginDependent implements Li
             BeaconProtectionListener.getStandingOn().remove(player.getUniqueId());
         }*/
         // Check the From
-        List<TriangleField> fromTriangle = getRegister().getTriangle(from.getBlockX(), from.getBlockZ());
+        List<TriangleField> fromTriangle = move.getTrianglesFrom();
         // Check the To
-        List<TriangleField> toTriangle = getRegister().getTriangle(to.getBlockX(), to.getBlockZ());
-        return applyTriangleEffects(player, fromTriangle, toTriangle);
+        List<TriangleField> toTriangle = move.getTrianglesTo();
+        if (regionTo != null && regionTo != getGameMgr().getLobby()) {
+            rememberMove(player, to, regionTo, false, toTriangle);
+        }
+        return applyTriangleEffects(player, fromTriangle, toTriangle, move.getTeam());
+    }
+
+    /**
+     * Works out the rectangle around a location where the region and triangles stay the same and no
+     * barrier is shown, and remembers it for the player's next moves
+     * @param player
+     * @param to - where the player is moving to
+     * @param region - region at to
+     * @param inLobby - region is the lobby
+     * @param triangles - triangles at to, or null in the lobby
+     */
+    private void rememberMove(Player player, Location to, Region region, boolean inLobby, List<TriangleField> triangles) {
+        Point2D[] corners = region.corners();
+        int minX = (int)corners[0].getX() + BARRIER_DISTANCE;
+        int minZ = (int)corners[0].getY() + BARRIER_DISTANCE;
+        int maxX = (int)corners[1].getX() - BARRIER_DISTANCE;
+        int maxZ = (int)corners[1].getY() - BARRIER_DISTANCE;
+        if (!inLobby) {
+            int[] bounds = new int[4];
+            if (!getRegister().getUniformTriangleArea(to.getBlockX(), to.getBlockZ(), bounds)) {
+                return;
+            }
+            minX = Math.max(minX, bounds[0]);
+            minZ = Math.max(minZ, bounds[1]);
+            maxX = Math.min(maxX, bounds[2]);
+            maxZ = Math.min(maxZ, bounds[3]);
+        }
+        MoveState state = new MoveState(inLobby, triangles, minX, minZ, maxX, maxZ,
+                getRegister().getModCount(), getGameMgr().getRegionsChanged());
+        if (state.contains(to)) {
+            moveStates.put(player.getUniqueId(), state);
+        }
+    }
+
+    /**
+     * Removes all potion effects from a player in the lobby
+     * @param player
+     */
+    private void removeLobbyEffects(Player player) {
+        for (PotionEffect effect : player.getActivePotionEffects()) {
+            player.removePotionEffect(effect.getType());
+            // Check vehicle
+            if (player.isInsideVehicle() && player.getVehicle() instanceof LivingEntity) {                    
+                //getLogger().info("DEBUG: living vehicle remove");
+                LivingEntity le = (LivingEntity)player.getVehicle();
+                le.removePotionEffect(effect.getType());
+            }
+        }
+        triangleEffects.remove(player.getUniqueId());
+    }
+
+    /**
+     * @return number of player moves that were handled from the movement cache
+     */
+    public long getMoveCacheHits() {
+        return moveCacheHits;
+    }
+
+    /**
+     * @return number of player moves that needed the region and triangles looking up
+     */
+    public long getMoveCacheMisses() {
+        return moveCacheMisses;
     }
 
     /**
@@ -320,7 +435,19 @@ public class PlayerMovementListener extends BeaconzPluginDependent implements Li
     public boolean applyTriangleEffects(Player player,
             List<TriangleField> fromTriangles, List<TriangleField> toTriangles) {
         // Get the player's team
-        Team team = getGameMgr().getPlayerTeam(player);
+        return applyTriangleEffects(player, fromTriangles, toTriangles, getGameMgr().getPlayerTeam(player));
+    }
+
+    /**
+     * Correctly affect a player with potions
+     * @param player
+     * @param fromTriangles - list of triangles player is covered by
+     * @param toTriangles - list of new triangles player is covered by
+     * @param team - the player's team
+     * @return true if the event should be canceled
+     */
+    private boolean applyTriangleEffects(Player player,
+            List<TriangleField> fromTriangles, List<TriangleField> toTriangles, Team team) {
         if (team == null) {
             if (player.isOp()) {
                 return false;
@@ -22,6 +22,9 @@
 
 package com.wasteofplastic.beaconz.listeners;
 
+import java.awt.geom.Point2D;
+
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.Sign;
@@ -62,9 +65,9 @@ public class WorldListener extends BeaconzPluginDependent implements Listener {
     
     /**
      * When a chunk is loaded in the world, we check if it needs to be populated with beacons
-     * The block at ch(0,0,0) is a sign that has a game's CreateTime
-     * If the sign's info doesn't match the current game's CreateTime, the chunk needs to be populated
-     * After a chunk is populated, we update the sign
+     * The chunk index records the CreateTime of the game each chunk was last populated for
+     * If that doesn't match the current game's CreateTime, the chunk needs to be populated
+     * After a chunk is populated, we update the index
      * @param event
      */
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled=true)
@@ -91,12 +94,8 @@ public class WorldListener extends BeaconzPluginDependent implements Listener {
                 getBlockPopulator().populate(event.getWorld(), null, event.getChunk());
             
                 // Set the chunk's ID
-                String gCT = " " + getGameMgr().getGame(cX, cZ).getCreateTime().toString();
-                Block bl = event.getChunk().getBlock(7, 1, 7);
-                bl.setType(Material.WALL_SIGN, false);
-                Sign sign = (Sign) bl.getState();
-                sign.setLine(0, gCT);
-                sign.update();  
+                getGameMgr().getChunkIndex().setEpoch(getGameMgr().getRegion(cX, cZ).corners(),
+                        event.getChunk().getX(), event.getChunk().getZ(), getGameMgr().getGame(cX, cZ).getCreateTime());
                 
             } else {
                 // Check if it's a game chunk and if it needs to be regenerated
@@ -105,21 +104,18 @@ public class WorldListener extends BeaconzPluginDependent implements Listener {
                         && getGameMgr().getGame(cX, cZ) != null
                         && getGameMgr().getRegion(cX, cZ) != getGameMgr().getLobby()) {                    
                     
-                    // It's a game chunk, see if it needs to be regenerated - compare the chunk ID sign to the game's Create Time            
-                    Block bl = event.getChunk().getBlock(7, 1, 7);
-                    String gCT = " " + getGameMgr().getGame(cX, cZ).getCreateTime().toString();   
+                    // It's a game chunk, see if it needs to be regenerated - compare the chunk's ID to the game's Create Time            
+                    Point2D[] corners = getGameMgr().getRegion(cX, cZ).corners();
+                    long createTime = getGameMgr().getGame(cX, cZ).getCreateTime();
+                    long epoch = getGameMgr().getChunkIndex().getEpoch(corners, event.getChunk().getX(), event.getChunk().getZ());
                     
-                    // Check the chunk's ID sign
-                    if (!bl.getType().equals(Material.WALL_SIGN)) {
-                        // There's no sign, it must be the first time the game is being loaded; let's regen
-                        regen = true;
-                        
-                    } else {                
-                        // Block 0,1,0 contains a sign, check if it matches game creation time
-                        Sign sign = (Sign) bl.getState();                    
-                        if (!sign.getLine(0).equals(gCT)) {
+                    if (epoch != createTime) {
+                        if (epoch == 0L && hasIdSign(event.getChunk(), createTime)) {
+                            // Populated before the index was kept - move the ID over to the index
+                            getGameMgr().getChunkIndex().setEpoch(corners, event.getChunk().getX(), event.getChunk().getZ(), createTime);
+                        } else {
                             // Need to regenerate the chunk
-                            regen = true;                                      
+                            regen = true;
                         }
                     }
                     
@@ -134,4 +130,19 @@ public class WorldListener extends BeaconzPluginDependent implements Listener {
             }                                 
         }
     }       
+
+    /**
+     * Older versions marked populated chunks with a sign at 7,1,7 holding the game's CreateTime
+     * @param chunk
+     * @param createTime
+     * @return true if the chunk has the sign for this game
+     */
+    private boolean hasIdSign(Chunk chunk, long createTime) {
+        Block bl = chunk.getBlock(7, 1, 7);
+        if (!bl.getType().equals(Material.WALL_SIGN)) {
+            return false;
+        }
+        Sign sign = (Sign) bl.getState();
+        return sign.getLine(0).equals(" " + createTime);
+    }
 }
@@ -0,0 +1,248 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz.map;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bukkit.material.MaterialData;
+import org.bukkit.scoreboard.Team;
+
+import com.wasteofplastic.beaconz.Beaconz;
+import com.wasteofplastic.beaconz.BeaconzPluginDependent;
+import com.wasteofplastic.beaconz.Game;
+import com.wasteofplastic.beaconz.Settings;
+
+/**
+ * Cache of finished 128 x 128 pixel territory tiles, shared by all maps.
+ * <p>
+ * Tiles are on a grid of map pixels for each map scale, so maps that look at the same area at the
+ * same scale use the same tiles. A tile is only made again after a triangle that reaches into it is
+ * added or removed, so a change elsewhere in the game leaves it cached. When the four
+ * tiles under it at the next closer scale are already made, a tile is built by taking every other
+ * pixel from them instead of reading the raster. The least recently used tiles are dropped when the
+ * cache goes over its memory budget.
+ *
+ */
+public class MapTileCache extends BeaconzPluginDependent {
+
+    static final int TILE_SHIFT = 7;
+    static final int TILE_PIXELS = 1 << TILE_SHIFT;
+    /**
+     * Memory used by one tile
+     */
+    private static final int TILE_BYTES = TILE_PIXELS * TILE_PIXELS * 2;
+    /**
+     * Pixel is outside the tile's game
+     */
+    static final byte OUTSIDE = 0;
+    /**
+     * Pixel is in the game but not owned
+     */
+    static final byte UNOWNED = 1;
+    /**
+     * Pixel is owned, the color says by who
+     */
+    static final byte OWNED = 2;
+
+    private final TerritoryRaster raster;
+    private final LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(64, 0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, Tile> eldest) {
+            return (long)size() * TILE_BYTES > getBudget();
+        }
+    };
+
+    public MapTileCache(Beaconz beaconzPlugin, TerritoryRaster raster) {
+        super(beaconzPlugin);
+        this.raster = raster;
+    }
+
+    private long getBudget() {
+        return Math.max(1, Settings.mapTileCacheSize) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets a tile, making it if it is not cached
+     * @param game
+     * @param tileX - tile column, in tiles at this scale
+     * @param tileZ - tile row, in tiles at this scale
+     * @param scale - map scale, 0 is one block per pixel
+     * @return tile
+     */
+    public Tile getTile(Game game, int tileX, int tileZ, int scale) {
+        TileKey key = new TileKey(game, tileX, tileZ, scale);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = build(key);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Drops a game's tiles at every scale that overlap an area. Called by the raster when it throws
+     * away its own tiles.
+     * @param game
+     * @param minX - lowest block x
+     * @param minZ - lowest block z
+     * @param maxX - highest block x
+     * @param maxZ - highest block z
+     */
+    public void invalidate(Game game, int minX, int minZ, int maxX, int maxZ) {
+        Iterator<TileKey> it = tiles.keySet().iterator();
+        while (it.hasNext()) {
+            TileKey key = it.next();
+            // Blocks covered by one tile at this scale
+            int shift = TILE_SHIFT + key.scale;
+            if (key.game.equals(game) && key.tileX >= minX >> shift && key.tileX <= maxX >> shift
+                    && key.tileZ >= minZ >> shift && key.tileZ <= maxZ >> shift) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the tiles for a game
+     * @param game
+     */
+    public void clear(Game game) {
+        Iterator<TileKey> it = tiles.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().game.equals(game)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all tiles
+     */
+    public void clear() {
+        tiles.clear();
+    }
+
+    /**
+     * @return number of tiles cached
+     */
+    public int size() {
+        return tiles.size();
+    }
+
+    private Tile build(TileKey key) {
+        Tile tile = new Tile();
+        if (key.scale > 0 && downsample(key, tile)) {
+            return tile;
+        }
+        int multiplier = 1 << key.scale;
+        TerritoryRaster.GameRaster gameRaster = raster.getRaster(key.game);
+        for (int j = 0; j < TILE_PIXELS; j++) {
+            int z = (key.tileZ * TILE_PIXELS + j) * multiplier;
+            for (int i = 0; i < TILE_PIXELS; i++) {
+                int x = (key.tileX * TILE_PIXELS + i) * multiplier;
+                int index = j * TILE_PIXELS + i;
+                if (!key.game.getRegion().containsPoint(x, z)) {
+                    continue;
+                }
+                Team owner = gameRaster.getOwner(x, z);
+                MaterialData block = owner == null ? null : key.game.getScorecard().getBlockID(owner);
+                if (block == null) {
+                    tile.states[index] = UNOWNED;
+                } else {
+                    tile.states[index] = OWNED;
+                    @SuppressWarnings("deprecation")
+                    byte glassColor = block.getData();
+                    tile.colors[index] = TerritoryMapRenderer.getMapPaletteColorForTeam(glassColor, gameRaster.getDepth(x, z));
+                }
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Fills the tile from the four cached tiles at the next closer scale
+     * @return false if they are not all cached
+     */
+    private boolean downsample(TileKey key, Tile tile) {
+        Tile[] children = new Tile[4];
+        for (int c = 0; c < 4; c++) {
+            Tile child = tiles.get(new TileKey(key.game, key.tileX * 2 + (c & 1), key.tileZ * 2 + (c >> 1), key.scale - 1));
+            if (child == null) {
+                return false;
+            }
+            children[c] = child;
+        }
+        for (int j = 0; j < TILE_PIXELS; j++) {
+            for (int i = 0; i < TILE_PIXELS; i++) {
+                // Pixel i,j covers the same block as pixel 2i,2j one scale closer
+                Tile child = children[(i * 2 >= TILE_PIXELS ? 1 : 0) + (j * 2 >= TILE_PIXELS ? 2 : 0)];
+                int childIndex = (j * 2 % TILE_PIXELS) * TILE_PIXELS + (i * 2 % TILE_PIXELS);
+                tile.states[j * TILE_PIXELS + i] = child.states[childIndex];
+                tile.colors[j * TILE_PIXELS + i] = child.colors[childIndex];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Territory pixels of one tile
+     */
+    public static class Tile {
+        final byte[] states = new byte[TILE_PIXELS * TILE_PIXELS];
+        final byte[] colors = new byte[TILE_PIXELS * TILE_PIXELS];
+    }
+
+    private static class TileKey {
+        private final Game game;
+        private final int tileX;
+        private final int tileZ;
+        private final int scale;
+
+        TileKey(Game game, int tileX, int tileZ, int scale) {
+            this.game = game;
+            this.tileX = tileX;
+            this.tileZ = tileZ;
+            this.scale = scale;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = game.hashCode();
+            result = 31 * result + tileX;
+            result = 31 * result + tileZ;
+            result = 31 * result + scale;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof TileKey)) return false;
+            TileKey other = (TileKey) obj;
+            return game.equals(other.game) && tileX == other.tileX && tileZ == other.tileZ && scale == other.scale;
+        }
+    }
+}
@@ -2,14 +2,12 @@ package com.wasteofplastic.beaconz.map;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.bukkit.Color;
 import org.bukkit.DyeColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -26,7 +24,6 @@ import com.wasteofplastic.beaconz.BeaconObj;
 import com.wasteofplastic.beaconz.Beaconz;
 import com.wasteofplastic.beaconz.Game;
 import com.wasteofplastic.beaconz.Scorecard;
-import com.wasteofplastic.beaconz.TriangleField;
 
 /**
  * Overlays all beacons, links, and triangles onto a map. Overlapping triangles make progressively darker colors.
@@ -43,9 +40,21 @@ public class TerritoryMapRenderer extends MapRenderer {
     private final Beaconz beaconz;
     private int tick = 0;
 
-    // todo: cache needs to be reset whenever the scale of a map changes
-    private Map<Point2D, CachedBeacon> beaconRegisterCache; // to detect if beacons have changed since last render (re-computing triangle fields is not cheap)
-    private Byte[][] pixelCache = new Byte[128][]; // last render
+    // last render, reused between renders
+    private final byte[] pixels = new byte[128 * 128];
+    private final boolean[] painted = new boolean[128 * 128];
+
+    // What the last render was made from. If none of these change, the last render is still right.
+    private MapCoordinateConverter coordConverter;
+    private int centerX;
+    private int centerZ;
+    private MapView.Scale scale;
+    private int gameCount;
+    private List<Game> games = new ArrayList<>();
+    private long renderedModCount = -1L;
+    private boolean renderedUnclaimed;
+    // The canvas is shared by everyone holding the map, so it shows one viewer cursor: whoever caused the last refresh
+    private MapCursor viewerCursor;
 
     public TerritoryMapRenderer(Beaconz beaconz) {
         this.beaconz = beaconz;
@@ -70,27 +79,71 @@ public class TerritoryMapRenderer extends MapRenderer {
             tick++;
             if (tick > TICKS_PER_REFRESH) tick = 0;
             if (tick != 0) return;
-            Map<Point2D, CachedBeacon> newCache = makeBeaconCache();
-            MapCoordinateConverter coordConverter = new MapCoordinateConverter(map);
-            if (beaconRegisterCache != null && beaconRegisterCache.equals(newCache)) {
-                // Beacons haven't changed since we last rendered, so we'll just use the same pixels as last time.
-                renderFromPixelCache(canvas);
-            } else {
-                beaconRegisterCache = newCache;
-                pixelCache = new Byte[128][];
-                renderToPixelCache(coordConverter);
-                renderFromPixelCache(canvas);
+            if (coordConverter == null || map.getCenterX() != centerX || map.getCenterZ() != centerZ || map.getScale() != scale
+                    || beaconz.getGameMgr().getGames().size() != gameCount) {
+                // Map has moved or zoomed, or games have come or gone
+                centerX = map.getCenterX();
+                centerZ = map.getCenterZ();
+                scale = map.getScale();
+                gameCount = beaconz.getGameMgr().getGames().size();
+                coordConverter = new MapCoordinateConverter(map);
+                findGames();
+                renderedModCount = -1L;
+            }
+            long modCount = 0L;
+            for (Game game : games) {
+                modCount = Math.max(modCount, beaconz.getRegister().getModCount(game));
             }
-            // Place beacon cursors
-            setCursors(canvas, coordConverter, canvas.getCursors(), player.hasPermission(MAP_UNCLAIMED_PERMISSION));
+            boolean showUnclaimed = player.hasPermission(MAP_UNCLAIMED_PERMISSION);
+            if (modCount != renderedModCount || showUnclaimed != renderedUnclaimed) {
+                // Something on this map has changed
+                renderedModCount = modCount;
+                renderedUnclaimed = showUnclaimed;
+                List<BeaconObj> beacons = beaconz.getRegister().getTerritoryRaster().getBeacons();
+                Arrays.fill(painted, false);
+                renderToPixelCache(coordConverter, beacons);
+                // Place beacon cursors
+                setCursors(canvas, coordConverter, canvas.getCursors(), showUnclaimed, beacons);
+                viewerCursor = null;
+            }
+            renderFromPixelCache(canvas);
             // Place player cursor
-            int x = coordConverter.blockXToPixelX(player.getLocation().getBlockX());
-            if (x < 0 || x > 127) return;
-            int z = coordConverter.blockZToPixelZ(player.getLocation().getBlockZ());
-            if (z < 0 || z > 127) return;
+            Location location = player.getLocation();
+            int x = coordConverter.blockXToPixelX(location.getBlockX());
+            int z = coordConverter.blockZToPixelZ(location.getBlockZ());
+            if (x < 0 || x > 127 || z < 0 || z > 127) {
+                if (viewerCursor != null) {
+                    viewerCursor.setVisible(false);
+                }
+                return;
+            }
             x = x * 2 - 128; // Pixels range from 0 to 127, but cursors range from -128 to 127. (wtf)
             z = z * 2 - 128;
-            canvas.getCursors().addCursor(x, z, direction(player));
+            if (viewerCursor == null) {
+                viewerCursor = canvas.getCursors().addCursor(x, z, direction(player));
+            } else {
+                viewerCursor.setX((byte)x);
+                viewerCursor.setY((byte)z);
+                viewerCursor.setDirection(direction(player));
+                viewerCursor.setVisible(true);
+            }
+        }
+    }
+
+    /**
+     * Finds the games that the map covers
+     */
+    private void findGames() {
+        int minX = coordConverter.pixelXToBlockX((byte) 0);
+        int minZ = coordConverter.pixelZToBlockZ((byte) 0);
+        int maxX = coordConverter.pixelXToBlockX((byte) 127);
+        int maxZ = coordConverter.pixelZToBlockZ((byte) 127);
+        games.clear();
+        for (Game game : beaconz.getGameMgr().getGames().values()) {
+            Point2D[] corners = game.getRegion().corners();
+            if (corners[0].getX() <= maxX && corners[1].getX() >= minX && corners[0].getY() <= maxZ && corners[1].getY() >= minZ) {
+                games.add(game);
+            }
         }
     }
 
@@ -121,52 +174,38 @@ public class TerritoryMapRenderer extends MapRenderer {
             return null;
         }
     }
-    private void renderToPixelCache(MapCoordinateConverter coordConverter) {
-        // triangles
-        int count = 0;
-        for (int x = 0; x < 128; x++) {
-            for (int z = 0; z < 128; z++) {
-                int xBlock = coordConverter.pixelXToBlockX((byte) x);
-                int zBlock = coordConverter.pixelZToBlockZ((byte) z);
-                count ++;
-                if (count % 3 == 0) {
-                    List<TriangleField> triangles = beaconz.getRegister().getTriangle(xBlock, zBlock);
-                    if (triangles != null && !triangles.isEmpty()) {
-                        TriangleField triangleField = triangles.get(0);
-                        Scorecard scoreCard = beaconz.getGameMgr().getSC(xBlock,zBlock);
-                        if (scoreCard != null) {
-                            MaterialData materialData = scoreCard.getBlockID(triangleField.getOwner());
-                            if (materialData != null) {
-                                @SuppressWarnings("deprecation")
-                                byte color = getMapPaletteColorForTeam(materialData.getData(), triangles.size());
-                                if (pixelCache[x] == null) pixelCache[x] = new Byte[128];
-                                pixelCache[x][z] = color;
-                            }
-                        }
-                    }
-                }
-                // Boundary
-                Game game = beaconz.getGameMgr().getGame(xBlock, zBlock);
-                if (game == null) {
-                    if (pixelCache[x] == null) pixelCache[x] = new Byte[128];
-                    pixelCache[x][z] = (byte)0;
+    private void renderToPixelCache(MapCoordinateConverter coordConverter, List<BeaconObj> beacons) {
+        // Boundary everywhere until a game's tile says otherwise
+        Arrays.fill(pixels, (byte)0);
+        Arrays.fill(painted, true);
+        // Territory comes from the shared tiles
+        @SuppressWarnings("deprecation")
+        int scaleValue = scale.getValue();
+        // Tile grid pixel of map pixel 0,0
+        int originX = (centerX >> scaleValue) - 64;
+        int originZ = (centerZ >> scaleValue) - 64;
+        int tile = MapTileCache.TILE_PIXELS;
+        MapTileCache tileCache = beaconz.getRegister().getTerritoryRaster().getTileCache();
+        for (Game game : games) {
+            for (int tileX = originX >> MapTileCache.TILE_SHIFT; tileX <= (originX + 127) >> MapTileCache.TILE_SHIFT; tileX++) {
+                for (int tileZ = originZ >> MapTileCache.TILE_SHIFT; tileZ <= (originZ + 127) >> MapTileCache.TILE_SHIFT; tileZ++) {
+                    copyTile(tileCache.getTile(game, tileX, tileZ, scaleValue), tileX * tile - originX, tileZ * tile - originZ);
                 }
             }
         }
         // lines
-        for (Map.Entry<Point2D, CachedBeacon> entry : beaconRegisterCache.entrySet()) {
-            CachedBeacon value = entry.getValue();
-            Team owner = value.owner;
-            if (owner == null || value.links == null || value.links.isEmpty()) continue;
-            Scorecard scoreCard = beaconz.getGameMgr().getSC(entry.getKey());
+        for (BeaconObj beacon : beacons) {
+            Team owner = beacon.getOwnership();
+            if (owner == null || beacon.getLinks().isEmpty()) continue;
+            Scorecard scoreCard = beaconz.getGameMgr().getSC(beacon.getPoint());
             if (scoreCard != null) {
                 MaterialData blockID = scoreCard.getBlockID(owner);
                 if (blockID != null) {
                     @SuppressWarnings("deprecation")
                     byte data = blockID.getData();
                     byte color = getMapPaletteColorForTeam(data, 1);
-                    for (BeaconObj link : value.links) {
-                        renderLineToPixelCache(color, coordConverter, entry.getKey(), link.getPoint());
+                    for (BeaconObj link : beacon.getLinks()) {
+                        renderLineToPixelCache(color, coordConverter, beacon.getPoint(), link.getPoint());
                     }
                 }
             }
@@ -179,16 +218,18 @@ public class TerritoryMapRenderer extends MapRenderer {
      * @param coordConverter
      * @param cursors
      * @param showUnclaimedBeacons
+     * @param beacons
      */
     @SuppressWarnings("deprecation")
-    private void setCursors(MapCanvas canvas, MapCoordinateConverter coordConverter, MapCursorCollection cursors, boolean showUnclaimedBeacons) {
-        for (int i = 0; i < cursors.size(); i++) {
-            cursors.removeCursor(cursors.getCursor(i));
+    private void setCursors(MapCanvas canvas, MapCoordinateConverter coordConverter, MapCursorCollection cursors, boolean showUnclaimedBeacons,
+            List<BeaconObj> beacons) {
+        while (cursors.size() > 0) {
+            cursors.removeCursor(cursors.getCursor(0));
         }
-        for (Map.Entry<Point2D, CachedBeacon> entry : beaconRegisterCache.entrySet()) {
-            Team team = entry.getValue().owner;
+        for (BeaconObj beacon : beacons) {
+            Team team = beacon.getOwnership();
             if (!showUnclaimedBeacons && team == null) continue;
-            Point2D point = entry.getKey();
+            Point2D point = beacon.getPoint();
             int x = coordConverter.blockXToPixelX((int) point.getX());
             if (x < 0 || x > 127) continue;
             int z = coordConverter.blockZToPixelZ((int) point.getY());
@@ -213,37 +254,69 @@ public class TerritoryMapRenderer extends MapRenderer {
     }
 
     /**
-     * Renders the link
+     * Renders the link with Bresenham's line algorithm
      * @param color
      * @param coordConverter
      * @param start
      * @param finish
      */
     private void renderLineToPixelCache(byte color, MapCoordinateConverter coordConverter, Point2D start, Point2D finish) {
-        int startX = coordConverter.blockXToPixelX((int) start.getX());
-        int startZ = coordConverter.blockZToPixelZ((int) start.getY());
+        int x = coordConverter.blockXToPixelX((int) start.getX());
+        int z = coordConverter.blockZToPixelZ((int) start.getY());
         int finishX = coordConverter.blockXToPixelX((int) finish.getX());
         int finishZ = coordConverter.blockZToPixelZ((int) finish.getY());
-        int diffX = finishX - startX;
-        int diffZ = finishZ - startZ;
-        double step = 1 / Math.sqrt(diffX * diffX + diffZ * diffZ);
-        for (double progress = 0; progress <= 1.0; progress += step) {
-            int x = (int)(startX + diffX * progress);
-            if (x < 0 || x >= 128) continue;
-            int z = (int)(startZ + diffZ * progress);
-            if (z < 0 || z >= 128) continue;
-            if (pixelCache[x] == null) pixelCache[x] = new Byte[128];
-            pixelCache[x][z] = color;
+        int dx = Math.abs(finishX - x);
+        int dz = -Math.abs(finishZ - z);
+        int stepX = x < finishX ? 1 : -1;
+        int stepZ = z < finishZ ? 1 : -1;
+        int error = dx + dz;
+        while (true) {
+            if (x >= 0 && x < 128 && z >= 0 && z < 128) {
+                paint(x, z, color);
+            }
+            if (x == finishX && z == finishZ) {
+                break;
+            }
+            int error2 = 2 * error;
+            if (error2 >= dz) {
+                error += dz;
+                x += stepX;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                z += stepZ;
+            }
         }
     }
 
-    private Map<Point2D, CachedBeacon> makeBeaconCache() {
-        HashMap<Point2D, BeaconObj> current = beaconz.getRegister().getBeaconRegister();
-        Map<Point2D, CachedBeacon> result = new HashMap<>(current.size());
-        for (Map.Entry<Point2D, BeaconObj> entry : current.entrySet()) {
-            result.put(entry.getKey(), new CachedBeacon(entry.getValue()));
+    /**
+     * Copies the part of a tile that is on the map
+     * @param tile
+     * @param offsetX - map pixel of the tile's first column
+     * @param offsetZ - map pixel of the tile's first row
+     */
+    private void copyTile(MapTileCache.Tile tile, int offsetX, int offsetZ) {
+        int size = MapTileCache.TILE_PIXELS;
+        for (int z = Math.max(0, offsetZ); z < Math.min(128, offsetZ + size); z++) {
+            for (int x = Math.max(0, offsetX); x < Math.min(128, offsetX + size); x++) {
+                int tileIndex = (z - offsetZ) * size + (x - offsetX);
+                byte state = tile.states[tileIndex];
+                if (state == MapTileCache.OUTSIDE) {
+                    continue;
+                }
+                int i = z * 128 + x;
+                if (state == MapTileCache.UNOWNED) {
+                    painted[i] = false;
+                } else {
+                    pixels[i] = tile.colors[tileIndex];
+                }
+            }
         }
-        return result;
+    }
+
+    private void paint(int x, int z, byte color) {
+        pixels[z * 128 + x] = color;
+        painted[z * 128 + x] = true;
     }
 
     /**
@@ -251,13 +324,11 @@ public class TerritoryMapRenderer extends MapRenderer {
      * @param canvas - the map canvas
      */
     private void renderFromPixelCache(MapCanvas canvas) {
-        for (int x = 0; x < 128; x++) {
-            if (pixelCache[x] != null) {
-                for (int z = 0; z < 128; z++) {
-                    //Bukkit.getLogger().info("DEBUG: base pixel = " + canvas.getBasePixel(x, z));
-                    if (pixelCache[x][z] != null && canvas.getBasePixel(x, z) != 0) {
-                        canvas.setPixel(x, z, pixelCache[x][z]);
-                    }
+        for (int z = 0; z < 128; z++) {
+            for (int x = 0; x < 128; x++) {
+                int i = z * 128 + x;
+                if (painted[i] && canvas.getBasePixel(x, z) != 0) {
+                    canvas.setPixel(x, z, pixels[i]);
                 }
             }
         }
@@ -273,7 +344,7 @@ public class TerritoryMapRenderer extends MapRenderer {
      * @return color of pixel (as an index of MapPalette.colors)
      */
     @SuppressWarnings("deprecation")
-    private static byte getMapPaletteColorForTeam(byte glassColor, int numberOfTriangles) {
+    static byte getMapPaletteColorForTeam(byte glassColor, int numberOfTriangles) {
         numberOfTriangles--;
         if (mapPaletteColors[glassColor] == null) {
             DyeColor dyeColor = DyeColor.getByDyeData(glassColor);
@@ -294,35 +365,6 @@ public class TerritoryMapRenderer extends MapRenderer {
         return colors[numberOfTriangles];
     }
 
-    private static class CachedBeacon {
-        private Team owner;
-        private Set<BeaconObj> links;
-
-        public CachedBeacon(BeaconObj beaconObj) {
-            this.owner = beaconObj.getOwnership();
-            this.links = new HashSet<>();
-            this.links.addAll(beaconObj.getLinks());
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            CachedBeacon that = (CachedBeacon) o;
-
-            return links.equals(that.links) && !(owner != null ? !owner.equals(that.owner) : that.owner != null);
-
-        }
-
-        @Override
-        public int hashCode() {
-            int result = owner != null ? owner.hashCode() : 0;
-            result = 31 * result + links.hashCode();
-            return result;
-        }
-    }
-
     private static class TeamCursor {
         public MapCursor.Type type;
         public byte direction; // 0 to 15
@@ -0,0 +1,303 @@
+/*
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.wasteofplastic.beaconz.map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.scoreboard.Team;
+
+import com.wasteofplastic.beaconz.BeaconObj;
+import com.wasteofplastic.beaconz.Beaconz;
+import com.wasteofplastic.beaconz.BeaconzPluginDependent;
+import com.wasteofplastic.beaconz.CoordMap;
+import com.wasteofplastic.beaconz.Game;
+import com.wasteofplastic.beaconz.Settings;
+import com.wasteofplastic.beaconz.TriangleField;
+
+/**
+ * One shared picture of who owns the ground in each game, used by all the territory maps.
+ * <p>
+ * The ground is split into tiles of 128 x 128 blocks. For every block a tile records the team that
+ * owns it and how many triangles overlap there. A tile is worked out the first time a map looks at it
+ * and is thrown away when a triangle that reaches into it is added or removed, so a change only causes
+ * the tiles it touches to be worked out again. Each game keeps at most maprastercachesize worth of
+ * tiles, dropping the least recently used ones.
+ *
+ */
+public class TerritoryRaster extends BeaconzPluginDependent {
+
+    static final int TILE_SHIFT = 7;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    /**
+     * Memory used by one tile
+     */
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 2;
+
+    private final Map<Game, GameRaster> rasters = new HashMap<Game, GameRaster>();
+    private final MapTileCache tileCache;
+    private List<BeaconObj> beacons;
+    private long beaconsModCount;
+
+    public TerritoryRaster(Beaconz beaconzPlugin) {
+        super(beaconzPlugin);
+        this.tileCache = new MapTileCache(beaconzPlugin, this);
+    }
+
+    /**
+     * @return the cache of finished map tiles made from this raster
+     */
+    public MapTileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * @param game
+     * @return the raster for this game
+     */
+    public GameRaster getRaster(Game game) {
+        GameRaster raster = rasters.get(game);
+        if (raster == null) {
+            raster = new GameRaster(game);
+            rasters.put(game, raster);
+        }
+        return raster;
+    }
+
+    /**
+     * Beacons for drawing cursors and links. Only fetched from the register again after it changes and
+     * shared by all maps.
+     * @return list of beacons
+     */
+    public List<BeaconObj> getBeacons() {
+        if (beacons == null || beaconsModCount != getRegister().getModCount()) {
+            beacons = getRegister().getBeacons();
+            beaconsModCount = getRegister().getModCount();
+        }
+        return beacons;
+    }
+
+    /**
+     * Throws away the tiles a triangle reaches into. Call when a triangle is added or removed.
+     * @param triangle
+     */
+    public void invalidate(TriangleField triangle) {
+        Game game = getGameMgr().getGame(triangle.getVertexX(0), triangle.getVertexZ(0));
+        if (game == null) {
+            for (GameRaster raster : rasters.values()) {
+                raster.invalidate(triangle.getMinX(), triangle.getMinZ(), triangle.getMaxX(), triangle.getMaxZ());
+            }
+        } else if (rasters.containsKey(game)) {
+            rasters.get(game).invalidate(triangle.getMinX(), triangle.getMinZ(), triangle.getMaxX(), triangle.getMaxZ());
+        }
+    }
+
+    /**
+     * Throws away everything
+     */
+    public void clear() {
+        rasters.clear();
+        tileCache.clear();
+        beacons = null;
+    }
+
+    /**
+     * Throws away a game's raster
+     * @param game
+     */
+    public void clear(Game game) {
+        rasters.remove(game);
+        tileCache.clear(game);
+        beacons = null;
+    }
+
+    /**
+     * Ownership of the blocks in one game
+     */
+    public class GameRaster {
+        private final Game game;
+        private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return (long)size() * TILE_BYTES > Math.max(1, Settings.mapRasterCacheSize) * 1024L * 1024L;
+            }
+        };
+        /**
+         * Teams in the order they were first seen. Tiles store the position in this list plus one.
+         */
+        private final List<Team> teams = new ArrayList<Team>();
+        /**
+         * Last tile looked up. Neighbouring blocks are nearly always in the same tile.
+         */
+        private long lastKey;
+        private Tile lastTile;
+
+        private GameRaster(Game game) {
+            this.game = game;
+        }
+
+        /**
+         * @param x
+         * @param z
+         * @return team that owns the block, or null if nobody does
+         */
+        public Team getOwner(int x, int z) {
+            Tile tile = getTile(x, z);
+            if (tile == Tile.EMPTY) {
+                return null;
+            }
+            int owner = tile.owners[tile.index(x, z)];
+            return owner == 0 ? null : teams.get(owner - 1);
+        }
+
+        /**
+         * @param x
+         * @param z
+         * @return number of triangles covering the block
+         */
+        public int getDepth(int x, int z) {
+            Tile tile = getTile(x, z);
+            return tile == Tile.EMPTY ? 0 : tile.depths[tile.index(x, z)];
+        }
+
+        private Tile getTile(int x, int z) {
+            long key = CoordMap.key(x >> TILE_SHIFT, z >> TILE_SHIFT);
+            if (lastTile != null && key == lastKey) {
+                return lastTile;
+            }
+            Tile tile = tiles.get(key);
+            if (tile == null) {
+                tile = build(x >> TILE_SHIFT, z >> TILE_SHIFT);
+                tiles.put(key, tile);
+            }
+            lastKey = key;
+            lastTile = tile;
+            return tile;
+        }
+
+        /**
+         * Works out a tile from the game's triangles
+         */
+        private Tile build(int tileX, int tileZ) {
+            int minX = tileX << TILE_SHIFT;
+            int minZ = tileZ << TILE_SHIFT;
+            int maxX = minX + TILE_SIZE - 1;
+            int maxZ = minZ + TILE_SIZE - 1;
+            Tile tile = Tile.EMPTY;
+            int[] span = new int[2];
+            for (TriangleField triangle : getRegister().getTriangles(minX, minZ, maxX, maxZ)) {
+                if (!game.getRegion().containsPoint(triangle.getVertexX(0), triangle.getVertexZ(0))) {
+                    continue;
+                }
+                if (tile == Tile.EMPTY) {
+                    tile = new Tile(minX, minZ);
+                }
+                byte owner = teamNumber(triangle.getOwner());
+                // Scan convert one row at a time
+                for (int z = Math.max(minZ, triangle.getMinZ()); z <= Math.min(maxZ, triangle.getMaxZ()); z++) {
+                    if (triangle.getRowSpan(z, span)) {
+                        int startX = Math.max(minX, span[0]);
+                        int endX = Math.min(maxX + 1, span[1]);
+                        if (startX < endX) {
+                            tile.add(startX, endX, z, owner);
+                        }
+                    }
+                }
+            }
+            return tile;
+        }
+
+        private byte teamNumber(Team team) {
+            int index = teams.indexOf(team);
+            if (index < 0) {
+                teams.add(team);
+                index = teams.size() - 1;
+            }
+            return (byte)(index + 1);
+        }
+
+        /**
+         * Throws away the tiles that overlap the area, and the map tiles made from them
+         */
+        private void invalidate(int minX, int minZ, int maxX, int maxZ) {
+            lastTile = null;
+            tileCache.invalidate(game, minX, minZ, maxX, maxZ);
+            Iterator<Long> it = tiles.keySet().iterator();
+            while (it.hasNext()) {
+                long key = it.next();
+                int tileX = CoordMap.keyX(key);
+                int tileZ = CoordMap.keyZ(key);
+                if (tileX >= minX >> TILE_SHIFT && tileX <= maxX >> TILE_SHIFT && tileZ >= minZ >> TILE_SHIFT && tileZ <= maxZ >> TILE_SHIFT) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Owner and overlap count of each block in a tile
+     */
+    private static class Tile {
+        /**
+         * Tile with no triangles in it
+         */
+        static final Tile EMPTY = new Tile(0, 0);
+
+        private final int minX;
+        private final int minZ;
+        private final byte[] owners;
+        private final byte[] depths;
+
+        Tile(int minX, int minZ) {
+            this.minX = minX;
+            this.minZ = minZ;
+            this.owners = new byte[TILE_SIZE * TILE_SIZE];
+            this.depths = new byte[TILE_SIZE * TILE_SIZE];
+        }
+
+        int index(int x, int z) {
+            return (z - minZ) * TILE_SIZE + (x - minX);
+        }
+
+        /**
+         * Adds a triangle to the blocks from startX up to but not including endX in row z
+         */
+        void add(int startX, int endX, int z, byte owner) {
+            int end = index(endX, z);
+            for (int i = index(startX, z); i < end; i++) {
+                if (depths[i] == 0) {
+                    owners[i] = owner;
+                }
+                if (depths[i] < Byte.MAX_VALUE) {
+                    depths[i]++;
+                }
+            }
+        }
+    }
+}
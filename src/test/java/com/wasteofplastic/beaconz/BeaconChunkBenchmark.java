@@ -0,0 +1,118 @@
+package com.wasteofplastic.beaconz;
+
+import java.util.Random;
+
+import org.bukkit.Material;
+
+/**
+ * Replays a made up stream of block events through the lookups done by {@link Register#getBeacon(org.bukkit.block.Block)},
+ * with and without the {@link ChunkSet} check in front.
+ * Not a unit test - run the main method by hand.
+ */
+public class BeaconChunkBenchmark {
+
+    private static final int EVENTS = 2000000;
+    private static final int RUNS = 5;
+    /**
+     * What players dig and place, roughly. Beacon materials turn up now and then away from beacons too.
+     */
+    private static final Material[] MATERIALS = {Material.STONE, Material.STONE, Material.STONE, Material.DIRT,
+        Material.DIRT, Material.GRASS, Material.SAND, Material.LOG, Material.OBSIDIAN, Material.DIAMOND_BLOCK,
+        Material.EMERALD_BLOCK};
+
+    public static void main(String[] args) {
+        for (int beacons : new int[] {100, 1000, 10000}) {
+            run(beacons);
+        }
+    }
+
+    private static void run(int beaconCount) {
+        Random rand = new Random(beaconCount);
+        // Spread beacons at roughly the default distribution of one per 33 blocks square
+        int side = (int)Math.sqrt(beaconCount) * 33;
+        CoordMap beaconRegister = new CoordMap();
+        CoordMap baseBlocks = new CoordMap();
+        ChunkSet chunks = new ChunkSet();
+        for (int i = 0; i < beaconCount; i++) {
+            BeaconObj beacon = new BeaconObj(null, rand.nextInt(side), 70, rand.nextInt(side), null);
+            for (int x = beacon.getX() - 1; x <= beacon.getX() + 1; x++) {
+                for (int z = beacon.getZ() - 1; z <= beacon.getZ() + 1; z++) {
+                    if (x == beacon.getX() && z == beacon.getZ()) {
+                        beaconRegister.put(x, z, beacon);
+                    } else {
+                        baseBlocks.put(x, z, beacon);
+                    }
+                    chunks.mark(x, z);
+                }
+            }
+        }
+        // One event in fifty is at a beacon, the rest anywhere in the game area
+        long[] beaconKeys = beaconRegister.keys();
+        int[] xs = new int[EVENTS];
+        int[] zs = new int[EVENTS];
+        Material[] types = new Material[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            if (rand.nextInt(50) == 0) {
+                long key = beaconKeys[rand.nextInt(beaconKeys.length)];
+                xs[i] = CoordMap.keyX(key) + rand.nextInt(3) - 1;
+                zs[i] = CoordMap.keyZ(key) + rand.nextInt(3) - 1;
+                types[i] = rand.nextBoolean() ? Material.EMERALD_BLOCK : Material.BEACON;
+            } else {
+                xs[i] = rand.nextInt(side * 2) - side / 2;
+                zs[i] = rand.nextInt(side * 2) - side / 2;
+                types[i] = MATERIALS[rand.nextInt(MATERIALS.length)];
+            }
+        }
+        // Warm up both paths
+        long found = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            found += lookup(beaconRegister, baseBlocks, null, types[i], xs[i], zs[i])
+                    + lookup(beaconRegister, baseBlocks, chunks, types[i], xs[i], zs[i]);
+        }
+        long plainTime = 0;
+        long chunkTime = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                found += lookup(beaconRegister, baseBlocks, null, types[i], xs[i], zs[i]);
+            }
+            plainTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                found += lookup(beaconRegister, baseBlocks, chunks, types[i], xs[i], zs[i]);
+            }
+            chunkTime += System.nanoTime() - start;
+        }
+        System.out.println(String.format("%,6d beacons, %,5d chunks: plain %5.1f ns/event, chunk check %5.1f ns/event (%d)",
+                beaconCount, chunks.size(), (double)plainTime / RUNS / EVENTS, (double)chunkTime / RUNS / EVENTS, found));
+    }
+
+    /**
+     * Same order of checks as Register.getBeacon, with block reads replaced by register reads
+     * @return 1 if a beacon was found, 0 if not
+     */
+    private static int lookup(CoordMap beaconRegister, CoordMap baseBlocks, ChunkSet chunks, Material type, int x, int z) {
+        if (chunks != null && !chunks.contains(x, z)) {
+            return 0;
+        }
+        if (!type.equals(Material.BEACON) && !type.equals(Material.DIAMOND_BLOCK)
+                && !type.equals(Material.OBSIDIAN) && !type.equals(Material.STAINED_GLASS)
+                && !type.equals(Material.EMERALD_BLOCK)) {
+            return 0;
+        }
+        if (type.equals(Material.EMERALD_BLOCK)) {
+            return baseBlocks.get(x, z) != null ? 1 : 0;
+        }
+        if (type.equals(Material.OBSIDIAN) || type.equals(Material.STAINED_GLASS) || type.equals(Material.BEACON)) {
+            return beaconRegister.get(x, z) != null ? 1 : 0;
+        }
+        for (int modX = -1; modX < 2; modX++) {
+            for (int modZ = -1; modZ < 2; modZ++) {
+                if (beaconRegister.get(x + modX, z + modZ) != null) {
+                    return 1;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares range queries on {@link BeaconGrid} with the linear scan Register used to do.
+ * Not a unit test - run the main method by hand.
+ */
+public class BeaconGridBenchmark {
+
+    private static final int QUERIES = 20000;
+    private static final int RANGE = 10;
+
+    public static void main(String[] args) {
+        for (int beacons : new int[] {1000, 10000, 100000}) {
+            run(beacons);
+        }
+    }
+
+    private static void run(int beaconCount) {
+        Random rand = new Random(beaconCount);
+        // Spread beacons at roughly the default distribution of one per 33 blocks square
+        int side = (int)Math.sqrt(beaconCount) * 33;
+        HashMap<Point2D, BeaconObj> register = new HashMap<Point2D, BeaconObj>();
+        BeaconGrid grid = new BeaconGrid();
+        for (int i = 0; i < beaconCount; i++) {
+            BeaconObj beacon = new BeaconObj(null, rand.nextInt(side), 70, rand.nextInt(side), null);
+            register.put(beacon.getPoint(), beacon);
+            grid.add(beacon);
+        }
+        double[] xs = new double[QUERIES];
+        double[] zs = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            xs[i] = rand.nextDouble() * side;
+            zs[i] = rand.nextDouble() * side;
+        }
+        // Warm up both paths
+        long found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            found += linear(register, xs[i], zs[i]).size() + grid.getNearby(xs[i], zs[i], RANGE).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            found += linear(register, xs[i], zs[i]).size();
+        }
+        long linearTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            found += grid.getNearby(xs[i], zs[i], RANGE).size();
+        }
+        long gridTime = System.nanoTime() - start;
+        System.out.println(String.format("%,7d beacons: linear %,9d ns/query, grid %,6d ns/query (%d)",
+                beaconCount, linearTime / QUERIES, gridTime / QUERIES, found));
+    }
+
+    private static List<BeaconObj> linear(HashMap<Point2D, BeaconObj> register, double x, double z) {
+        int distSquared = RANGE * RANGE;
+        List<BeaconObj> result = new ArrayList<BeaconObj>();
+        Point2D point = new Point2D.Double(x, z);
+        for (Point2D beacon : register.keySet()) {
+            if (distSquared > point.distanceSq(beacon)) {
+                result.add(register.get(beacon));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class BeaconGridTest {
+
+    @Test
+    public void shouldMatchLinearScan() {
+        Random rand = new Random(42);
+        BeaconGrid grid = new BeaconGrid();
+        Set<BeaconObj> beacons = new HashSet<BeaconObj>();
+        for (int i = 0; i < 2000; i++) {
+            BeaconObj beacon = new BeaconObj(null, rand.nextInt(2000) - 1000, 70, rand.nextInt(2000) - 1000, null);
+            beacons.add(beacon);
+            grid.add(beacon);
+        }
+        for (int i = 0; i < 500; i++) {
+            double x = rand.nextDouble() * 2000 - 1000;
+            double z = rand.nextDouble() * 2000 - 1000;
+            int range = 1 + rand.nextInt(60);
+            Point2D point = new Point2D.Double(x, z);
+            Set<BeaconObj> expected = new HashSet<BeaconObj>();
+            for (BeaconObj beacon : beacons) {
+                if (range * range > point.distanceSq(beacon.getPoint())) {
+                    expected.add(beacon);
+                }
+            }
+            assertThat(new HashSet<BeaconObj>(grid.getNearby(x, z, range)), is(expected));
+            assertThat(grid.isNear(x, z, range), is(!expected.isEmpty()));
+        }
+    }
+
+    @Test
+    public void shouldRemoveBeacons() {
+        BeaconGrid grid = new BeaconGrid();
+        BeaconObj beacon = new BeaconObj(null, -17, 70, 33, null);
+        grid.add(beacon);
+        assertThat(grid.isNear(-17, 33, 1), is(true));
+        assertThat(grid.remove(beacon), is(true));
+        assertThat(grid.isNear(-17, 33, 1), is(false));
+        assertThat(grid.size(), is(0));
+    }
+}
@@ -0,0 +1,67 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+
+import org.testng.annotations.Test;
+
+public class BeaconPlanTest {
+
+    private static final Point2D[] REGION = {new Point2D.Double(1008, 1008), new Point2D.Double(3008, 3008)};
+
+    @Test
+    public void shouldBeSameForSameGame() {
+        BeaconPlan plan = new BeaconPlan(REGION, 1234567L, 0L, 0.03D);
+        BeaconPlan again = new BeaconPlan(REGION, 1234567L, 0L, 0.03D);
+        BeaconPlan otherGame = new BeaconPlan(REGION, 7654321L, 0L, 0.03D);
+        BeaconPlan adjusted = new BeaconPlan(REGION, 1234567L, 1L, 0.03D);
+        int differentGame = 0;
+        int differentAdjustment = 0;
+        for (int x = 63; x <= 187; x++) {
+            for (int z = 63; z <= 187; z++) {
+                assertThat(again.getColumn(x, z), is(plan.getColumn(x, z)));
+                if (otherGame.getColumn(x, z) != plan.getColumn(x, z)) {
+                    differentGame++;
+                }
+                if (adjusted.getColumn(x, z) != plan.getColumn(x, z)) {
+                    differentAdjustment++;
+                }
+            }
+        }
+        assertThat(differentGame, is(not(0)));
+        assertThat(differentAdjustment, is(not(0)));
+    }
+
+    @Test
+    public void shouldPutBeaconsInCornersOnly() {
+        // Nothing random gets through with no distribution
+        BeaconPlan plan = new BeaconPlan(REGION, 1234567L, 0L, 0D);
+        assertThat(plan.size(), is(4));
+        assertThat(plan.getColumn(63, 63), is(1 << 4 | 1));
+        assertThat(plan.getColumn(187, 187), is(14 << 4 | 14));
+        assertThat(plan.getColumn(187, 63), is(14 << 4 | 1));
+        assertThat(plan.getColumn(63, 187), is(1 << 4 | 14));
+        // Outside the region
+        assertThat(plan.getColumn(188, 100), is(BeaconPlan.NONE));
+        assertThat(plan.getColumn(62, 100), is(BeaconPlan.NONE));
+    }
+
+    @Test
+    public void shouldFollowDistribution() {
+        BeaconPlan plan = new BeaconPlan(REGION, 1234567L, 0L, 0.1D);
+        // 125 x 125 chunks
+        int expected = 125 * 125 / 10;
+        assertThat(Math.abs(plan.size() - expected) < expected / 10, is(true));
+        for (int x = 63; x <= 187; x++) {
+            for (int z = 63; z <= 187; z++) {
+                int column = plan.getColumn(x, z);
+                if (column != BeaconPlan.NONE) {
+                    assertThat(BeaconPlan.columnX(column) < 15 && BeaconPlan.columnZ(column) < 15, is(true));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ChunkGenerationIndexTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ChunkGenerationIndexTest");
+    private static final Point2D[] REGION = {new Point2D.Double(-256, -512), new Point2D.Double(256, 0)};
+    private static final Point2D[] OTHER_REGION = {new Point2D.Double(512, -512), new Point2D.Double(1024, 0)};
+    private File folder;
+
+    @BeforeMethod
+    public void makeFolder() throws IOException {
+        folder = Files.createTempDirectory("chunkindex").toFile();
+    }
+
+    @AfterMethod
+    public void removeFolder() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void shouldKeepEpochsAfterReopening() {
+        ChunkGenerationIndex index = new ChunkGenerationIndex(folder, LOGGER);
+        assertThat(index.getEpoch(REGION, -16, -32), is(0L));
+        index.setEpoch(REGION, -16, -32, 1234L);
+        index.setEpoch(REGION, 16, 0, 5678L);
+        index.setEpoch(OTHER_REGION, 40, -10, 99L);
+        index.close();
+
+        ChunkGenerationIndex reopened = new ChunkGenerationIndex(folder, LOGGER);
+        assertThat(reopened.getEpoch(REGION, -16, -32), is(1234L));
+        assertThat(reopened.getEpoch(REGION, 16, 0), is(5678L));
+        assertThat(reopened.getEpoch(REGION, 0, 0), is(0L));
+        assertThat(reopened.getEpoch(OTHER_REGION, 40, -10), is(99L));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldIgnoreChunksOutsideRegion() {
+        ChunkGenerationIndex index = new ChunkGenerationIndex(folder, LOGGER);
+        index.setEpoch(REGION, 17, 0, 1234L);
+        assertThat(index.getEpoch(REGION, 17, 0), is(0L));
+        assertThat(index.getEpoch(REGION, -17, 0), is(0L));
+        index.close();
+    }
+
+    @Test
+    public void shouldDeleteRegionFiles() {
+        ChunkGenerationIndex index = new ChunkGenerationIndex(folder, LOGGER);
+        index.setEpoch(REGION, 0, 0, 1234L);
+        index.setEpoch(OTHER_REGION, 40, -10, 99L);
+        index.close();
+        assertThat(folder.listFiles().length, is(2));
+        ChunkGenerationIndex reopened = new ChunkGenerationIndex(folder, LOGGER);
+        reopened.delete(REGION);
+        assertThat(folder.listFiles().length, is(1));
+        assertThat(reopened.getEpoch(REGION, 0, 0), is(0L));
+        assertThat(reopened.getEpoch(OTHER_REGION, 40, -10), is(99L));
+        reopened.setEpoch(REGION, 0, 0, 5678L);
+        reopened.close();
+        assertThat(folder.listFiles().length, is(2));
+        // Only the listed regions are kept at start up
+        ChunkGenerationIndex restarted = new ChunkGenerationIndex(folder, LOGGER);
+        restarted.retainOnly(Arrays.asList(new Point2D[][] {OTHER_REGION}));
+        assertThat(folder.listFiles().length, is(1));
+        assertThat(restarted.getEpoch(REGION, 0, 0), is(0L));
+        assertThat(restarted.getEpoch(OTHER_REGION, 40, -10), is(99L));
+        restarted.close();
+    }
+
+    @Test
+    public void shouldStartAgainIfRegionChangesSize() throws IOException {
+        ChunkGenerationIndex index = new ChunkGenerationIndex(folder, LOGGER);
+        index.setEpoch(REGION, 0, 0, 1234L);
+        index.close();
+        // Damage the file so its size no longer matches the region
+        File file = folder.listFiles()[0];
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        ChunkGenerationIndex reopened = new ChunkGenerationIndex(folder, LOGGER);
+        assertThat(reopened.getEpoch(REGION, 0, 0), is(0L));
+        reopened.setEpoch(REGION, 0, 0, 42L);
+        assertThat(reopened.getEpoch(REGION, 0, 0), is(42L));
+        reopened.close();
+    }
+}
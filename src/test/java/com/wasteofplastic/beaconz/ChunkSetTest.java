@@ -0,0 +1,48 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class ChunkSetTest {
+
+    @Test
+    public void shouldMatchMarkedChunks() {
+        Random rand = new Random(42);
+        ChunkSet chunks = new ChunkSet();
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 3000; i++) {
+            int x = rand.nextInt(20000) - 10000;
+            int z = rand.nextInt(20000) - 10000;
+            chunks.mark(x, z);
+            expected.add(CoordMap.key(x >> 4, z >> 4));
+        }
+        assertThat(chunks.size(), is(expected.size()));
+        for (int i = 0; i < 20000; i++) {
+            int x = rand.nextInt(20000) - 10000;
+            int z = rand.nextInt(20000) - 10000;
+            assertThat(chunks.contains(x, z), is(expected.contains(CoordMap.key(x >> 4, z >> 4))));
+        }
+    }
+
+    @Test
+    public void shouldUseWholeChunks() {
+        ChunkSet chunks = new ChunkSet();
+        chunks.mark(-1, 0);
+        // Same chunk
+        assertThat(chunks.contains(-16, 15), is(true));
+        // Neighbouring chunks
+        assertThat(chunks.contains(0, 0), is(false));
+        assertThat(chunks.contains(-17, 0), is(false));
+        assertThat(chunks.contains(-1, 16), is(false));
+        assertThat(chunks.contains(-1, -1), is(false));
+        chunks.clear();
+        assertThat(chunks.contains(-1, 0), is(false));
+        assertThat(chunks.size(), is(0));
+    }
+}
@@ -0,0 +1,92 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class CoordMapTest {
+
+    @Test
+    public void shouldMatchHashMap() {
+        Random rand = new Random(42);
+        CoordMap map = new CoordMap();
+        HashMap<Long, BeaconObj> expected = new HashMap<Long, BeaconObj>();
+        // A small coordinate range, including negatives, so the same keys are put and removed again and
+        // again and entries are taken out of the middle of probe runs
+        for (int i = 0; i < 50000; i++) {
+            int x = rand.nextInt(101) - 50;
+            int z = rand.nextInt(101) - 50;
+            long key = CoordMap.key(x, z);
+            if (rand.nextInt(3) == 0) {
+                assertThat(map.remove(x, z), is(expected.remove(key)));
+            } else {
+                BeaconObj beacon = new BeaconObj(null, x, 70, z, null);
+                assertThat(map.put(x, z, beacon), is(expected.put(key, beacon)));
+            }
+            assertThat(map.size(), is(expected.size()));
+        }
+        for (int x = -51; x <= 51; x++) {
+            for (int z = -51; z <= 51; z++) {
+                assertThat(map.get(x, z), is(expected.get(CoordMap.key(x, z))));
+                assertThat(map.containsKey(x, z), is(expected.containsKey(CoordMap.key(x, z))));
+            }
+        }
+        Set<Long> keys = new HashSet<Long>();
+        for (long key : map.keys()) {
+            keys.add(key);
+        }
+        assertThat(keys, is(expected.keySet()));
+        assertThat(map.values().size(), is(expected.size()));
+    }
+
+    @Test
+    public void shouldKeepEntriesWhenGrowing() {
+        Random rand = new Random(7);
+        CoordMap map = new CoordMap();
+        HashMap<Long, BeaconObj> expected = new HashMap<Long, BeaconObj>();
+        // Well past several resizes
+        while (expected.size() < 5000) {
+            int x = rand.nextInt(2000000) - 1000000;
+            int z = rand.nextInt(2000000) - 1000000;
+            BeaconObj beacon = new BeaconObj(null, x, 70, z, null);
+            map.put(x, z, beacon);
+            expected.put(CoordMap.key(x, z), beacon);
+        }
+        assertThat(map.size(), is(expected.size()));
+        for (Long key : expected.keySet()) {
+            assertThat(map.get(CoordMap.keyX(key), CoordMap.keyZ(key)), is(expected.get(key)));
+        }
+        // Remove half and check the rest can still be found
+        int count = 0;
+        for (Long key : new HashSet<Long>(expected.keySet())) {
+            if (count++ % 2 == 0) {
+                assertThat(map.remove(CoordMap.keyX(key), CoordMap.keyZ(key)), is(expected.remove(key)));
+            }
+        }
+        for (Long key : expected.keySet()) {
+            assertThat(map.get(CoordMap.keyX(key), CoordMap.keyZ(key)), is(expected.get(key)));
+        }
+        map.clear();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.get(0, 0), is(nullValue()));
+    }
+
+    @Test
+    public void keysShouldKeepNegativeCoordinates() {
+        int[] values = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, -123456, 654321};
+        for (int x : values) {
+            for (int z : values) {
+                long key = CoordMap.key(x, z);
+                assertThat(CoordMap.keyX(key), is(x));
+                assertThat(CoordMap.keyZ(key), is(z));
+            }
+        }
+    }
+}
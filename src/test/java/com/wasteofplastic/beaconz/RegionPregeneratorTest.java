@@ -0,0 +1,42 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class RegionPregeneratorTest {
+
+    @Test
+    public void spiralShouldVisitEveryChunkOnceFromTheCentre() {
+        Point2D[][] regions = {
+                {new Point2D.Double(1008, 1008), new Point2D.Double(3008, 3008)},
+                {new Point2D.Double(-512, -256), new Point2D.Double(0, 768)},
+                {new Point2D.Double(64, 64), new Point2D.Double(64, 64)}};
+        for (Point2D[] corners : regions) {
+            int minX = (int)corners[0].getX() >> 4;
+            int minZ = (int)corners[0].getY() >> 4;
+            int maxX = (int)corners[1].getX() >> 4;
+            int maxZ = (int)corners[1].getY() >> 4;
+            long[] chunks = RegionPregenerator.spiral(corners);
+            assertThat(chunks.length, is((maxX - minX + 1) * (maxZ - minZ + 1)));
+            assertThat(chunks[0], is(CoordMap.key((minX + maxX) / 2, (minZ + maxZ) / 2)));
+            Set<Long> seen = new HashSet<Long>();
+            int lastRing = 0;
+            for (long chunk : chunks) {
+                int x = CoordMap.keyX(chunk);
+                int z = CoordMap.keyZ(chunk);
+                assertThat(x >= minX && x <= maxX && z >= minZ && z <= maxZ, is(true));
+                assertThat(seen.add(chunk), is(true));
+                // Rings never go back towards the centre
+                int ring = Math.max(Math.abs(x - (minX + maxX) / 2), Math.abs(z - (minZ + maxZ) / 2));
+                assertThat(ring >= lastRing, is(true));
+                lastRing = ring;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class RegionSiteFinderTest {
+
+    @Test
+    public void moreLandAndLessGapShouldScoreHigher() {
+        assertThat(RegionSiteFinder.score(1D, 0D, 512D) > RegionSiteFinder.score(0.8D, 0D, 512D), is(true));
+        assertThat(RegionSiteFinder.score(0.8D, 0D, 512D) > RegionSiteFinder.score(0.8D, 256D, 512D), is(true));
+        // A lot more land is worth going a little further for
+        assertThat(RegionSiteFinder.score(1D, 64D, 512D) > RegionSiteFinder.score(0.6D, 0D, 512D), is(true));
+    }
+
+    @Test
+    public void rankShouldKeepTheBestFirstAndDropTheWorst() {
+        List<RegionSiteFinder.Site> sites = new ArrayList<RegionSiteFinder.Site>();
+        double[] scores = {0.5D, 0.9D, 0.1D, 0.7D, 0.3D, 0.8D, 0.2D};
+        for (int i = 0; i < scores.length; i++) {
+            RegionSiteFinder.Site site = new RegionSiteFinder.Site(new Point2D.Double(i * 16, 0), scores[i]);
+            site.score = scores[i];
+            RegionSiteFinder.rank(sites, site, RegionSiteFinder.QUEUE_SIZE);
+        }
+        assertThat(sites.size(), is(RegionSiteFinder.QUEUE_SIZE));
+        double[] expected = {0.9D, 0.8D, 0.7D, 0.5D, 0.3D};
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(sites.get(i).score, is(expected[i]));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.wasteofplastic.beaconz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Compares saving and loading the register as YAML, the way beaconz.yml was written, with the binary
+ * snapshot format. Uses the same records Register writes: 8 base blocks, a couple of defense blocks and
+ * links for each beacon. Not a unit test - run the main method by hand.
+ */
+public class RegisterSnapshotBenchmark {
+
+    private static final String[] TEAMS = {"red", "blue", "green", "yellow"};
+
+    public static void main(String[] args) throws Exception {
+        for (int beacons : new int[] {10000, 100000}) {
+            run(beacons);
+        }
+    }
+
+    private static void run(int beaconCount) throws IOException, InvalidConfigurationException {
+        Random rand = new Random(beaconCount);
+        int[][] beacons = new int[beaconCount][];
+        for (int i = 0; i < beaconCount; i++) {
+            // x, y, z, owner (-1 is unowned), linked beacon (-1 is none)
+            beacons[i] = new int[] {rand.nextInt(20000) - 10000, 60 + rand.nextInt(30), rand.nextInt(20000) - 10000,
+                    rand.nextInt(TEAMS.length + 1) - 1, rand.nextBoolean() ? rand.nextInt(beaconCount) : -1};
+        }
+        File yml = File.createTempFile("beaconz", ".yml");
+        File dat = File.createTempFile("beaconz", ".dat");
+        yml.deleteOnExit();
+        dat.deleteOnExit();
+
+        long start = System.nanoTime();
+        saveYaml(beacons, yml);
+        long yamlSave = System.nanoTime() - start;
+        start = System.nanoTime();
+        long yamlCheck = loadYaml(yml);
+        long yamlLoad = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        saveSnapshot(beacons, dat);
+        long binarySave = System.nanoTime() - start;
+        start = System.nanoTime();
+        long binaryCheck = loadSnapshot(dat);
+        long binaryLoad = System.nanoTime() - start;
+
+        System.out.println(String.format("%,7d beacons: YAML save %,6d ms load %,6d ms %,11d bytes | binary save %,4d ms load %,4d ms %,10d bytes (%d/%d)",
+                beaconCount, yamlSave / 1000000, yamlLoad / 1000000, yml.length(),
+                binarySave / 1000000, binaryLoad / 1000000, dat.length(), yamlCheck, binaryCheck));
+    }
+
+    private static void saveYaml(int[][] beacons, File file) throws IOException {
+        YamlConfiguration beaconzYml = new YamlConfiguration();
+        for (int count = 0; count < beacons.length; count++) {
+            int[] b = beacons[count];
+            beaconzYml.set("beacon." + count + ".game", "game1");
+            beaconzYml.set("beacon." + count + ".location", b[0] + ":" + b[1] + ":" + b[2] + ":" + (b[3] < 0 ? "unowned" : TEAMS[b[3]]));
+            List<String> links = new ArrayList<String>();
+            if (b[4] >= 0) {
+                links.add(beacons[b[4]][0] + ":" + beacons[b[4]][2] + ":" + count);
+            }
+            beaconzYml.set("beacon." + count + ".links", links);
+            List<String> baseBlocks = new ArrayList<String>();
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    if (dx != 0 || dz != 0) {
+                        baseBlocks.add((b[0] + dx) + ":" + (b[2] + dz));
+                    }
+                }
+            }
+            beaconzYml.set("beacon." + count + ".baseblocks", baseBlocks);
+            for (int d = 0; d < 2; d++) {
+                String key = "beaconz_world:" + (b[0] + d) + "_0:" + (b[1] + 1) + "_0:" + b[2] + "_0:0:0";
+                beaconzYml.set("beacon." + count + ".defensiveblocks." + key, d + 1);
+                beaconzYml.set("beacon." + count + ".defensiveblocksowner." + key, "5f2c3b9e-0c47-4a8e-8f4c-1d2e3f405162");
+            }
+            beaconzYml.set("beacon." + count + ".maps", new ArrayList<String>());
+        }
+        beaconzYml.save(file);
+    }
+
+    private static long loadYaml(File file) throws IOException, InvalidConfigurationException {
+        YamlConfiguration beaconzYml = new YamlConfiguration();
+        beaconzYml.load(file);
+        long check = 0;
+        ConfigurationSection configSec = beaconzYml.getConfigurationSection("beacon");
+        for (String beacon : configSec.getValues(false).keySet()) {
+            String[] args = configSec.getString(beacon + ".location","").split(":");
+            check += Integer.valueOf(args[0]) + configSec.getStringList(beacon + ".baseblocks").size()
+                    + configSec.getStringList(beacon + ".links").size();
+            ConfigurationSection defBlocks = configSec.getConfigurationSection(beacon + ".defensiveblocks");
+            for (String defenseBlock : defBlocks.getKeys(false)) {
+                check += defBlocks.getInt(defenseBlock) + configSec.getString(beacon + ".defensiveblocksowner." + defenseBlock).length();
+            }
+        }
+        return check;
+    }
+
+    private static void saveSnapshot(int[][] beacons, File file) throws IOException {
+        RegisterSnapshotWriter writer = new RegisterSnapshotWriter(new FileOutputStream(file));
+        for (int[] b : beacons) {
+            writer.writeTag(RegisterSnapshotWriter.BEACON);
+            writer.writeString(b[3] < 0 ? null : TEAMS[b[3]]);
+            writer.writeSignedVarInt(b[0]);
+            writer.writeVarInt(b[1]);
+            writer.writeSignedVarInt(b[2]);
+            writer.writeVarInt(8);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    if (dx != 0 || dz != 0) {
+                        writer.writeSignedVarInt(dx);
+                        writer.writeSignedVarInt(dz);
+                    }
+                }
+            }
+            writer.writeVarInt(2);
+            for (int d = 0; d < 2; d++) {
+                writer.writeString("beaconz_world");
+                writer.writeSignedVarInt(b[0] + d);
+                writer.writeVarInt(b[1] + 1);
+                writer.writeSignedVarInt(b[2]);
+                writer.writeSignedVarInt(d + 1);
+                writer.writeString("5f2c3b9e-0c47-4a8e-8f4c-1d2e3f405162");
+            }
+            writer.writeVarInt(0);
+        }
+        for (int count = 0; count < beacons.length; count++) {
+            int[] b = beacons[count];
+            if (b[4] >= 0) {
+                writer.writeTag(RegisterSnapshotWriter.LINK);
+                writer.writeSignedVarInt(b[0]);
+                writer.writeSignedVarInt(b[2]);
+                writer.writeSignedVarInt(beacons[b[4]][0] - b[0]);
+                writer.writeSignedVarInt(beacons[b[4]][2] - b[2]);
+                writer.writeVarLong(count);
+            }
+        }
+        writer.finish();
+        writer.close();
+    }
+
+    private static long loadSnapshot(File file) throws IOException {
+        RegisterSnapshotReader reader = new RegisterSnapshotReader(new FileInputStream(file));
+        long check = 0;
+        int tag;
+        while ((tag = reader.readTag()) != RegisterSnapshotWriter.END) {
+            if (tag == RegisterSnapshotWriter.BEACON) {
+                reader.readString();
+                check += reader.readSignedVarInt();
+                reader.readVarInt();
+                reader.readSignedVarInt();
+                int count = reader.readVarInt();
+                check += count;
+                for (int i = 0; i < count; i++) {
+                    reader.readSignedVarInt();
+                    reader.readSignedVarInt();
+                }
+                count = reader.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    reader.readString();
+                    reader.readSignedVarInt();
+                    reader.readVarInt();
+                    reader.readSignedVarInt();
+                    check += reader.readSignedVarInt() + reader.readString().length();
+                }
+                count = reader.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    reader.readVarInt();
+                }
+            } else {
+                check++;
+                reader.readSignedVarInt();
+                reader.readSignedVarInt();
+                reader.readSignedVarInt();
+                reader.readSignedVarInt();
+                reader.readVarLong();
+            }
+        }
+        reader.close();
+        return check;
+    }
+}
@@ -0,0 +1,66 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class RegisterSnapshotTest {
+
+    private static final int[] INTS = {0, 1, -1, 63, -64, 64, 127, 128, 300, -300, 16383, 16384, 30000000, -30000000,
+            Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    @Test
+    public void shouldRoundTripValues() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RegisterSnapshotWriter writer = new RegisterSnapshotWriter(bytes);
+        for (int value : INTS) {
+            writer.writeTag(RegisterSnapshotWriter.BEACON);
+            writer.writeSignedVarInt(value);
+            writer.writeVarInt(value & Integer.MAX_VALUE);
+            writer.writeVarLong(((long)value) & Long.MAX_VALUE);
+            writer.writeString("team" + (value & 3));
+            writer.writeString(null);
+        }
+        writer.finish();
+        writer.close();
+
+        RegisterSnapshotReader reader = new RegisterSnapshotReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThat(reader.getVersion(), is(RegisterSnapshotWriter.VERSION));
+        for (int value : INTS) {
+            assertThat(reader.readTag(), is(RegisterSnapshotWriter.BEACON));
+            assertThat(reader.readSignedVarInt(), is(value));
+            assertThat(reader.readVarInt(), is(value & Integer.MAX_VALUE));
+            assertThat(reader.readVarLong(), is(((long)value) & Long.MAX_VALUE));
+            assertThat(reader.readString(), is("team" + (value & 3)));
+            assertThat(reader.readString(), is(nullValue()));
+        }
+        assertThat(reader.readTag(), is(RegisterSnapshotWriter.END));
+        reader.close();
+    }
+
+    @Test
+    public void shouldInternStrings() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RegisterSnapshotWriter writer = new RegisterSnapshotWriter(bytes);
+        writer.writeString("a_long_team_name");
+        writer.finish();
+        int first = bytes.size();
+        for (int i = 0; i < 100; i++) {
+            writer.writeString("a_long_team_name");
+        }
+        writer.finish();
+        // One byte per repeat plus the END tag
+        assertThat(bytes.size() - first, is(101));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectOtherFiles() throws IOException {
+        new RegisterSnapshotReader(new ByteArrayInputStream("beacon:\n".getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,96 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TinyDBTest {
+
+    private static final Logger LOGGER = Logger.getLogger("TinyDBTest");
+    private File folder;
+
+    @BeforeMethod
+    public void makeFolder() throws IOException {
+        folder = Files.createTempDirectory("tinydb").toFile();
+    }
+
+    @AfterMethod
+    public void removeFolder() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    private static UUID uuid(int i) {
+        return new UUID(i, i * 31L);
+    }
+
+    @Test
+    public void shouldFindNamesAfterReopening() {
+        TinyDB db = new TinyDB(null, folder, LOGGER);
+        // Enough to be merged into the index, plus some left in the log
+        for (int i = 0; i < 2500; i++) {
+            db.savePlayerName("Player" + i, uuid(i));
+            if (i % 700 == 0) {
+                db.saveDB();
+            }
+        }
+        db.saveDB();
+        db.close();
+
+        TinyDB reopened = new TinyDB(null, folder, LOGGER);
+        for (int i = 0; i < 2500; i++) {
+            assertThat(reopened.getPlayerUUID("player" + i), is(uuid(i)));
+        }
+        assertThat(reopened.getPlayerUUID("nobody"), is(nullValue()));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldKeepNewestNameOwner() {
+        TinyDB db = new TinyDB(null, folder, LOGGER);
+        for (int i = 0; i < 1000; i++) {
+            db.savePlayerName("Player" + i, uuid(i));
+        }
+        db.saveDB();
+        // Name taken by someone else later
+        db.savePlayerName("PLAYER5", uuid(-5));
+        db.saveDB();
+        db.close();
+
+        TinyDB reopened = new TinyDB(null, folder, LOGGER);
+        assertThat(reopened.getPlayerUUID("Player5"), is(uuid(-5)));
+        assertThat(reopened.getPlayerUUID("Player6"), is(uuid(6)));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldConvertOldTextFile() throws IOException {
+        try (PrintWriter out = new PrintWriter(new File(folder, "name-uuid.txt"))) {
+            // Newest first
+            out.println("alice");
+            out.println(uuid(1));
+            out.println("bob");
+            out.println(uuid(2));
+            out.println("alice");
+            out.println(uuid(3));
+        }
+        TinyDB db = new TinyDB(null, folder, LOGGER);
+        assertThat(db.getPlayerUUID("Alice"), is(uuid(1)));
+        assertThat(db.getPlayerUUID("bob"), is(uuid(2)));
+        assertThat(new File(folder, "name-uuid.txt").exists(), is(false));
+        db.close();
+    }
+}
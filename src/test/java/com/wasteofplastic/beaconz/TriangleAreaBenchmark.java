@@ -0,0 +1,79 @@
+package com.wasteofplastic.beaconz;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link TriangleAreaEngine} with the Area union loop in {@link TriangleScorer}.
+ * Not a unit test - run the main method by hand.
+ */
+public class TriangleAreaBenchmark {
+
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) {
+        for (int triangles : new int[] {10, 50, 200}) {
+            run(triangles);
+        }
+    }
+
+    private static void run(int triangleCount) {
+        Random rand = new Random(triangleCount);
+        // Triangles spread over a region so some overlap and some form separate islands
+        int side = (int)Math.sqrt(triangleCount) * 60;
+        List<TriangleField> triangles = new ArrayList<TriangleField>();
+        for (int i = 0; i < triangleCount; i++) {
+            int x = rand.nextInt(side);
+            int z = rand.nextInt(side);
+            triangles.add(new TriangleField(new Point2D.Double(x, z),
+                    new Point2D.Double(x + rand.nextInt(101) - 50, z + rand.nextInt(101) - 50),
+                    new Point2D.Double(x + rand.nextInt(101) - 50, z + rand.nextInt(101) - 50), null));
+        }
+        // Warm up all paths
+        double check = 0;
+        for (int i = 0; i < RUNS; i++) {
+            check += legacy(triangles) + TriangleAreaEngine.getUnionArea(triangles) + incremental(triangles);
+        }
+        long start = System.nanoTime();
+        double legacyArea = 0;
+        for (int i = 0; i < RUNS; i++) {
+            legacyArea = legacy(triangles);
+        }
+        long legacyTime = (System.nanoTime() - start) / RUNS;
+        start = System.nanoTime();
+        double sweepArea = 0;
+        for (int i = 0; i < RUNS; i++) {
+            sweepArea = TriangleAreaEngine.getUnionArea(triangles);
+        }
+        long sweepTime = (System.nanoTime() - start) / RUNS;
+        // One more triangle on top of an engine that already holds the rest - the cost of a capture
+        TriangleAreaEngine engine = new TriangleAreaEngine();
+        for (int i = 1; i < triangles.size(); i++) {
+            engine.add(triangles.get(i));
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            engine.add(triangles.get(0));
+            engine.remove(triangles.get(0));
+        }
+        long updateTime = (System.nanoTime() - start) / (RUNS * 2);
+        System.out.println(String.format("%4d triangles: Area loop %,12d ns (%.1f), sweep %,10d ns (%.1f), incremental update %,9d ns (%.0f)",
+                triangleCount, legacyTime, legacyArea, sweepTime, sweepArea, updateTime, check));
+    }
+
+    private static double legacy(List<TriangleField> triangles) {
+        // getTriangleSetArea empties the set it is given
+        return TriangleScorer.getTriangleSetArea(new HashSet<TriangleField>(triangles));
+    }
+
+    private static double incremental(List<TriangleField> triangles) {
+        TriangleAreaEngine engine = new TriangleAreaEngine();
+        for (TriangleField triangle : triangles) {
+            engine.add(triangle);
+        }
+        return engine.getArea();
+    }
+}
@@ -0,0 +1,145 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class TriangleAreaEngineTest {
+
+    @Test
+    public void shouldMatchTriangleScoreTestCases() {
+        // Two separate triangles and two intersecting triangles
+        assertThat(area(new int[] {
+                0, 0, 10, 0, 0, 10,
+                20, 0, 30, 0, 30, 10,
+                50, 50, 60, 50, 60, 60,
+                50, 50, 50, 60, 60, 50}), is(175));
+        // Two separate triangles
+        assertThat(area(new int[] {
+                0, 0, 10, 0, 0, 10,
+                20, 0, 30, 0, 30, 10}), is(100));
+        // Two triangles that have a common corner
+        assertThat(area(new int[] {
+                0, 0, 10, 0, 0, 10,
+                0, 0, -10, -10, -10, 0}), is(100));
+        // Four triangles all intersecting
+        assertThat(area(new int[] {
+                0, 0, -20, 40, 30,50,
+                10, 30, 20,0, 40,20,
+                30,20, 70,30, 70, 60,
+                40,0, 70,0, 60, 50}), is(2658));
+    }
+
+    @Test
+    public void incrementalShouldMatchFullSweep() {
+        Random rand = new Random(3);
+        TriangleAreaEngine engine = new TriangleAreaEngine();
+        List<TriangleField> triangles = new ArrayList<TriangleField>();
+        for (int i = 0; i < 400; i++) {
+            if (!triangles.isEmpty() && rand.nextInt(3) == 0) {
+                assertThat(engine.remove(triangles.remove(rand.nextInt(triangles.size()))), is(true));
+            } else {
+                TriangleField triangle = randomTriangle(rand);
+                triangles.add(triangle);
+                engine.add(triangle);
+            }
+            assertThat(Math.abs(engine.getArea() - TriangleAreaEngine.getUnionArea(triangles)) < 1e-6, is(true));
+        }
+        for (TriangleField triangle : triangles) {
+            engine.remove(triangle);
+        }
+        assertThat(engine.getArea(), is(0D));
+    }
+
+    @Test
+    public void recalculateShouldMatchFullSweep() {
+        Random rand = new Random(5);
+        TriangleAreaEngine engine = new TriangleAreaEngine();
+        List<TriangleField> triangles = new ArrayList<TriangleField>();
+        for (int i = 0; i < 2000; i++) {
+            if (triangles.size() > 20 && rand.nextInt(2) == 0) {
+                engine.remove(triangles.remove(rand.nextInt(triangles.size())));
+            } else {
+                TriangleField triangle = randomTriangle(rand);
+                triangles.add(triangle);
+                engine.add(triangle);
+            }
+        }
+        engine.recalculate();
+        assertThat(engine.getArea(), is(TriangleAreaEngine.getUnionArea(triangles)));
+        // A whole area that has drifted a little below still counts in full
+        assertThat(TriangleAreaEngine.toBlocks(2657.9999999), is(2658));
+        assertThat(TriangleAreaEngine.toBlocks(2658.6), is(2658));
+    }
+
+    @Test
+    public void shouldMatchAreaUnion() {
+        Random rand = new Random(11);
+        for (int run = 0; run < 50; run++) {
+            List<TriangleField> triangles = new ArrayList<TriangleField>();
+            Area union = new Area();
+            for (int i = 0; i < 12; i++) {
+                TriangleField triangle = randomTriangle(rand);
+                triangles.add(triangle);
+                union.add(new Area(triangle.getTriangle()));
+            }
+            assertThat(Math.abs(TriangleAreaEngine.getUnionArea(triangles) - signedArea(union)) < 1e-3, is(true));
+        }
+    }
+
+    private static int area(int[] data) {
+        TriangleAreaEngine engine = new TriangleAreaEngine();
+        for (int i = 0; i < data.length; i = i + 6) {
+            engine.add(new TriangleField(new Point2D.Double(data[i], data[i+1]), new Point2D.Double(data[i+2], data[i+3]),
+                    new Point2D.Double(data[i+4], data[i+5]), null));
+        }
+        return TriangleAreaEngine.toBlocks(engine.getArea());
+    }
+
+    private static TriangleField randomTriangle(Random rand) {
+        int x = rand.nextInt(200);
+        int z = rand.nextInt(200);
+        return new TriangleField(new Point2D.Double(x, z),
+                new Point2D.Double(x + rand.nextInt(81) - 40, z + rand.nextInt(81) - 40),
+                new Point2D.Double(x + rand.nextInt(81) - 40, z + rand.nextInt(81) - 40), null);
+    }
+
+    /**
+     * Area of a java.awt.geom.Area made of straight lines. Holes run the other way round so the signed
+     * sum of all the sub paths is the covered area.
+     */
+    private static double signedArea(Area area) {
+        double total = 0;
+        double[] coords = new double[6];
+        double startX = 0, startZ = 0, lastX = 0, lastZ = 0;
+        for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+            switch (it.currentSegment(coords)) {
+            case PathIterator.SEG_MOVETO:
+                startX = lastX = coords[0];
+                startZ = lastZ = coords[1];
+                break;
+            case PathIterator.SEG_LINETO:
+                total += lastX * coords[1] - coords[0] * lastZ;
+                lastX = coords[0];
+                lastZ = coords[1];
+                break;
+            case PathIterator.SEG_CLOSE:
+                total += lastX * startZ - startX * lastZ;
+                lastX = startX;
+                lastZ = startZ;
+                break;
+            default:
+                break;
+            }
+        }
+        return Math.abs(total / 2D);
+    }
+}
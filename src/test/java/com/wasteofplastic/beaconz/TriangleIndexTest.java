@@ -0,0 +1,117 @@
+package com.wasteofplastic.beaconz;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class TriangleIndexTest {
+
+    @Test
+    public void containsPointShouldMatchPolygon() {
+        TriangleField triangle = new TriangleField(new Point2D.Double(0, 0), new Point2D.Double(10, 0), new Point2D.Double(0, 10), null);
+        for (int x = -2; x < 13; x++) {
+            for (int z = -2; z < 13; z++) {
+                assertThat(triangle.containsPoint(x, z), is(triangle.getTriangle().contains(x, z)));
+            }
+        }
+    }
+
+    @Test
+    public void indexShouldMatchBruteForce() {
+        Random rand = new Random(7);
+        TriangleIndex index = new TriangleIndex();
+        List<TriangleField> triangles = new ArrayList<TriangleField>();
+        for (int i = 0; i < 200; i++) {
+            TriangleField triangle = new TriangleField(randomPoint(rand), randomPoint(rand), randomPoint(rand), null);
+            triangles.add(triangle);
+            index.add(triangle);
+        }
+        // Remove a few again
+        for (int i = 0; i < 20; i++) {
+            index.remove(triangles.remove(rand.nextInt(triangles.size())));
+        }
+        for (int i = 0; i < 5000; i++) {
+            int x = rand.nextInt(1200) - 600;
+            int z = rand.nextInt(1200) - 600;
+            int expected = 0;
+            for (TriangleField triangle : triangles) {
+                if (triangle.containsPoint(x, z)) {
+                    expected++;
+                }
+            }
+            assertThat(index.getTriangles(x, z).size(), is(expected));
+        }
+        for (int i = 0; i < 500; i++) {
+            int minX = rand.nextInt(1200) - 600;
+            int minZ = rand.nextInt(1200) - 600;
+            int maxX = minX + rand.nextInt(300);
+            int maxZ = minZ + rand.nextInt(300);
+            List<TriangleField> expected = new ArrayList<TriangleField>();
+            for (TriangleField triangle : triangles) {
+                if (triangle.getMaxX() >= minX && triangle.getMinX() <= maxX && triangle.getMaxZ() >= minZ && triangle.getMinZ() <= maxZ) {
+                    expected.add(triangle);
+                }
+            }
+            List<TriangleField> found = index.getTriangles(minX, minZ, maxX, maxZ);
+            assertThat(found.size(), is(expected.size()));
+            assertThat(found.containsAll(expected), is(true));
+        }
+    }
+
+    @Test
+    public void rowSpanShouldMatchContainsPoint() {
+        Random rand = new Random(11);
+        int[] span = new int[2];
+        for (int i = 0; i < 300; i++) {
+            TriangleField triangle = new TriangleField(randomSmallPoint(rand), randomSmallPoint(rand), randomSmallPoint(rand), null);
+            for (int z = -45; z < 45; z++) {
+                boolean any = triangle.getRowSpan(z, span);
+                for (int x = -45; x < 45; x++) {
+                    boolean inSpan = any && x >= span[0] && x < span[1];
+                    assertThat(inSpan, is(triangle.containsPoint(x, z)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void uniformAreaShouldHaveSameTriangles() {
+        Random rand = new Random(13);
+        TriangleIndex index = new TriangleIndex();
+        for (int i = 0; i < 40; i++) {
+            index.add(new TriangleField(randomPoint(rand), randomPoint(rand), randomPoint(rand), null));
+        }
+        int[] bounds = new int[4];
+        int found = 0;
+        for (int i = 0; i < 300; i++) {
+            int x = rand.nextInt(1200) - 600;
+            int z = rand.nextInt(1200) - 600;
+            if (!index.getUniformArea(x, z, bounds)) {
+                continue;
+            }
+            found++;
+            assertThat(x >= bounds[0] && x <= bounds[2] && z >= bounds[1] && z <= bounds[3], is(true));
+            List<TriangleField> expected = index.getTriangles(x, z);
+            for (int bx = bounds[0]; bx <= bounds[2]; bx++) {
+                for (int bz = bounds[1]; bz <= bounds[3]; bz++) {
+                    assertThat(index.getTriangles(bx, bz), is(expected));
+                }
+            }
+        }
+        assertThat(found > 250, is(true));
+    }
+
+    private Point2D randomSmallPoint(Random rand) {
+        return new Point2D.Double(rand.nextInt(80) - 40, rand.nextInt(80) - 40);
+    }
+
+    private Point2D randomPoint(Random rand) {
+        return new Point2D.Double(rand.nextInt(1000) - 500, rand.nextInt(1000) - 500);
+    }
+}
@@ -3,8 +3,12 @@ package com.wasteofplastic.beaconz;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.awt.Rectangle;
+import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.testng.annotations.Test;
@@ -85,4 +89,46 @@ public class TriangleScoreTest {
         area = (int)TriangleScorer.getTriangleSetArea(triangleFields);
         assertThat(area, is(2658));
     }
+
+    @Test
+    public void checkDepthAreas() {
+        List<TriangleField> triangles = new ArrayList<TriangleField>();
+        // Two triangles that overlap by 25
+        triangles.add(new TriangleField(new Point2D.Double(50, 50), new Point2D.Double(60, 50), new Point2D.Double(60, 60), null));
+        triangles.add(new TriangleField(new Point2D.Double(50, 50), new Point2D.Double(50, 60), new Point2D.Double(60, 50), null));
+        // One on its own
+        triangles.add(new TriangleField(new Point2D.Double(0, 0), new Point2D.Double(10, 0), new Point2D.Double(0, 10), null));
+        List<Area> layers = TriangleScorer.getDepthAreas(triangles, 3);
+        assertThat(layers.size(), is(3));
+        List<Point2D[]> outlines = TriangleScorer.getOutlines(layers.get(0));
+        assertThat(outlines.size(), is(2));
+        assertThat((int)Math.round(outlineArea(outlines)), is(125));
+        outlines = TriangleScorer.getOutlines(layers.get(1));
+        assertThat(outlines.size(), is(1));
+        assertThat((int)Math.round(outlineArea(outlines)), is(25));
+        assertThat(TriangleScorer.getOutlines(layers.get(2)).size(), is(0));
+    }
+
+    @Test
+    public void checkOutlinesLeaveOutHoles() {
+        Area area = new Area(new Rectangle(0, 0, 30, 30));
+        area.subtract(new Area(new Rectangle(10, 10, 10, 10)));
+        area.add(new Area(new Rectangle(100, 0, 10, 10)));
+        List<Point2D[]> outlines = TriangleScorer.getOutlines(area);
+        assertThat(outlines.size(), is(2));
+        assertThat((int)Math.round(outlineArea(outlines)), is(1000));
+    }
+
+    private static double outlineArea(List<Point2D[]> outlines) {
+        double total = 0;
+        for (Point2D[] outline : outlines) {
+            double area = 0;
+            for (int i = 0; i < outline.length; i++) {
+                int j = (i + 1) % outline.length;
+                area += outline[i].getX() * outline[j].getY() - outline[j].getX() * outline[i].getY();
+            }
+            total += Math.abs(area / 2.0);
+        }
+        return total;
+    }
 }